@@ -0,0 +1,207 @@
+package com.volcano.chat.admission;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coze 上游自适应并发上限（AIMD + 延迟梯度）
+ *
+ * 以时间窗口汇总上游样本：首字节时间 (TTFB)、错误（5xx/429/连接失败）与超时。
+ * 每个窗口结束（且样本数足够）时：
+ * - 错误率超过阈值：上限乘以 backoff-ratio（reason=error_rate）
+ * - 平均 TTFB 超过基线的 ttfb-tolerance 倍：上限乘以 backoff-ratio（reason=latency）
+ * - 否则若名额接近用满或有请求排队：上限加 increase-step（reason=increase）
+ * TTFB 基线取观测到的最低窗口均值，并缓慢向当前均值漂移，以适应上游的长期变化。
+ * 上限始终在 [min-limit, chat.sse.max-concurrent] 之间，并同步到 AdmissionScheduler。
+ *
+ * 未启用时只记录 chat.coze.ttfb 与上游失败计数，不调整上限。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class AdaptiveConcurrencyLimit {
+
+    private static final double BASELINE_DRIFT = 0.05;
+    private static final double SATURATION = 0.9;
+
+    private final AdmissionScheduler admissionScheduler;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${chat.sse.adaptive.enabled:false}")
+    private boolean enabled;
+
+    @Value("${chat.sse.adaptive.min-limit:20}")
+    private int minLimit;
+
+    /**
+     * 初始上限，0 表示从上限（chat.sse.max-concurrent）开始
+     */
+    @Value("${chat.sse.adaptive.initial-limit:0}")
+    private int initialLimit;
+
+    @Value("${chat.sse.adaptive.window-ms:5000}")
+    private long windowMs;
+
+    @Value("${chat.sse.adaptive.min-samples:10}")
+    private int minSamples;
+
+    @Value("${chat.sse.adaptive.ttfb-tolerance:2.0}")
+    private double ttfbTolerance;
+
+    @Value("${chat.sse.adaptive.error-rate-threshold:0.1}")
+    private double errorRateThreshold;
+
+    @Value("${chat.sse.adaptive.backoff-ratio:0.9}")
+    private double backoffRatio;
+
+    @Value("${chat.sse.adaptive.increase-step:5}")
+    private int increaseStep;
+
+    private int floor;
+    private int ceiling;
+    private volatile int limit;
+    private volatile double baselineMs = -1;
+
+    // 当前窗口，由 this 锁保护
+    private long windowStartNanos = System.nanoTime();
+    private int ttfbCount;
+    private double ttfbSumMs;
+    private int errors;
+    private int timeouts;
+
+    private Timer ttfbTimer;
+    private Counter upstreamErrors;
+    private Counter upstreamTimeouts;
+
+    @PostConstruct
+    public void init() {
+        ttfbTimer = Timer.builder("chat.coze.ttfb")
+                .description("Time to first byte of the Coze streaming response")
+                .publishPercentiles(0.5, 0.9, 0.99)
+                .register(meterRegistry);
+        upstreamErrors = Counter.builder("chat.coze.upstream_failures").tag("type", "error").register(meterRegistry);
+        upstreamTimeouts = Counter.builder("chat.coze.upstream_failures").tag("type", "timeout")
+                .register(meterRegistry);
+        if (enabled) {
+            Gauge.builder("chat.sse.adaptive.limit", this, AdaptiveConcurrencyLimit::limit)
+                    .description("Adaptive SSE concurrency limit").register(meterRegistry);
+            Gauge.builder("chat.sse.adaptive.ttfb_baseline_ms", this, l -> Math.max(0, l.baselineMs))
+                    .description("TTFB baseline used for latency backoff").register(meterRegistry);
+        }
+    }
+
+    /**
+     * 由 CozeProxyService 在确定最终并发上限（含虚拟线程内存预算）后调用，作为自适应的上限
+     */
+    public synchronized void start(int maxLimit) {
+        if (!enabled) {
+            return;
+        }
+        ceiling = Math.max(1, maxLimit);
+        floor = Math.max(1, Math.min(minLimit, ceiling));
+        limit = initialLimit > 0 ? clamp(initialLimit) : ceiling;
+        windowStartNanos = System.nanoTime();
+        admissionScheduler.setLimit(limit);
+        log.info("Adaptive SSE limit enabled - limit: {}, floor: {}, ceiling: {}, window: {}ms",
+                limit, floor, ceiling, windowMs);
+    }
+
+    /**
+     * 上游响应头到达（200）
+     */
+    public void onFirstByte(long ttfbNanos) {
+        ttfbTimer.record(ttfbNanos, TimeUnit.NANOSECONDS);
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            ttfbCount++;
+            ttfbSumMs += ttfbNanos / 1_000_000.0;
+            maybeEvaluate();
+        }
+    }
+
+    /**
+     * 上游失败：5xx/429、连接错误，或响应头/流式数据超时
+     */
+    public void onFailure(boolean timeout) {
+        (timeout ? upstreamTimeouts : upstreamErrors).increment();
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            if (timeout) {
+                timeouts++;
+            } else {
+                errors++;
+            }
+            maybeEvaluate();
+        }
+    }
+
+    public int limit() {
+        return limit;
+    }
+
+    private void maybeEvaluate() {
+        long now = System.nanoTime();
+        if (now - windowStartNanos < TimeUnit.MILLISECONDS.toNanos(windowMs)) {
+            return;
+        }
+        int samples = ttfbCount + errors + timeouts;
+        if (samples < minSamples) {
+            // 样本不足时继续累积，避免低流量下的噪声调整
+            return;
+        }
+        double errorRate = (errors + timeouts) / (double) samples;
+        double avgTtfbMs = ttfbCount > 0 ? ttfbSumMs / ttfbCount : -1;
+        double baseline = baselineMs;
+        if (avgTtfbMs > 0) {
+            baselineMs = baseline < 0 || avgTtfbMs < baseline
+                    ? avgTtfbMs
+                    : baseline + (avgTtfbMs - baseline) * BASELINE_DRIFT;
+        }
+
+        if (errorRate > errorRateThreshold) {
+            adjust((int) (limit * backoffRatio), "error_rate",
+                    String.format("error rate %.2f (%d errors, %d timeouts / %d)", errorRate, errors, timeouts, samples));
+        } else if (avgTtfbMs > 0 && baseline > 0 && avgTtfbMs > baseline * ttfbTolerance) {
+            adjust((int) (limit * backoffRatio), "latency",
+                    String.format("avg TTFB %.0fms > %.1f x baseline %.0fms", avgTtfbMs, ttfbTolerance, baseline));
+        } else if (admissionScheduler.queueDepth() > 0 || admissionScheduler.inFlight() >= limit * SATURATION) {
+            adjust(limit + increaseStep, "increase",
+                    String.format("healthy and saturated (avg TTFB %.0fms, in flight %d)",
+                            avgTtfbMs, admissionScheduler.inFlight()));
+        }
+
+        windowStartNanos = now;
+        ttfbCount = 0;
+        ttfbSumMs = 0;
+        errors = 0;
+        timeouts = 0;
+    }
+
+    private void adjust(int target, String reason, String detail) {
+        int next = clamp(target);
+        if (next == limit) {
+            return;
+        }
+        log.info("Adaptive SSE limit {} -> {} ({}: {})", limit, next, reason, detail);
+        limit = next;
+        Counter.builder("chat.sse.adaptive.adjustments").tag("reason", reason).register(meterRegistry).increment();
+        admissionScheduler.setLimit(next);
+    }
+
+    private int clamp(int value) {
+        return Math.max(floor, Math.min(ceiling, value));
+    }
+}
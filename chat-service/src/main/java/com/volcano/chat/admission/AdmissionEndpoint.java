@@ -0,0 +1,46 @@
+package com.volcano.chat.admission;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * /actuator/sseadmission：准入调度器快照（全局上限、在途、队列深度与各用户的在途/排队数）
+ * 用户标识只保留前 4 位，最多列出在途数最高的 50 个用户。
+ */
+@Component
+@Endpoint(id = "sseadmission")
+@RequiredArgsConstructor
+public class AdmissionEndpoint {
+
+    private static final int MAX_USERS = 50;
+
+    private final AdmissionScheduler admissionScheduler;
+
+    @ReadOperation
+    public Map<String, Object> admission() {
+        List<AdmissionScheduler.UserLoad> loads = admissionScheduler.userLoads();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("limit", admissionScheduler.limit());
+        result.put("inFlight", admissionScheduler.inFlight());
+        result.put("queueDepth", admissionScheduler.queueDepth());
+        result.put("activeUsers", loads.size());
+        result.put("users", loads.stream()
+                .limit(MAX_USERS)
+                .map(load -> Map.of(
+                        "user", mask(load.userKey()),
+                        "inFlight", load.inFlight(),
+                        "queued", load.queued()))
+                .toList());
+        return result;
+    }
+
+    private static String mask(String userKey) {
+        return userKey == null ? "" : userKey.substring(0, Math.min(4, userKey.length())) + "...";
+    }
+}
@@ -0,0 +1,82 @@
+package com.volcano.chat.admission;
+
+import java.util.List;
+
+/**
+ * SSE 流准入调度器
+ *
+ * sendMessage 发起上游调用前申请一张 Ticket：有名额时立即放行；否则按实现的策略排队或拒绝。
+ * 排队的 Ticket 获得名额时回调 onGranted；流结束（或客户端离开）时必须调用 release 归还名额/出队。
+ * 自定义实现注册为 @Primary Bean 即可替换默认的 FairShareAdmissionScheduler。
+ */
+public interface AdmissionScheduler {
+
+    enum State {
+        GRANTED,
+        QUEUED,
+        REJECTED,
+        /** 已归还或已出队 */
+        RELEASED
+    }
+
+    enum RejectReason {
+        /** 全局名额已满且队列已满（或未启用排队） */
+        CAPACITY,
+        /** 该用户的并发流已达上限 */
+        USER_LIMIT
+    }
+
+    /**
+     * 申请准入
+     *
+     * @param userKey 用户标识（手机号），用于按用户限流与公平分配
+     * @param onGranted 排队的 Ticket 获得名额时调用（在释放名额的线程上执行，应尽快返回）；立即放行时不调用
+     */
+    Ticket acquire(String userKey, Runnable onGranted);
+
+    /**
+     * 调整全局并发上限，调大时立即从队列放行
+     */
+    void setLimit(int limit);
+
+    int limit();
+
+    int inFlight();
+
+    int queueDepth();
+
+    /**
+     * 各用户的在途与排队数（按在途数降序）
+     */
+    List<UserLoad> userLoads();
+
+    interface Ticket {
+
+        State state();
+
+        /**
+         * 仅 REJECTED 时有值
+         */
+        RejectReason rejectReason();
+
+        /**
+         * 归还名额（GRANTED）或出队（QUEUED），可重复调用
+         */
+        void release();
+
+        /**
+         * 仅在仍排队时出队（排队超时使用，避免与放行竞争时误归还已放行的名额）
+         *
+         * @return 是否由本次调用出队
+         */
+        boolean withdraw();
+
+        /**
+         * 排队中的预计放行顺位（从 1 开始），未排队时返回 0
+         */
+        int position();
+    }
+
+    record UserLoad(String userKey, int inFlight, int queued) {
+    }
+}
@@ -0,0 +1,312 @@
+package com.volcano.chat.admission;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按用户公平分配的准入调度器（默认实现）
+ *
+ * - 全局并发上限 limit（初始为 chat.sse.max-concurrent，可由自适应限流动态调整）
+ * - 单用户并发上限 chat.sse.admission.per-user-max，单个用户（或脚本持有的一个 Token）无法占满全部名额
+ * - 名额不足时进入按用户划分的 FIFO 队列（总长度 chat.sse.admission.queue-max，0 表示不排队、直接拒绝），
+ *   名额释放后在有排队请求且未达单用户上限的用户之间轮转放行（unit-cost 的 deficit round-robin），
+ *   排队多的用户不会挤占其他用户的机会
+ * - 单用户排队上限 chat.sse.admission.per-user-queue-max（0 表示不限），超出后以 USER_LIMIT 拒绝，
+ *   单个用户无法占满共享队列、让其他用户只能拿到 CAPACITY 429
+ *
+ * 所有状态由 this 锁保护；onGranted 回调在锁外执行。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class FairShareAdmissionScheduler implements AdmissionScheduler {
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${chat.sse.admission.per-user-max:5}")
+    private int perUserMax;
+
+    @Value("${chat.sse.admission.queue-max:100}")
+    private int queueMax;
+
+    @Value("${chat.sse.admission.per-user-queue-max:10}")
+    private int perUserQueueMax;
+
+    @Value("${chat.sse.max-concurrent:300}")
+    private int limit;
+
+    private int inFlight;
+    private int queued;
+    private final Map<String, UserState> users = new HashMap<>();
+    /** 有排队请求的用户轮转顺序 */
+    private final ArrayDeque<UserState> rotation = new ArrayDeque<>();
+
+    private Counter rejectedCapacity;
+    private Counter rejectedUserLimit;
+    private Counter queuedTotal;
+
+    @PostConstruct
+    public void init() {
+        limit = Math.max(1, limit);
+        Gauge.builder("chat.sse.admission.in_flight", this, AdmissionScheduler::inFlight)
+                .description("Admitted SSE streams").register(meterRegistry);
+        Gauge.builder("chat.sse.admission.queue_depth", this, AdmissionScheduler::queueDepth)
+                .description("SSE requests waiting for admission").register(meterRegistry);
+        Gauge.builder("chat.sse.admission.limit", this, AdmissionScheduler::limit)
+                .description("Current global SSE concurrency limit").register(meterRegistry);
+        Gauge.builder("chat.sse.admission.active_users", this, FairShareAdmissionScheduler::activeUsers)
+                .description("Users with admitted or queued SSE streams").register(meterRegistry);
+        rejectedCapacity = Counter.builder("chat.sse.admission.rejected").tag("reason", "capacity")
+                .register(meterRegistry);
+        rejectedUserLimit = Counter.builder("chat.sse.admission.rejected").tag("reason", "user_limit")
+                .register(meterRegistry);
+        queuedTotal = Counter.builder("chat.sse.admission.queued").register(meterRegistry);
+        log.info("SSE admission - fair-share, limit: {}, per-user max: {}, queue max: {}, per-user queue max: {}",
+                limit, perUserMax > 0 ? perUserMax : "unlimited", queueMax,
+                perUserQueueMax > 0 ? perUserQueueMax : "unlimited");
+    }
+
+    @Override
+    public Ticket acquire(String userKey, Runnable onGranted) {
+        FairTicket ticket;
+        synchronized (this) {
+            UserState user = users.computeIfAbsent(userKey, UserState::new);
+            ticket = new FairTicket(user, onGranted);
+            boolean userCapped = perUserMax > 0 && user.inFlight >= perUserMax;
+            if (!userCapped && inFlight < limit) {
+                // 有空闲名额说明队列中没有可放行的请求，直接放行不会插队
+                grant(ticket);
+            } else if (userQueueFull(user)) {
+                ticket.state = State.REJECTED;
+                ticket.rejectReason = RejectReason.USER_LIMIT;
+                rejectedUserLimit.increment();
+            } else if (queued < queueMax) {
+                ticket.state = State.QUEUED;
+                user.waiting.addLast(ticket);
+                if (user.waiting.size() == 1) {
+                    rotation.addLast(user);
+                }
+                queued++;
+                queuedTotal.increment();
+            } else {
+                ticket.state = State.REJECTED;
+                ticket.rejectReason = userCapped ? RejectReason.USER_LIMIT : RejectReason.CAPACITY;
+                (userCapped ? rejectedUserLimit : rejectedCapacity).increment();
+                removeIfIdle(user);
+            }
+        }
+        return ticket;
+    }
+
+    private boolean userQueueFull(UserState user) {
+        return perUserQueueMax > 0 && user.waiting.size() >= perUserQueueMax;
+    }
+
+    @Override
+    public void setLimit(int newLimit) {
+        List<FairTicket> granted;
+        synchronized (this) {
+            limit = Math.max(1, newLimit);
+            granted = dispatch();
+        }
+        notifyGranted(granted);
+    }
+
+    @Override
+    public synchronized int limit() {
+        return limit;
+    }
+
+    @Override
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    @Override
+    public synchronized int queueDepth() {
+        return queued;
+    }
+
+    private synchronized int activeUsers() {
+        return users.size();
+    }
+
+    @Override
+    public synchronized List<UserLoad> userLoads() {
+        List<UserLoad> loads = new ArrayList<>(users.size());
+        for (UserState user : users.values()) {
+            loads.add(new UserLoad(user.key, user.inFlight, user.waiting.size()));
+        }
+        loads.sort(Comparator.comparingInt(UserLoad::inFlight).reversed());
+        return loads;
+    }
+
+    private boolean release(FairTicket ticket, boolean queuedOnly) {
+        List<FairTicket> granted;
+        synchronized (this) {
+            UserState user = ticket.user;
+            if (ticket.state == State.GRANTED && !queuedOnly) {
+                inFlight--;
+                user.inFlight--;
+            } else if (ticket.state == State.QUEUED) {
+                user.waiting.remove(ticket);
+                queued--;
+                if (user.waiting.isEmpty()) {
+                    rotation.remove(user);
+                }
+            } else {
+                return false;
+            }
+            ticket.state = State.RELEASED;
+            granted = dispatch();
+            removeIfIdle(user);
+        }
+        notifyGranted(granted);
+        return true;
+    }
+
+    /**
+     * 按轮转规则估算顺位：排在第 k 位的请求之前，每个排队用户各有 min(队列长度, k) 个请求先放行，
+     * 轮转顺序在本用户之前且队列更长的用户再多放行一个（不考虑单用户上限造成的跳过）
+     */
+    private synchronized int position(FairTicket ticket) {
+        if (ticket.state != State.QUEUED) {
+            return 0;
+        }
+        int k = 0;
+        for (FairTicket waiting : ticket.user.waiting) {
+            if (waiting == ticket) {
+                break;
+            }
+            k++;
+        }
+        int ahead = 0;
+        boolean before = true;
+        for (UserState user : rotation) {
+            if (user == ticket.user) {
+                before = false;
+                ahead += k;
+                continue;
+            }
+            int len = user.waiting.size();
+            ahead += Math.min(len, k) + (before && len > k ? 1 : 0);
+        }
+        return ahead + 1;
+    }
+
+    /**
+     * 在有排队请求的用户之间轮转放行，直到名额用尽或剩余用户都已达单用户上限
+     */
+    private List<FairTicket> dispatch() {
+        List<FairTicket> granted = null;
+        int skipped = 0;
+        while (inFlight < limit && !rotation.isEmpty() && skipped < rotation.size()) {
+            UserState user = rotation.pollFirst();
+            if (perUserMax > 0 && user.inFlight >= perUserMax) {
+                rotation.addLast(user);
+                skipped++;
+                continue;
+            }
+            skipped = 0;
+            FairTicket ticket = user.waiting.pollFirst();
+            queued--;
+            grant(ticket);
+            if (!user.waiting.isEmpty()) {
+                rotation.addLast(user);
+            }
+            if (granted == null) {
+                granted = new ArrayList<>();
+            }
+            granted.add(ticket);
+        }
+        return granted;
+    }
+
+    private void grant(FairTicket ticket) {
+        ticket.state = State.GRANTED;
+        ticket.user.inFlight++;
+        inFlight++;
+    }
+
+    private void removeIfIdle(UserState user) {
+        if (user.inFlight == 0 && user.waiting.isEmpty()) {
+            users.remove(user.key, user);
+        }
+    }
+
+    private void notifyGranted(List<FairTicket> granted) {
+        if (granted == null) {
+            return;
+        }
+        for (FairTicket ticket : granted) {
+            try {
+                ticket.onGranted.run();
+            } catch (RuntimeException e) {
+                log.error("SSE admission grant callback failed", e);
+                ticket.release();
+            }
+        }
+    }
+
+    private static final class UserState {
+        final String key;
+        int inFlight;
+        final ArrayDeque<FairTicket> waiting = new ArrayDeque<>(1);
+
+        UserState(String key) {
+            this.key = key;
+        }
+    }
+
+    private final class FairTicket implements Ticket {
+        final UserState user;
+        final Runnable onGranted;
+        State state;
+        RejectReason rejectReason;
+
+        FairTicket(UserState user, Runnable onGranted) {
+            this.user = user;
+            this.onGranted = onGranted;
+        }
+
+        @Override
+        public State state() {
+            synchronized (FairShareAdmissionScheduler.this) {
+                return state;
+            }
+        }
+
+        @Override
+        public RejectReason rejectReason() {
+            return rejectReason;
+        }
+
+        @Override
+        public void release() {
+            FairShareAdmissionScheduler.this.release(this, false);
+        }
+
+        @Override
+        public boolean withdraw() {
+            return FairShareAdmissionScheduler.this.release(this, true);
+        }
+
+        @Override
+        public int position() {
+            return FairShareAdmissionScheduler.this.position(this);
+        }
+    }
+}
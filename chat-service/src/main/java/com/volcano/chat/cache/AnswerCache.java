@@ -0,0 +1,339 @@
+package com.volcano.chat.cache;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.volcano.chat.config.CozeConfig;
+import com.volcano.chat.dto.ChatRequest;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 无状态工作流问题的精确匹配回答缓存
+ *
+ * 只缓存不带 conversationId 的首轮提问；键由规范化后的问题、workflow_id 与非用户参数组成
+ * （user_uuid 由代理注入，sse_* 为代理层流控参数，均不参与）。值为回答的增量分片序列，命中时按原分片重放。
+ *
+ * 两级存储：
+ * - 本地：按条目数上限淘汰（LRU 或 LFU），条目过期时间 ttl-seconds
+ * - Redis（可选）：SET EX 共享给所有节点，本地未命中时查询并回填本地
+ *
+ * 指标：chat.answer_cache.requests{result=hit_local|hit_redis|miss}、chat.answer_cache.entries。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class AnswerCache {
+
+    private static final String KEY_PREFIX = "answer:cache:";
+    private static final String USER_PARAM = "user_uuid";
+    private static final String PROXY_PARAM_PREFIX = "sse_";
+    private static final String EVICTION_LFU = "lfu";
+    private static final ObjectWriter CANONICAL_JSON =
+            new ObjectMapper().writer().with(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+
+    private final CozeConfig cozeConfig;
+    private final StringRedisTemplate redisTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${chat.answer-cache.enabled:false}")
+    private boolean enabled;
+
+    @Value("${chat.answer-cache.ttl-seconds:600}")
+    private long ttlSeconds;
+
+    @Value("${chat.answer-cache.max-entries:1000}")
+    private int maxEntries;
+
+    /**
+     * 超过该长度的问题不缓存（FAQ 类问题通常很短）
+     */
+    @Value("${chat.answer-cache.max-question-chars:200}")
+    private int maxQuestionChars;
+
+    /**
+     * 超过该长度的回答不缓存，限制单条目内存
+     */
+    @Value("${chat.answer-cache.max-answer-chars:8000}")
+    private int maxAnswerChars;
+
+    /**
+     * 本地淘汰策略：lru | lfu
+     */
+    @Value("${chat.answer-cache.eviction:lru}")
+    private String eviction;
+
+    @Value("${chat.answer-cache.redis.enabled:false}")
+    private boolean redisEnabled;
+
+    /**
+     * 命中后重放分片的间隔，0 表示一次性写出
+     */
+    @Value("${chat.answer-cache.replay-interval-ms:0}")
+    private long replayIntervalMs;
+
+    // 本地条目，由 this 锁保护；access-order 即 LRU 顺序
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private Counter localHits;
+    private Counter redisHits;
+    private Counter misses;
+
+    @PostConstruct
+    public void init() {
+        eviction = eviction == null ? "lru" : eviction.trim().toLowerCase(Locale.ROOT);
+        localHits = counter("hit_local");
+        redisHits = counter("hit_redis");
+        misses = counter("miss");
+        Gauge.builder("chat.answer_cache.entries", this, cache -> cache.size())
+                .description("Answers held in the local answer cache").register(meterRegistry);
+        if (enabled) {
+            log.info("Answer cache enabled - ttl: {}s, max entries: {}, eviction: {}, redis: {}, replay interval: {}ms",
+                    ttlSeconds, maxEntries, eviction, redisEnabled, replayIntervalMs);
+        }
+    }
+
+    private Counter counter(String result) {
+        return Counter.builder("chat.answer_cache.requests").tag("result", result).register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long replayIntervalMs() {
+        return replayIntervalMs;
+    }
+
+    /**
+     * 计算请求的缓存键；不可缓存（带会话、问题过长或为空）时返回 null。
+     * 键同时用于单飞合并，是否启用缓存由调用方通过 isEnabled 判断
+     */
+    public String keyFor(ChatRequest request) {
+        if (request.getMessage() == null) {
+            return null;
+        }
+        if (request.getConversationId() != null && !request.getConversationId().isEmpty()) {
+            return null;
+        }
+        String question = normalize(request.getMessage());
+        if (question.isEmpty() || question.length() > maxQuestionChars) {
+            return null;
+        }
+        String scope = scopeMaterial(request);
+        return scope == null ? null : sha256(scope + '\n' + question);
+    }
+
+    /**
+     * 问题之外的缓存维度（workflow_id 与非用户参数）的摘要，相似问题索引只在同一 scope 内匹配
+     */
+    public String scopeFor(ChatRequest request) {
+        String scope = scopeMaterial(request);
+        return scope == null ? null : sha256(scope);
+    }
+
+    /**
+     * workflow_id 与参数的规范 JSON（各层 Map 按键排序，保留值类型与字符串引号，不同参数不会编码成同一串）；
+     * 参数无法序列化时返回 null（不缓存）
+     */
+    private String scopeMaterial(ChatRequest request) {
+        TreeMap<String, Object> params = new TreeMap<>();
+        if (request.getParams() != null) {
+            request.getParams().forEach((name, value) -> {
+                if (!USER_PARAM.equals(name) && !name.startsWith(PROXY_PARAM_PREFIX)) {
+                    params.put(name, value);
+                }
+            });
+        }
+        try {
+            return cozeConfig.getWorkflowId() + '\n' + CANONICAL_JSON.writeValueAsString(params);
+        } catch (JsonProcessingException | RuntimeException e) {
+            log.debug("Answer cache: params not serializable, request not cached - {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 查询缓存：先本地后 Redis，Redis 命中回填本地
+     */
+    public CachedAnswer get(String key) {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (entry.expiresAt > now) {
+                    entry.hits++;
+                    localHits.increment();
+                    return entry.answer;
+                }
+                entries.remove(key);
+            }
+        }
+        if (redisEnabled) {
+            CachedAnswer answer = redisGet(key);
+            if (answer != null) {
+                putLocal(key, answer, now);
+                redisHits.increment();
+                return answer;
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * 写入一次完整成功的回答（分片序列），超过大小上限时忽略
+     */
+    public void put(String key, List<String> chunks) {
+        CachedAnswer answer = new CachedAnswer(List.copyOf(chunks));
+        int chars = answer.length();
+        if (chars == 0 || chars > maxAnswerChars) {
+            return;
+        }
+        putLocal(key, answer, System.currentTimeMillis());
+        if (redisEnabled) {
+            try {
+                redisTemplate.opsForValue().set(KEY_PREFIX + key, encode(answer.chunks()), ttlSeconds, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                log.warn("Answer cache: Redis write failed - {}", e.getMessage());
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private synchronized void putLocal(String key, CachedAnswer answer, long now) {
+        entries.put(key, new Entry(answer, now + TimeUnit.SECONDS.toMillis(ttlSeconds)));
+        while (entries.size() > Math.max(1, maxEntries)) {
+            entries.remove(victim(key, now));
+        }
+    }
+
+    /**
+     * 淘汰对象：优先已过期条目；LRU 取最久未访问，LFU 取命中次数最少（相同时取最久未访问），
+     * 刚写入的条目不参与（否则 LFU 下新条目总是立即被淘汰）
+     */
+    private String victim(String incoming, long now) {
+        String victim = null;
+        long fewestHits = Long.MAX_VALUE;
+        for (Map.Entry<String, Entry> candidate : entries.entrySet()) {
+            if (candidate.getKey().equals(incoming)) {
+                continue;
+            }
+            Entry entry = candidate.getValue();
+            if (entry.expiresAt <= now) {
+                return candidate.getKey();
+            }
+            if (!EVICTION_LFU.equals(eviction)) {
+                return candidate.getKey();
+            }
+            if (entry.hits < fewestHits) {
+                fewestHits = entry.hits;
+                victim = candidate.getKey();
+            }
+        }
+        return victim;
+    }
+
+    private CachedAnswer redisGet(String key) {
+        try {
+            String value = redisTemplate.opsForValue().get(KEY_PREFIX + key);
+            return value == null ? null : new CachedAnswer(decode(value));
+        } catch (Exception e) {
+            log.warn("Answer cache: Redis read failed - {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 规范化问题：NFKC（全角转半角）、去首尾空白、合并连续空白、小写
+     */
+    public static String normalize(String message) {
+        String text = Normalizer.normalize(message, Normalizer.Form.NFKC).trim();
+        return text.replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 分片编码为 "长度:内容" 的拼接，避免分隔符与内容冲突
+     */
+    static String encode(List<String> chunks) {
+        StringBuilder sb = new StringBuilder();
+        for (String chunk : chunks) {
+            sb.append(chunk.length()).append(':').append(chunk);
+        }
+        return sb.toString();
+    }
+
+    static List<String> decode(String value) {
+        List<String> chunks = new ArrayList<>();
+        int pos = 0;
+        while (pos < value.length()) {
+            int colon = value.indexOf(':', pos);
+            int length = Integer.parseInt(value.substring(pos, colon));
+            chunks.add(value.substring(colon + 1, colon + 1 + length));
+            pos = colon + 1 + length;
+        }
+        return chunks;
+    }
+
+    private static String sha256(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 缓存的回答：按上游增量顺序保存的分片
+     */
+    public record CachedAnswer(List<String> chunks) {
+
+        public String answer() {
+            return String.join("", chunks);
+        }
+
+        public int length() {
+            int length = 0;
+            for (String chunk : chunks) {
+                length += chunk.length();
+            }
+            return length;
+        }
+    }
+
+    private static final class Entry {
+        private final CachedAnswer answer;
+        private final long expiresAt;
+        private long hits;
+
+        private Entry(CachedAnswer answer, long expiresAt) {
+            this.answer = answer;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package com.volcano.chat.cache;
+
+import com.volcano.chat.coze.CozeHttpClient;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 会话消息历史缓存（GET /api/chat/messages/{conversationId}）
+ *
+ * 条目按 conversation_id 存储并记录所属用户，只返回给同一用户（首次读取由该用户的 token 经 Coze 鉴权）。
+ *
+ * 两级存储：
+ * - 本地 near-cache：按条目数 LRU 淘汰，过期时间 local-ttl-seconds（兜底错过的失效通知）
+ * - Redis（可选）：SET EX 共享给所有节点，本地未命中时查询并回填本地
+ *
+ * 写穿失效：sendMessage 向某会话发起生成时与生成结束时调用 invalidate，删除本地与 Redis 条目，
+ * 并通过 Redis 频道通知其他节点删除各自的本地条目，新消息立即可见。
+ * 读取上游期间该会话发生过失效时不写入，避免把旧历史写回缓存：本地按失效 epoch 判断；
+ * Redis 中每个会话另有版本号（失效时 INCR），读取上游前取得版本号，写入由 Lua 脚本在版本号未变时才执行，
+ * 其他节点的失效即使先于本节点收到通知，也不会被本节点的旧结果覆盖。
+ *
+ * 指标：chat.history_cache.requests{result=hit_local|hit_redis|miss}、chat.history_cache.entries。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class MessageHistoryCache {
+
+    private static final String KEY_PREFIX = "history:cache:";
+    private static final String VERSION_KEY_PREFIX = "history:cache:version:";
+    private static final String INVALIDATE_CHANNEL = "history:cache:invalidate";
+
+    /**
+     * KEYS[1] 为条目，KEYS[2] 为版本号；版本号（不存在视为 0）等于 ARGV[1] 时写入 ARGV[2]，过期 ARGV[3] 秒
+     */
+    static final DefaultRedisScript<Long> PUT_SCRIPT = new DefaultRedisScript<>(
+            "if (redis.call('GET', KEYS[2]) or '0') ~= ARGV[1] then return 0 end\n"
+                    + "redis.call('SET', KEYS[1], ARGV[2], 'EX', ARGV[3])\n"
+                    + "return 1", Long.class);
+
+    /**
+     * 递增版本号（过期 ARGV[1] 秒）并删除条目
+     */
+    static final DefaultRedisScript<Long> INVALIDATE_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('INCR', KEYS[2])\n"
+                    + "redis.call('EXPIRE', KEYS[2], ARGV[1])\n"
+                    + "redis.call('DEL', KEYS[1])\n"
+                    + "return 1", Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${chat.history-cache.enabled:false}")
+    private boolean enabled;
+
+    @Value("${chat.history-cache.local-ttl-seconds:60}")
+    private long localTtlSeconds;
+
+    @Value("${chat.history-cache.max-entries:2000}")
+    private int maxEntries;
+
+    /**
+     * 超过该大小的历史不缓存
+     */
+    @Value("${chat.history-cache.max-body-kb:256}")
+    private int maxBodyKb;
+
+    @Value("${chat.history-cache.redis.enabled:false}")
+    private boolean redisEnabled;
+
+    @Value("${chat.history-cache.redis.ttl-seconds:600}")
+    private long redisTtlSeconds;
+
+    // 本地条目，由 this 锁保护；access-order 即 LRU 顺序
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * 每次失效（本地或远程通知）递增；invalidatedAt 记录各会话最近一次失效时的值，
+     * 用于丢弃读取上游期间该会话发生过失效的结果。记录数有上限，被淘汰记录中的最大值保存在 forgottenEpoch
+     */
+    private final AtomicLong epoch = new AtomicLong();
+    private final LinkedHashMap<String, Long> invalidatedAt = new LinkedHashMap<>(16, 0.75f, false);
+    private long forgottenEpoch;
+
+    private RedisMessageListenerContainer listener;
+
+    private Counter localHits;
+    private Counter redisHits;
+    private Counter misses;
+
+    @PostConstruct
+    public void init() {
+        localHits = counter("hit_local");
+        redisHits = counter("hit_redis");
+        misses = counter("miss");
+        Gauge.builder("chat.history_cache.entries", this, cache -> cache.size())
+                .description("Conversation histories held in the local near-cache").register(meterRegistry);
+        if (!enabled) {
+            return;
+        }
+        if (redisEnabled) {
+            listener = new RedisMessageListenerContainer();
+            listener.setConnectionFactory(redisTemplate.getRequiredConnectionFactory());
+            listener.addMessageListener((message, pattern) ->
+                            evictLocal(new String(message.getBody(), StandardCharsets.UTF_8)),
+                    new ChannelTopic(INVALIDATE_CHANNEL));
+            listener.afterPropertiesSet();
+            listener.start();
+        }
+        log.info("Message history cache enabled - local ttl: {}s, max entries: {}, redis: {} (ttl {}s)",
+                localTtlSeconds, maxEntries, redisEnabled, redisTtlSeconds);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (listener != null) {
+            try {
+                listener.destroy();
+            } catch (Exception e) {
+                log.debug("History cache listener shutdown failed - {}", e.getMessage());
+            }
+        }
+    }
+
+    private Counter counter(String result) {
+        return Counter.builder("chat.history_cache.requests").tag("result", result).register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 读取上游前取得当前 epoch，随结果传给 put
+     */
+    public long epoch() {
+        return epoch.get();
+    }
+
+    /**
+     * 读取上游前取得该会话在 Redis 中的版本号，随结果传给 put；未启用 Redis 或读取失败时返回 null
+     */
+    public String version(String conversationId) {
+        if (!enabled || !redisEnabled || conversationId == null) {
+            return null;
+        }
+        try {
+            String version = redisTemplate.opsForValue().get(VERSION_KEY_PREFIX + conversationId);
+            return version != null ? version : "0";
+        } catch (Exception e) {
+            log.warn("History cache: Redis version read failed - {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 查询缓存：先本地后 Redis，Redis 命中回填本地；条目属于其他用户时视为未命中
+     */
+    public String get(String conversationId, String owner) {
+        if (!enabled || conversationId == null || owner == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Entry entry = entries.get(conversationId);
+            if (entry != null) {
+                if (entry.expiresAt > now && entry.owner.equals(owner)) {
+                    localHits.increment();
+                    return entry.body;
+                }
+                if (entry.expiresAt <= now) {
+                    entries.remove(conversationId);
+                }
+            }
+        }
+        if (redisEnabled) {
+            long before = epoch.get();
+            Entry entry = redisGet(conversationId);
+            if (entry != null && entry.owner.equals(owner)) {
+                putLocal(conversationId, entry.owner, entry.body, before, now);
+                redisHits.increment();
+                return entry.body;
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * 写入一次成功的上游响应（Coze code 为 0）；since 之后发生过失效、响应过大或为错误时忽略。
+     * version 为读取前的 Redis 版本号，为 null 或已变化时不写 Redis
+     */
+    public void put(String conversationId, String owner, String body, long since, String version) {
+        if (!enabled || conversationId == null || owner == null || body == null
+                || body.length() > maxBodyKb * 1024 || !CozeHttpClient.isSuccess(body)) {
+            return;
+        }
+        if (!putLocal(conversationId, owner, body, since, System.currentTimeMillis())) {
+            return;
+        }
+        if (redisEnabled && version != null) {
+            try {
+                redisTemplate.execute(PUT_SCRIPT, keys(conversationId), version, owner + '\n' + body,
+                        String.valueOf(redisTtlSeconds));
+            } catch (Exception e) {
+                log.warn("History cache: Redis write failed - {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 会话有新消息：删除本地与 Redis 条目并通知其他节点
+     */
+    public void invalidate(String conversationId) {
+        if (!enabled || conversationId == null || conversationId.isEmpty()) {
+            return;
+        }
+        evictLocal(conversationId);
+        if (redisEnabled) {
+            try {
+                // 版本号至少保留一个条目 TTL，覆盖期间开始的读取
+                redisTemplate.execute(INVALIDATE_SCRIPT, keys(conversationId), String.valueOf(redisTtlSeconds));
+                redisTemplate.convertAndSend(INVALIDATE_CHANNEL, conversationId);
+            } catch (Exception e) {
+                log.warn("History cache: Redis invalidation failed - {}", e.getMessage());
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private synchronized void evictLocal(String conversationId) {
+        entries.remove(conversationId);
+        invalidatedAt.remove(conversationId);
+        invalidatedAt.put(conversationId, epoch.incrementAndGet());
+        while (invalidatedAt.size() > Math.max(1, maxEntries)) {
+            String oldest = invalidatedAt.keySet().iterator().next();
+            forgottenEpoch = Math.max(forgottenEpoch, invalidatedAt.remove(oldest));
+        }
+    }
+
+    private synchronized boolean putLocal(String conversationId, String owner, String body, long since, long now) {
+        Long invalidated = invalidatedAt.get(conversationId);
+        if (since < forgottenEpoch || (invalidated != null && invalidated > since)) {
+            return false;
+        }
+        entries.put(conversationId, new Entry(owner, body, now + TimeUnit.SECONDS.toMillis(localTtlSeconds)));
+        while (entries.size() > Math.max(1, maxEntries)) {
+            entries.remove(entries.keySet().iterator().next());
+        }
+        return true;
+    }
+
+    private static List<String> keys(String conversationId) {
+        return Arrays.asList(KEY_PREFIX + conversationId, VERSION_KEY_PREFIX + conversationId);
+    }
+
+    private Entry redisGet(String conversationId) {
+        try {
+            String value = redisTemplate.opsForValue().get(KEY_PREFIX + conversationId);
+            int split = value == null ? -1 : value.indexOf('\n');
+            return split < 0 ? null : new Entry(value.substring(0, split), value.substring(split + 1), 0);
+        } catch (Exception e) {
+            log.warn("History cache: Redis read failed - {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private record Entry(String owner, String body, long expiresAt) {
+    }
+}
@@ -0,0 +1,387 @@
+package com.volcano.chat.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 近似重复问题索引（回答缓存的第二级）
+ *
+ * 精确匹配未命中时，在最近成功回答过的无状态问题中查找相似问题：
+ * - 规范化：NFKC（全角转半角）、小写、去除标点与空白、去掉“请问/你好”等礼貌前缀和句末语气词
+ * - 相似度：字符 bigram 集合的 Jaccard 系数；候选由 MinHash 签名分段 (LSH) 召回，再按精确 Jaccard 判定
+ * - 只在同一 scope（workflow_id + 非用户参数）内匹配
+ *
+ * 条目数上限 max-entries（LRU 淘汰）与 ttl-seconds 约束内存。
+ * shadow 模式下只记录“本可命中”的匹配并照常请求上游，上游回答完成后与候选回答比对，
+ * 差异过大计为误命中 (false_positive)，用于在真正启用前调节阈值。
+ *
+ * 指标：chat.similar_cache.lookups{result=hit|miss|shadow_hit}、chat.similar_cache.shadow{outcome}、
+ * chat.similar_cache.entries。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SimilarAnswerIndex {
+
+    private static final int HASHES = 64;
+    private static final int BANDS = 16;
+    private static final int ROWS = HASHES / BANDS;
+    private static final long[] SEEDS = new long[HASHES];
+    private static final String[] POLITE_PREFIXES = {
+            "请问一下", "请问", "请教一下", "请教", "我想问一下", "我想问", "想问一下", "想问", "问一下",
+            "麻烦问一下", "麻烦", "你好", "您好"
+    };
+    /**
+     * 英文问候只作为完整的开头单词去除（须在去掉空白与标点之前匹配，否则 history、hiking 也会被截掉）。
+     * 单词边界按"后面不是拉丁字母或数字"判断：\b 在 hi 与紧跟的中文之间不成立，"hi你好" 会漏掉
+     */
+    private static final Pattern ENGLISH_GREETING =
+            Pattern.compile("^[^\\p{L}\\p{N}]*(?:(?:hi|hello)(?![\\p{IsLatin}\\p{N}])[^\\p{L}\\p{N}]*)+");
+    private static final String TRAILING_PARTICLES = "呢吗呀啊吧";
+
+    static {
+        long seed = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < HASHES; i++) {
+            seed = mix(seed + i);
+            SEEDS[i] = seed;
+        }
+    }
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${chat.similar-cache.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * 只记录不命中：启用初期默认开启，阈值调好后再关闭
+     */
+    @Value("${chat.similar-cache.shadow:true}")
+    private boolean shadow;
+
+    @Value("${chat.similar-cache.threshold:0.8}")
+    private double threshold;
+
+    @Value("${chat.similar-cache.max-entries:2000}")
+    private int maxEntries;
+
+    @Value("${chat.similar-cache.ttl-seconds:600}")
+    private long ttlSeconds;
+
+    /**
+     * shadow 校验：上游回答与候选回答的 bigram Jaccard 低于该值计为误命中
+     */
+    @Value("${chat.similar-cache.shadow-answer-threshold:0.6}")
+    private double shadowAnswerThreshold;
+
+    // 以下结构由 this 锁保护；access-order 即 LRU 顺序
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Long, Set<Entry>> buckets = new HashMap<>();
+    private final Map<String, Entry> byQuestion = new HashMap<>();
+    private long nextId;
+
+    private Counter hits;
+    private Counter misses;
+    private Counter shadowHits;
+    private Counter confirmed;
+    private Counter falsePositives;
+
+    @PostConstruct
+    public void init() {
+        hits = lookups("hit");
+        misses = lookups("miss");
+        shadowHits = lookups("shadow_hit");
+        confirmed = Counter.builder("chat.similar_cache.shadow").tag("outcome", "confirmed").register(meterRegistry);
+        falsePositives = Counter.builder("chat.similar_cache.shadow").tag("outcome", "false_positive")
+                .register(meterRegistry);
+        Gauge.builder("chat.similar_cache.entries", this, index -> index.size())
+                .description("Questions held in the near-duplicate index").register(meterRegistry);
+        if (enabled) {
+            log.info("Similar answer index enabled - shadow: {}, threshold: {}, max entries: {}, ttl: {}s",
+                    shadow, threshold, maxEntries, ttlSeconds);
+        }
+    }
+
+    private Counter lookups(String result) {
+        return Counter.builder("chat.similar_cache.lookups").tag("result", result).register(meterRegistry);
+    }
+
+    /**
+     * 查找相似问题；未启用或无足够相似的问题时返回 null。shadow 模式下返回的匹配 shadow()=true，不应直接作答
+     */
+    public Match find(String scope, String question) {
+        if (!enabled) {
+            return null;
+        }
+        int[] shingles = shingles(normalize(question));
+        if (shingles.length == 0) {
+            return null;
+        }
+        long[] signature = signature(shingles);
+        long now = System.currentTimeMillis();
+        Entry best = null;
+        double bestSimilarity = 0;
+        synchronized (this) {
+            Set<Entry> seen = new LinkedHashSet<>();
+            for (int band = 0; band < BANDS; band++) {
+                Set<Entry> bucket = buckets.get(bandKey(scope, signature, band));
+                if (bucket != null) {
+                    seen.addAll(bucket);
+                }
+            }
+            for (Entry candidate : seen) {
+                if (candidate.expiresAt <= now || !candidate.scope.equals(scope)) {
+                    continue;
+                }
+                double similarity = jaccard(shingles, candidate.shingles);
+                if (similarity > bestSimilarity) {
+                    bestSimilarity = similarity;
+                    best = candidate;
+                }
+            }
+            if (best != null && bestSimilarity >= threshold) {
+                entries.get(best.id);
+            }
+        }
+        if (best == null || bestSimilarity < threshold) {
+            misses.increment();
+            return null;
+        }
+        if (shadow) {
+            shadowHits.increment();
+            log.info("Similar cache (shadow) would hit: similarity={}, question=\"{}\", cached=\"{}\"",
+                    String.format("%.3f", bestSimilarity), abbreviate(question), abbreviate(best.question));
+        } else {
+            hits.increment();
+        }
+        return new Match(best.answer, bestSimilarity, best.question, shadow);
+    }
+
+    /**
+     * 登记一次完整成功的回答
+     */
+    public void add(String scope, String question, AnswerCache.CachedAnswer answer) {
+        if (!enabled) {
+            return;
+        }
+        String normalized = normalize(question);
+        int[] shingles = shingles(normalized);
+        if (shingles.length == 0) {
+            return;
+        }
+        long[] signature = signature(shingles);
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Entry entry = new Entry(nextId++, scope, question, shingles, answer,
+                    now + TimeUnit.SECONDS.toMillis(ttlSeconds));
+            entry.questionKey = scope + '\n' + normalized;
+            Entry previous = byQuestion.put(entry.questionKey, entry);
+            if (previous != null) {
+                entries.remove(previous.id);
+                unindex(previous);
+            }
+            entry.bandKeys = new long[BANDS];
+            for (int band = 0; band < BANDS; band++) {
+                entry.bandKeys[band] = bandKey(scope, signature, band);
+                buckets.computeIfAbsent(entry.bandKeys[band], key -> new LinkedHashSet<>()).add(entry);
+            }
+            entries.put(entry.id, entry);
+            evict(now);
+        }
+    }
+
+    /**
+     * shadow 校验：比较上游实际回答与本可命中的缓存回答
+     */
+    public void verifyShadow(Match match, String upstreamAnswer) {
+        double agreement = jaccard(shingles(normalize(upstreamAnswer)), shingles(normalize(match.answer().answer())));
+        if (agreement >= shadowAnswerThreshold) {
+            confirmed.increment();
+        } else {
+            falsePositives.increment();
+            log.info("Similar cache (shadow) false positive: similarity={}, answer agreement={}, question=\"{}\"",
+                    String.format("%.3f", match.similarity()), String.format("%.3f", agreement),
+                    abbreviate(match.matchedQuestion()));
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void evict(long now) {
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry eldest = it.next();
+            if (entries.size() <= Math.max(1, maxEntries) && eldest.expiresAt > now) {
+                break;
+            }
+            it.remove();
+            byQuestion.remove(eldest.questionKey, eldest);
+            unindex(eldest);
+        }
+    }
+
+    private void unindex(Entry entry) {
+        for (long key : entry.bandKeys) {
+            Set<Entry> bucket = buckets.get(key);
+            if (bucket != null && bucket.remove(entry) && bucket.isEmpty()) {
+                buckets.remove(key);
+            }
+        }
+    }
+
+    /**
+     * 相似度规范化：在精确匹配规范化基础上去除标点、空白、礼貌前缀与句末语气词
+     */
+    static String normalize(String text) {
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        Matcher greeting = ENGLISH_GREETING.matcher(normalized);
+        if (greeting.lookingAt() && greeting.end() < normalized.length()) {
+            normalized = normalized.substring(greeting.end());
+        }
+        StringBuilder sb = new StringBuilder(normalized.length());
+        normalized.codePoints()
+                .filter(cp -> Character.isLetterOrDigit(cp))
+                .forEach(sb::appendCodePoint);
+        String result = sb.toString();
+        boolean stripped = true;
+        while (stripped) {
+            stripped = false;
+            for (String prefix : POLITE_PREFIXES) {
+                if (result.startsWith(prefix) && result.length() > prefix.length()) {
+                    result = result.substring(prefix.length());
+                    stripped = true;
+                }
+            }
+        }
+        while (result.length() > 1 && TRAILING_PARTICLES.indexOf(result.charAt(result.length() - 1)) >= 0) {
+            result = result.substring(0, result.length() - 1);
+        }
+        return result;
+    }
+
+    /**
+     * 字符 bigram 的哈希集合（已排序去重）；单字符文本退化为 unigram
+     */
+    static int[] shingles(String text) {
+        int[] codePoints = text.codePoints().toArray();
+        if (codePoints.length == 0) {
+            return new int[0];
+        }
+        if (codePoints.length == 1) {
+            return new int[] { codePoints[0] };
+        }
+        int[] shingles = new int[codePoints.length - 1];
+        for (int i = 0; i < shingles.length; i++) {
+            shingles[i] = codePoints[i] * 31 + codePoints[i + 1] * 1_000_003;
+        }
+        return Arrays.stream(shingles).sorted().distinct().toArray();
+    }
+
+    static double jaccard(int[] a, int[] b) {
+        if (a.length == 0 && b.length == 0) {
+            return 1.0;
+        }
+        int i = 0;
+        int j = 0;
+        int common = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] == b[j]) {
+                common++;
+                i++;
+                j++;
+            } else if (a[i] < b[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return (double) common / (a.length + b.length - common);
+    }
+
+    private static long[] signature(int[] shingles) {
+        long[] signature = new long[HASHES];
+        Arrays.fill(signature, Long.MAX_VALUE);
+        for (int shingle : shingles) {
+            for (int i = 0; i < HASHES; i++) {
+                long h = mix(shingle ^ SEEDS[i]);
+                if (h < signature[i]) {
+                    signature[i] = h;
+                }
+            }
+        }
+        return signature;
+    }
+
+    private static long bandKey(String scope, long[] signature, int band) {
+        long h = scope.hashCode() * 31L + band;
+        for (int row = band * ROWS; row < (band + 1) * ROWS; row++) {
+            h = mix(h ^ signature[row]);
+        }
+        return h;
+    }
+
+    /**
+     * SplitMix64 混合函数
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static String abbreviate(String text) {
+        return text.length() > 50 ? text.substring(0, 50) + "..." : text;
+    }
+
+    /**
+     * 相似匹配结果
+     *
+     * @param answer          候选回答
+     * @param similarity      问题相似度（bigram Jaccard）
+     * @param matchedQuestion 命中的已缓存问题
+     * @param shadow          为 true 时只作记录，不应直接作答
+     */
+    public record Match(AnswerCache.CachedAnswer answer, double similarity, String matchedQuestion, boolean shadow) {
+    }
+
+    private static final class Entry {
+        private final long id;
+        private final String scope;
+        private final String question;
+        private final int[] shingles;
+        private final AnswerCache.CachedAnswer answer;
+        private final long expiresAt;
+        private long[] bandKeys;
+        private String questionKey;
+
+        private Entry(long id, String scope, String question, int[] shingles, AnswerCache.CachedAnswer answer,
+                      long expiresAt) {
+            this.id = id;
+            this.scope = scope;
+            this.question = question;
+            this.shingles = shingles;
+            this.answer = answer;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
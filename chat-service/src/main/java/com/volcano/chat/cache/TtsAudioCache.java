@@ -0,0 +1,442 @@
+package com.volcano.chat.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * TTS 音频缓存（内容寻址）
+ *
+ * 键为 sha256(音频格式 + voice_id + 文本)，问候语、免责声明等固定句子只需合成一次。
+ *
+ * 两级存储：
+ * - 内存：不超过 memory-entry-max-kb 的热条目，总字节数超过 memory-max-mb 时按 LRU 淘汰
+ * - 磁盘：每个条目一个以键命名的文件，总字节数超过 disk-max-mb 时按最近访问 LRU 淘汰；
+ *   写入先落临时文件并 force，再原子改名，崩溃只会留下可丢弃的 .tmp；启动时扫描目录重建索引（按修改时间恢复 LRU 顺序）
+ *
+ * 磁盘命中通过 FileChannel.map 只读映射后分块写出，不把整段音频读入堆；小条目在磁盘命中后提升到内存。
+ *
+ * 指标：chat.tts_cache.requests{result=hit_memory|hit_disk|miss}、chat.tts_cache.bytes_saved、
+ * chat.tts_cache.bytes{tier=memory|disk}。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class TtsAudioCache {
+
+    private static final String SUFFIX = ".audio";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final Pattern ENTRY_NAME = Pattern.compile("[0-9a-f]{64}\\" + SUFFIX);
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${chat.tts-cache.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * 磁盘目录，为空时使用 ${java.io.tmpdir}/volcano-tts-cache
+     */
+    @Value("${chat.tts-cache.dir:}")
+    private String dir;
+
+    @Value("${chat.tts-cache.memory-max-mb:32}")
+    private long memoryMaxMb;
+
+    /**
+     * 超过该大小的条目只存磁盘
+     */
+    @Value("${chat.tts-cache.memory-entry-max-kb:256}")
+    private int memoryEntryMaxKb;
+
+    @Value("${chat.tts-cache.disk-max-mb:1024}")
+    private long diskMaxMb;
+
+    /**
+     * 超过该大小的音频不缓存
+     */
+    @Value("${chat.tts-cache.entry-max-mb:8}")
+    private int entryMaxMb;
+
+    /**
+     * 超过该长度的文本不缓存（长回答几乎不会重复）
+     */
+    @Value("${chat.tts-cache.max-text-chars:1000}")
+    private int maxTextChars;
+
+    private Path directory;
+
+    // 两级索引都由 this 锁保护；access-order 即 LRU 顺序
+    private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Long> disk = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes;
+    private long diskBytes;
+
+    private Counter memoryHits;
+    private Counter diskHits;
+    private Counter misses;
+    private Counter bytesSaved;
+
+    @PostConstruct
+    public void init() {
+        memoryHits = counter("hit_memory");
+        diskHits = counter("hit_disk");
+        misses = counter("miss");
+        bytesSaved = Counter.builder("chat.tts_cache.bytes_saved").baseUnit("bytes")
+                .description("Audio bytes served from the TTS cache instead of Coze").register(meterRegistry);
+        Gauge.builder("chat.tts_cache.bytes", this, cache -> cache.memoryBytes())
+                .tag("tier", "memory").baseUnit("bytes").register(meterRegistry);
+        Gauge.builder("chat.tts_cache.bytes", this, cache -> cache.diskBytes())
+                .tag("tier", "disk").baseUnit("bytes").register(meterRegistry);
+        if (!enabled) {
+            return;
+        }
+        directory = dir == null || dir.isBlank()
+                ? Paths.get(System.getProperty("java.io.tmpdir"), "volcano-tts-cache")
+                : Paths.get(dir);
+        try {
+            Files.createDirectories(directory);
+            rebuildIndex();
+        } catch (IOException e) {
+            log.warn("TTS cache disabled: cannot use directory {} - {}", directory, e.getMessage());
+            enabled = false;
+            return;
+        }
+        log.info("TTS cache enabled - dir: {}, entries: {}, disk: {}/{}MB, memory: {}MB (entries <= {}KB)",
+                directory, disk.size(), diskBytes / (1024 * 1024), diskMaxMb, memoryMaxMb, memoryEntryMaxKb);
+    }
+
+    private Counter counter(String result) {
+        return Counter.builder("chat.tts_cache.requests").tag("result", result).register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 计算缓存键；未启用、文本为空或过长时返回 null
+     *
+     * @param format 决定音频字节的全部输出参数（编码、采样率、语速等）
+     */
+    public String keyFor(CharSequence text, String voiceId, String format) {
+        if (!enabled || text == null || text.isEmpty() || text.length() > maxTextChars) {
+            return null;
+        }
+        return sha256(format + '\n' + (voiceId == null ? "" : voiceId) + '\n' + text);
+    }
+
+    /**
+     * 查询缓存：先内存后磁盘，未命中返回 null
+     */
+    public Audio get(String key) {
+        synchronized (this) {
+            byte[] bytes = memory.get(key);
+            if (bytes != null) {
+                memoryHits.increment();
+                bytesSaved.increment(bytes.length);
+                return new Audio(ByteBuffer.wrap(bytes));
+            }
+            if (disk.get(key) == null) {
+                misses.increment();
+                return null;
+            }
+        }
+        Path file = fileFor(key);
+        ByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            // 与淘汰并发删除，或文件在外部被清理
+            if (!(e instanceof NoSuchFileException)) {
+                log.warn("TTS cache: failed to map {} - {}", file, e.getMessage());
+            }
+            removeDisk(key);
+            misses.increment();
+            return null;
+        }
+        touch(file);
+        diskHits.increment();
+        bytesSaved.increment(mapped.remaining());
+        if (mapped.remaining() <= memoryEntryMaxKb * 1024L) {
+            byte[] copy = new byte[mapped.remaining()];
+            mapped.duplicate().get(copy);
+            putMemory(key, copy);
+        }
+        return new Audio(mapped);
+    }
+
+    /**
+     * 为一次上游合成创建写入器，音频分片边转发边落盘；未启用时返回 null
+     */
+    public AudioWriter writer(String key) {
+        if (!enabled) {
+            return null;
+        }
+        try {
+            return new AudioWriter(key, Files.createTempFile(directory, key + ".", TMP_SUFFIX));
+        } catch (IOException e) {
+            log.warn("TTS cache: cannot create temp file - {}", e.getMessage());
+            return null;
+        }
+    }
+
+    public synchronized int size() {
+        return disk.size();
+    }
+
+    public synchronized long memoryBytes() {
+        return memoryBytes;
+    }
+
+    public synchronized long diskBytes() {
+        return diskBytes;
+    }
+
+    /**
+     * 扫描目录重建磁盘索引：删除上次崩溃遗留的临时文件，按修改时间从旧到新恢复 LRU 顺序，超出容量的立即淘汰
+     */
+    private void rebuildIndex() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(TMP_SUFFIX)) {
+                    Files.deleteIfExists(file);
+                } else if (ENTRY_NAME.matcher(name).matches()) {
+                    entries.add(file);
+                }
+            }
+        }
+        entries.sort(Comparator.comparing(TtsAudioCache::lastModified));
+        synchronized (this) {
+            for (Path file : entries) {
+                String name = file.getFileName().toString();
+                long size = Files.size(file);
+                disk.put(name.substring(0, name.length() - SUFFIX.length()), size);
+                diskBytes += size;
+            }
+            evictDisk(null);
+        }
+    }
+
+    private synchronized void register(String key, long size) {
+        Long previous = disk.put(key, size);
+        diskBytes += size - (previous == null ? 0 : previous);
+        evictDisk(key);
+    }
+
+    private void evictDisk(String incoming) {
+        long max = diskMaxMb * 1024 * 1024;
+        Iterator<Map.Entry<String, Long>> it = disk.entrySet().iterator();
+        while (diskBytes > max && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            if (eldest.getKey().equals(incoming)) {
+                continue;
+            }
+            it.remove();
+            diskBytes -= eldest.getValue();
+            try {
+                Files.deleteIfExists(fileFor(eldest.getKey()));
+            } catch (IOException e) {
+                log.debug("TTS cache: failed to delete evicted entry - {}", e.getMessage());
+            }
+        }
+    }
+
+    private synchronized void removeDisk(String key) {
+        Long size = disk.remove(key);
+        if (size != null) {
+            diskBytes -= size;
+        }
+    }
+
+    private synchronized void putMemory(String key, byte[] bytes) {
+        byte[] previous = memory.put(key, bytes);
+        memoryBytes += bytes.length - (previous == null ? 0 : previous.length);
+        long max = memoryMaxMb * 1024 * 1024;
+        Iterator<Map.Entry<String, byte[]>> it = memory.entrySet().iterator();
+        while (memoryBytes > max && it.hasNext()) {
+            Map.Entry<String, byte[]> eldest = it.next();
+            it.remove();
+            memoryBytes -= eldest.getValue().length;
+        }
+    }
+
+    private Path fileFor(String key) {
+        return directory.resolve(key + SUFFIX);
+    }
+
+    /**
+     * 记录访问时间，重启后据此恢复 LRU 顺序（尽力而为）
+     */
+    private static void touch(Path file) {
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ignore) {
+        }
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static String sha256(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 命中的音频：内存条目为堆数组视图，磁盘条目为只读映射
+     */
+    public static final class Audio {
+
+        private final ByteBuffer data;
+
+        private Audio(ByteBuffer data) {
+            this.data = data.asReadOnlyBuffer();
+        }
+
+        public int size() {
+            return data.remaining();
+        }
+
+        /**
+         * 独立读位置的只读视图
+         */
+        public ByteBuffer data() {
+            return data.duplicate();
+        }
+
+        /**
+         * 经调用方提供的缓冲分块写出全部音频
+         */
+        public void writeTo(OutputStream out, byte[] buffer) throws IOException {
+            ByteBuffer src = data();
+            while (src.hasRemaining()) {
+                int n = Math.min(buffer.length, src.remaining());
+                src.get(buffer, 0, n);
+                out.write(buffer, 0, n);
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * 一次合成的落盘写入器：commit 后才对读者可见；未 commit 即 close（客户端中断、上游出错、超过大小上限）时丢弃
+     */
+    public final class AudioWriter implements Closeable {
+
+        private final String key;
+        private final Path tmp;
+        private final FileChannel channel;
+        private long size;
+        private boolean done;
+
+        private AudioWriter(String key, Path tmp) throws IOException {
+            this.key = key;
+            this.tmp = tmp;
+            this.channel = FileChannel.open(tmp, StandardOpenOption.WRITE);
+        }
+
+        public void write(byte[] bytes, int off, int len) {
+            if (done) {
+                return;
+            }
+            if (size + len > entryMaxMb * 1024L * 1024L) {
+                close();
+                return;
+            }
+            try {
+                ByteBuffer src = ByteBuffer.wrap(bytes, off, len);
+                while (src.hasRemaining()) {
+                    channel.write(src);
+                }
+                size += len;
+            } catch (IOException e) {
+                log.warn("TTS cache: write failed - {}", e.getMessage());
+                close();
+            }
+        }
+
+        /**
+         * 合成完整结束：刷盘后原子改名并登记
+         */
+        public void commit() {
+            if (done) {
+                return;
+            }
+            done = true;
+            try {
+                channel.force(false);
+                channel.close();
+                if (size == 0) {
+                    Files.deleteIfExists(tmp);
+                    return;
+                }
+                Files.move(tmp, fileFor(key), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                register(key, size);
+            } catch (IOException e) {
+                log.warn("TTS cache: commit failed - {}", e.getMessage());
+                deleteTmp();
+            }
+        }
+
+        @Override
+        public void close() {
+            if (done) {
+                return;
+            }
+            done = true;
+            try {
+                channel.close();
+            } catch (IOException ignore) {
+            }
+            deleteTmp();
+        }
+
+        private void deleteTmp() {
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ignore) {
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.volcano.chat.cache;
+
+import com.volcano.chat.dto.UserTokenInfo;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 会话信息（UserTokenInfo）本地 near-cache，位于 Redis（user:token:{jwt}）之前
+ *
+ * 每次鉴权（对话、取消、历史、WebSocket 握手）都要读取会话 Hash，命中本地时不再访问 Redis。
+ * 条目过期时间取 local-ttl-seconds 与读取时 Redis Key 剩余 TTL 的较小值，不会比会话本身活得更久；
+ * 按条目数 LRU 淘汰。Coze Token 为空的会话不缓存（等待后台续期补齐）。
+ *
+ * 失效：删除会话（deleteUserToken）与 Coze Token 续期后调用 invalidate，删除本地条目并通过 Redis 频道
+ * 通知其他节点；local-ttl-seconds 兜底错过的通知。读取 Redis 期间该会话发生过失效时不写入。
+ *
+ * 指标：chat.user_token_cache.requests{result=hit|miss}、chat.user_token_cache.age（命中条目自读取
+ * Redis 起的时长，即可能的陈旧程度）、chat.user_token_cache.invalidations{source=local|remote}、
+ * chat.user_token_cache.entries。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class UserTokenCache {
+
+    private static final String INVALIDATE_CHANNEL = "user:token:invalidate";
+
+    private final StringRedisTemplate redisTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${chat.user-token-cache.enabled:false}")
+    private boolean enabled;
+
+    @Value("${chat.user-token-cache.local-ttl-seconds:30}")
+    private long localTtlSeconds;
+
+    @Value("${chat.user-token-cache.max-entries:10000}")
+    private int maxEntries;
+
+    /**
+     * 通过 Redis 频道广播失效；单节点部署可关闭
+     */
+    @Value("${chat.user-token-cache.pubsub.enabled:true}")
+    private boolean pubsubEnabled;
+
+    // 本地条目，由 this 锁保护；access-order 即 LRU 顺序
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * 每次失效递增；invalidatedAt 记录各会话最近一次失效时的值（数量有上限，淘汰记录中的最大值保存在
+     * forgottenEpoch），用于丢弃读取 Redis 期间发生过失效的结果
+     */
+    private final AtomicLong epoch = new AtomicLong();
+    private final LinkedHashMap<String, Long> invalidatedAt = new LinkedHashMap<>(16, 0.75f, false);
+    private long forgottenEpoch;
+
+    private RedisMessageListenerContainer listener;
+
+    private Counter hits;
+    private Counter misses;
+    private Counter localInvalidations;
+    private Counter remoteInvalidations;
+    private Timer age;
+
+    @PostConstruct
+    public void init() {
+        hits = Counter.builder("chat.user_token_cache.requests").tag("result", "hit").register(meterRegistry);
+        misses = Counter.builder("chat.user_token_cache.requests").tag("result", "miss").register(meterRegistry);
+        localInvalidations = invalidations("local");
+        remoteInvalidations = invalidations("remote");
+        age = Timer.builder("chat.user_token_cache.age")
+                .description("Age of session entries served from the near-cache").register(meterRegistry);
+        Gauge.builder("chat.user_token_cache.entries", this, cache -> cache.size())
+                .description("Sessions held in the local near-cache").register(meterRegistry);
+        if (!enabled) {
+            return;
+        }
+        if (pubsubEnabled) {
+            listener = new RedisMessageListenerContainer();
+            listener.setConnectionFactory(redisTemplate.getRequiredConnectionFactory());
+            listener.addMessageListener((message, pattern) -> {
+                remoteInvalidations.increment();
+                evictLocal(new String(message.getBody(), StandardCharsets.UTF_8));
+            }, new ChannelTopic(INVALIDATE_CHANNEL));
+            listener.afterPropertiesSet();
+            listener.start();
+        }
+        log.info("User token near-cache enabled - local ttl: {}s, max entries: {}, pub/sub invalidation: {}",
+                localTtlSeconds, maxEntries, pubsubEnabled);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (listener != null) {
+            try {
+                listener.destroy();
+            } catch (Exception e) {
+                log.debug("User token cache listener shutdown failed - {}", e.getMessage());
+            }
+        }
+    }
+
+    private Counter invalidations(String source) {
+        return Counter.builder("chat.user_token_cache.invalidations").tag("source", source).register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 读取 Redis 前取得当前 epoch，随结果传给 put
+     */
+    public long epoch() {
+        return epoch.get();
+    }
+
+    public UserTokenInfo get(String jwtToken) {
+        if (!enabled || jwtToken == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Entry entry = entries.get(jwtToken);
+            if (entry != null) {
+                if (entry.expiresAt > now) {
+                    hits.increment();
+                    age.record(now - entry.loadedAt, TimeUnit.MILLISECONDS);
+                    return entry.info;
+                }
+                entries.remove(jwtToken);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * 写入从 Redis 读到的会话；keyTtlMillis 为读取时 Key 的剩余 TTL，since 之后发生过失效时忽略
+     */
+    public void put(String jwtToken, UserTokenInfo info, long keyTtlMillis, long since) {
+        if (!enabled || jwtToken == null || info == null || keyTtlMillis <= 0
+                || info.cozeToken() == null || info.cozeToken().isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long ttl = Math.min(TimeUnit.SECONDS.toMillis(localTtlSeconds), keyTtlMillis);
+        synchronized (this) {
+            Long invalidated = invalidatedAt.get(jwtToken);
+            if (since < forgottenEpoch || (invalidated != null && invalidated > since)) {
+                return;
+            }
+            entries.put(jwtToken, new Entry(info, now, now + ttl));
+            while (entries.size() > Math.max(1, maxEntries)) {
+                entries.remove(entries.keySet().iterator().next());
+            }
+        }
+    }
+
+    /**
+     * 会话被删除或 Coze Token 已更新：删除本地条目并通知其他节点
+     */
+    public void invalidate(String jwtToken) {
+        if (!enabled || jwtToken == null || jwtToken.isEmpty()) {
+            return;
+        }
+        localInvalidations.increment();
+        evictLocal(jwtToken);
+        if (pubsubEnabled) {
+            try {
+                redisTemplate.convertAndSend(INVALIDATE_CHANNEL, jwtToken);
+            } catch (Exception e) {
+                log.warn("User token cache: invalidation broadcast failed - {}", e.getMessage());
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private synchronized void evictLocal(String jwtToken) {
+        entries.remove(jwtToken);
+        invalidatedAt.remove(jwtToken);
+        invalidatedAt.put(jwtToken, epoch.incrementAndGet());
+        while (invalidatedAt.size() > Math.max(1, maxEntries)) {
+            String oldest = invalidatedAt.keySet().iterator().next();
+            forgottenEpoch = Math.max(forgottenEpoch, invalidatedAt.remove(oldest));
+        }
+    }
+
+    private record Entry(UserTokenInfo info, long loadedAt, long expiresAt) {
+    }
+}
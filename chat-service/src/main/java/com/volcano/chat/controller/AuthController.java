@@ -1,10 +1,21 @@
 package com.volcano.chat.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.volcano.chat.dto.UserTokenInfo;
+import com.volcano.chat.service.CozeProxyService;
 import com.volcano.chat.service.UserTokenService;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -17,6 +28,7 @@ import java.util.Map;
  * 4. 将手机号和 Coze Token 存入 Redis
  * 5. 返回 JWT Token 作为凭证
  */
+@Slf4j
 @RestController
 @RequestMapping("/api")
 @CrossOrigin(origins = "*")
@@ -24,6 +36,19 @@ import java.util.Map;
 public class AuthController {
 
     private final UserTokenService userTokenService;
+    private final CozeProxyService cozeProxyService;
+    private final ObjectMapper objectMapper;
+
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    @Value("${chat.session.batch.max-phones:5000}")
+    private int batchMaxPhones;
+
+    /**
+     * 批量接口的响应超时，超时后未返回的手机号视为失败
+     */
+    @Value("${chat.session.batch.timeout-ms:600000}")
+    private long batchTimeoutMs;
 
     // Token 有效期：30分钟
     private static final long TOKEN_EXPIRE_MS = 1800 * 1000L;
@@ -51,6 +76,7 @@ public class AuthController {
 
         // 生成 JWT Token，同时获取 Coze Token 并存入 Redis
         String jwtToken = userTokenService.createUserToken(phone);
+        warmConversations(phone, jwtToken);
 
         Map<String, Object> response = new HashMap<>();
         response.put("token", jwtToken);
@@ -58,6 +84,44 @@ public class AuthController {
         return response;
     }
 
+    /**
+     * 内部 S2S 批量接口：业务方后端为一批用户预建会话（如推送活动前）
+     * 
+     * 请求：{"phones": ["138...", ...]}
+     * 响应：application/x-ndjson，每行一个手机号的结果，完成一批即写出一批（顺序不保证与请求一致）：
+     * {"phone":"138...","token":"...","expiresAt":...} 或 {"phone":"138...","error":"..."}
+     * Coze Token 获取失败的手机号返回 error，不创建会话；批量创建不预热会话池
+     * 
+     * TODO [生产环境] 与 /internal/session/create 相同，需限制为业务方后端访问
+     */
+    @PostMapping(value = "/internal/session/batch-create", produces = "application/x-ndjson")
+    public ResponseEntity<ResponseBodyEmitter> createSessions(@RequestBody Map<String, List<String>> request) {
+        List<String> phones = request.get("phones");
+        if (phones == null || phones.isEmpty()) {
+            throw new IllegalArgumentException("Phones are required");
+        }
+        if (phones.size() > batchMaxPhones) {
+            throw new IllegalArgumentException("At most " + batchMaxPhones + " phones per batch");
+        }
+
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(batchTimeoutMs);
+        userTokenService.createUserTokens(phones, result -> {
+            try {
+                emitter.send(objectMapper.writeValueAsString(result) + "\n", MediaType.TEXT_PLAIN);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).whenComplete((ignored, error) -> {
+            if (error == null) {
+                emitter.complete();
+            } else {
+                log.warn("Batch session create aborted: {}", error.getMessage());
+                emitter.completeWithError(error);
+            }
+        });
+        return ResponseEntity.ok().contentType(NDJSON).body(emitter);
+    }
+
     /**
      * Mock 接口：模拟业务方后端
      * 前端直接调这个接口，假装自己通过了 Cookie 验证
@@ -78,10 +142,21 @@ public class AuthController {
         // 3. 调用 UserTokenService 生成 JWT Token
         //    内部会：生成JWT → 获取CozeToken → 存入Redis
         String jwtToken = userTokenService.createUserToken(currentUserPhone);
+        warmConversations(currentUserPhone, jwtToken);
 
         Map<String, Object> response = new HashMap<>();
         response.put("token", jwtToken);
         response.put("expiresAt", System.currentTimeMillis() + TOKEN_EXPIRE_MS);
         return response;
     }
+
+    /**
+     * 会话池启用时为该用户预创建会话，首次新建会话无需等待 Coze
+     */
+    private void warmConversations(String phone, String jwtToken) {
+        cozeProxyService.warmConversations(phone, () -> {
+            UserTokenInfo tokenInfo = userTokenService.getUserTokenInfo(jwtToken);
+            return tokenInfo != null ? tokenInfo.cozeToken() : null;
+        });
+    }
 }
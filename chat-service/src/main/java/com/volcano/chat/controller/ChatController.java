@@ -3,17 +3,24 @@ package com.volcano.chat.controller;
 import com.volcano.chat.dto.ChatRequest;
 import com.volcano.chat.dto.CancelChatRequest;
 import com.volcano.chat.dto.UserTokenInfo;
+import com.volcano.chat.exception.UploadTooLargeException;
 import com.volcano.chat.service.CozeProxyService;
 import com.volcano.chat.service.UserTokenService;
 import com.volcano.chat.util.JwtUtil;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncUtils;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
+import java.util.concurrent.Callable;
 
 /**
  * 聊天控制器
@@ -76,6 +83,53 @@ public class ChatController {
         return cozeProxyService.sendMessage(request, tokenInfo.phone(), tokenInfo.cozeToken(), tokenInfo.sessionId());
     }
 
+    /**
+     * 续传断开的 SSE 流（需启用 chat.sse.resume.enabled）
+     * 从 Last-Event-ID 之后补发缓冲中的事件，再继续接收实时事件
+     */
+    @GetMapping(value = "/stream/{streamId}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter resumeStream(
+            @PathVariable String streamId,
+            @RequestHeader("X-Chat-Token") String token,
+            @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        UserTokenInfo tokenInfo;
+        try {
+            tokenInfo = validateToken(token);
+        } catch (IllegalArgumentException e) {
+            return sendErrorEmitter(e.getMessage());
+        }
+
+        long lastId = 0;
+        if (lastEventId != null && !lastEventId.isBlank()) {
+            try {
+                lastId = Long.parseLong(lastEventId.trim());
+            } catch (NumberFormatException e) {
+                return sendErrorEmitter("Invalid Last-Event-ID");
+            }
+        }
+
+        return cozeProxyService.resumeStream(streamId, tokenInfo.sessionId(), lastId);
+    }
+
+    /**
+     * 挂载到同一会话中进行中的回答（多标签页共享，需启用 chat.sse.fanout.enabled）
+     * 先收到已生成的前缀，再接收实时事件；chat_id 为空时挂载该会话最近一次回答
+     */
+    @GetMapping(value = "/attach/{conversationId}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter attachGeneration(
+            @PathVariable String conversationId,
+            @RequestParam(value = "chat_id", required = false) String chatId,
+            @RequestHeader("X-Chat-Token") String token) {
+        UserTokenInfo tokenInfo;
+        try {
+            tokenInfo = validateToken(token);
+        } catch (IllegalArgumentException e) {
+            return sendErrorEmitter(e.getMessage());
+        }
+
+        return cozeProxyService.attachGeneration(tokenInfo.sessionId(), conversationId, chatId);
+    }
+
     /**
      * 取消进行中的对话
      */
@@ -107,7 +161,7 @@ public class ChatController {
             @RequestHeader("X-Chat-Token") String token) {
         try {
             UserTokenInfo tokenInfo = validateToken(token);
-            String result = cozeProxyService.createConversation(tokenInfo.cozeToken());
+            String result = cozeProxyService.createConversation(tokenInfo.phone(), tokenInfo.cozeToken());
             return ResponseEntity.ok(result);
         } catch (IllegalArgumentException e) {
             return ResponseEntity.status(401).body("{\"error\":\"" + e.getMessage() + "\"}");
@@ -126,7 +180,7 @@ public class ChatController {
             @RequestHeader("X-Chat-Token") String token) {
         try {
             UserTokenInfo tokenInfo = validateToken(token);
-            String result = cozeProxyService.getMessageHistory(conversationId, tokenInfo.cozeToken());
+            String result = cozeProxyService.getMessageHistory(conversationId, tokenInfo.phone(), tokenInfo.cozeToken());
             return ResponseEntity.ok(result);
         } catch (IllegalArgumentException e) {
             return ResponseEntity.status(401).body("{\"error\":\"" + e.getMessage() + "\"}");
@@ -138,11 +192,14 @@ public class ChatController {
 
     /**
      * 文字转语音 (TTS)
+     * 音频以分块传输边合成边返回，上游错误在写出响应前映射为 500；
+     * 异步处理结束（完成、超时、出错或未执行写出）时关闭上游响应体，避免池化连接泄漏
      */
     @PostMapping("/tts")
-    public ResponseEntity<byte[]> textToSpeech(
+    public ResponseEntity<StreamingResponseBody> textToSpeech(
             @RequestBody java.util.Map<String, String> request,
-            @RequestHeader("X-Chat-Token") String token) {
+            @RequestHeader("X-Chat-Token") String token,
+            HttpServletRequest servletRequest) {
         try {
             UserTokenInfo tokenInfo = validateToken(token);
             String text = request.get("text");
@@ -150,10 +207,17 @@ public class ChatController {
                 return ResponseEntity.badRequest().build();
             }
 
-            byte[] audioData = cozeProxyService.textToSpeech(text, tokenInfo.cozeToken());
+            CozeProxyService.TtsAudio audio = cozeProxyService.textToSpeech(text, tokenInfo.cozeToken());
+            WebAsyncUtils.getAsyncManager(servletRequest).registerCallableInterceptor(audio,
+                    new CallableProcessingInterceptor() {
+                        @Override
+                        public <T> void afterCompletion(NativeWebRequest webRequest, Callable<T> task) {
+                            audio.close();
+                        }
+                    });
             return ResponseEntity.ok()
                     .contentType(MediaType.parseMediaType("audio/mpeg"))
-                    .body(audioData);
+                    .body(audio);
         } catch (IllegalArgumentException e) {
             return ResponseEntity.status(401).build();
         } catch (IOException e) {
@@ -187,6 +251,40 @@ public class ChatController {
         }
     }
 
+    /**
+     * 语音转文字 (ASR)，流式上传
+     * 请求体为原始音频（Content-Type 为音频类型），边接收边转发给 Coze，不经过 multipart 解析与缓冲
+     */
+    @PostMapping("/asr/stream")
+    public ResponseEntity<String> speechToTextStream(
+            jakarta.servlet.http.HttpServletRequest request,
+            @RequestParam(value = "filename", defaultValue = "audio.wav") String filename,
+            @RequestHeader("X-Chat-Token") String token) {
+        try {
+            UserTokenInfo tokenInfo = validateToken(token);
+            String contentType = request.getContentType();
+            if (contentType != null && contentType.startsWith(MediaType.MULTIPART_FORM_DATA_VALUE)) {
+                return ResponseEntity.badRequest().body("{\"error\":\"Send raw audio as the request body, or use /asr for multipart\"}");
+            }
+            if (request.getContentLengthLong() == 0) {
+                return ResponseEntity.badRequest().body("{\"error\":\"Audio body is required\"}");
+            }
+
+            String jsonResult = cozeProxyService.speechToText(request.getInputStream(),
+                    request.getContentLengthLong(), filename, contentType, tokenInfo.cozeToken());
+            return ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(jsonResult);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(401).body("{\"error\":\"" + e.getMessage() + "\"}");
+        } catch (UploadTooLargeException e) {
+            return ResponseEntity.status(413).body("{\"error\":\"" + e.getMessage() + "\"}");
+        } catch (IOException e) {
+            log.error("Failed to transcribe streamed speech", e);
+            return ResponseEntity.internalServerError().body("{\"error\":\"" + e.getMessage() + "\"}");
+        }
+    }
+
     private SseEmitter sendErrorEmitter(String msg) {
         SseEmitter emitter = new SseEmitter();
         try {
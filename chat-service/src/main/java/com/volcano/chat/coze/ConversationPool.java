@@ -0,0 +1,229 @@
+package com.volcano.chat.coze;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 预创建 Coze 会话池
+ *
+ * 新建会话（/v1/conversation/create）是用户新话题首条消息前的同步上游调用。池中为每个 scope 预先创建
+ * size-per-scope 个会话，/api/chat/conversation/create 直接取出，取出后在后台补齐。
+ *
+ * scope 为 bot_id + 用户：OAuth token 以用户手机号作为 session_name 隔离会话，
+ * 用 A 的 token 创建的会话不能交给 B。条目存放 ttl-seconds 后丢弃（早于 Coze 清理闲置会话），
+ * 空 scope 定期清理，scope 总数上限 max-scopes。
+ *
+ * 指标：chat.conversation_pool.requests{result=hit|miss}、chat.conversation_pool.refill（补齐单个会话的耗时，
+ * 含失败）、chat.conversation_pool.size。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ConversationPool {
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${chat.conversation-pool.enabled:false}")
+    private boolean enabled;
+
+    @Value("${chat.conversation-pool.size-per-scope:1}")
+    private int sizePerScope;
+
+    @Value("${chat.conversation-pool.ttl-seconds:3600}")
+    private long ttlSeconds;
+
+    @Value("${chat.conversation-pool.max-scopes:10000}")
+    private int maxScopes;
+
+    /**
+     * 后台补齐线程数，补齐请求与其它 REST 调用共享 CozeHttpClient 的单主机并发名额
+     */
+    @Value("${chat.conversation-pool.refill-threads:2}")
+    private int refillThreads;
+
+    private final ConcurrentHashMap<String, Scope> scopes = new ConcurrentHashMap<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    private ScheduledThreadPoolExecutor refiller;
+
+    private Counter hits;
+    private Counter misses;
+    private Timer refillTimer;
+
+    @PostConstruct
+    public void init() {
+        hits = counter("hit");
+        misses = counter("miss");
+        refillTimer = Timer.builder("chat.conversation_pool.refill")
+                .description("Time to pre-create one pooled conversation").register(meterRegistry);
+        Gauge.builder("chat.conversation_pool.size", pooled, AtomicInteger::get)
+                .description("Pre-created conversations waiting to be handed out").register(meterRegistry);
+        if (!enabled) {
+            return;
+        }
+        AtomicInteger threadSeq = new AtomicInteger(1);
+        refiller = new ScheduledThreadPoolExecutor(Math.max(1, refillThreads), runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setName("conversation-pool-" + threadSeq.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        long sweepMs = Math.max(1000L, TimeUnit.SECONDS.toMillis(ttlSeconds) / 4);
+        refiller.scheduleWithFixedDelay(this::sweep, sweepMs, sweepMs, TimeUnit.MILLISECONDS);
+        log.info("Conversation pool enabled - size per scope: {}, ttl: {}s, max scopes: {}",
+                sizePerScope, ttlSeconds, maxScopes);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (refiller != null) {
+            refiller.shutdownNow();
+        }
+    }
+
+    private Counter counter(String result) {
+        return Counter.builder("chat.conversation_pool.requests").tag("result", result).register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 取出一个预创建会话（Coze 原始响应体）；没有未过期的条目时返回 null
+     */
+    public String take(String scope) {
+        Scope pool = scopes.get(scope);
+        String body = pool != null ? pool.poll(System.currentTimeMillis()) : null;
+        (body != null ? hits : misses).increment();
+        return body;
+    }
+
+    /**
+     * 在后台把 scope 补齐到 size-per-scope；同一 scope 同时只有一个补齐任务。
+     * creator 返回新会话的 Coze 响应体，返回 null 或抛出异常时本轮补齐结束
+     */
+    public void refill(String scope, Callable<String> creator) {
+        if (!enabled) {
+            return;
+        }
+        // 认领补齐与清理都在 compute 中进行，被清理的 scope 不会再被补齐
+        Scope[] claimed = new Scope[1];
+        scopes.compute(scope, (key, pool) -> {
+            if (pool == null) {
+                if (scopes.size() >= maxScopes) {
+                    return null;
+                }
+                pool = new Scope();
+            }
+            if (pool.refilling.compareAndSet(false, true)) {
+                claimed[0] = pool;
+            }
+            return pool;
+        });
+        Scope target = claimed[0];
+        if (target == null) {
+            return;
+        }
+        try {
+            refiller.execute(() -> fill(scope, target, creator));
+        } catch (RejectedExecutionException e) {
+            target.refilling.set(false);
+        }
+    }
+
+    private void fill(String scope, Scope pool, Callable<String> creator) {
+        try {
+            // 每轮最多创建 size-per-scope 个，条目立即过期（ttl 过短）时不会无限创建
+            for (int created = 0; created < sizePerScope && pool.size(System.currentTimeMillis()) < sizePerScope;
+                 created++) {
+                long start = System.nanoTime();
+                String body;
+                try {
+                    body = creator.call();
+                } finally {
+                    refillTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                }
+                if (body == null) {
+                    return;
+                }
+                pool.offer(body, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttlSeconds));
+            }
+        } catch (Exception e) {
+            log.warn("Conversation pool refill failed for scope {}...: {}",
+                    scope.substring(0, Math.min(8, scope.length())), e.getMessage());
+        } finally {
+            pool.refilling.set(false);
+        }
+    }
+
+    /**
+     * 丢弃过期条目并移除空闲的空 scope
+     */
+    private void sweep() {
+        long now = System.currentTimeMillis();
+        for (String key : scopes.keySet()) {
+            scopes.computeIfPresent(key, (k, pool) -> pool.size(now) == 0 && !pool.refilling.get() ? null : pool);
+        }
+    }
+
+    public int size() {
+        return pooled.get();
+    }
+
+    /**
+     * 一个 scope 的预创建会话，按创建先后取出
+     */
+    private final class Scope {
+
+        private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+        private final AtomicBoolean refilling = new AtomicBoolean(false);
+
+        private synchronized String poll(long now) {
+            expire(now);
+            Entry entry = entries.poll();
+            if (entry == null) {
+                return null;
+            }
+            pooled.decrementAndGet();
+            return entry.body;
+        }
+
+        private synchronized void offer(String body, long expiresAt) {
+            entries.add(new Entry(body, expiresAt));
+            pooled.incrementAndGet();
+        }
+
+        private synchronized int size(long now) {
+            expire(now);
+            return entries.size();
+        }
+
+        private void expire(long now) {
+            while (!entries.isEmpty() && entries.peek().expiresAt <= now) {
+                entries.poll();
+                pooled.decrementAndGet();
+            }
+        }
+    }
+
+    private record Entry(String body, long expiresAt) {
+    }
+}
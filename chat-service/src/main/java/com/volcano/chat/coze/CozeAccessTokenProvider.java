@@ -5,21 +5,36 @@ import com.coze.openapi.service.auth.JWTOAuthClient;
 import com.volcano.chat.config.CozeConfig;
 import com.volcano.chat.dto.CozeTokenResponse;
 import com.volcano.chat.exception.TokenServiceException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Coze Access Token 提供者
  *
- * 纯粹负责调用 Coze OAuth API 获取 Token，不做缓存。
- * 缓存由 RedisUserTokenService 统一管理。
+ * 调用 Coze OAuth API 获取 Token。JWTOAuthClient 在初始化时构建一次（私钥只解析一次）。
+ *
+ * 进程内按 userUuid 缓存 Token，剩余有效期不足 refresh-margin-seconds 时视为过期重新获取；
+ * 同一用户的并发请求共享同一次 OAuth 调用（single-flight），失败结果不缓存。
+ * 会话级的 Token 存储仍由 RedisUserTokenService 管理。
+ *
+ * 指标：chat.coze.token.requests{result=hit|miss|shared}、chat.coze.token.fetch{outcome=success|error}、
+ * chat.coze.token.cached。
  */
 @Slf4j
 @Service
@@ -29,9 +44,32 @@ public class CozeAccessTokenProvider {
     private static final int TOKEN_DURATION_SECONDS = 1800; // 30分钟
 
     private final CozeConfig cozeConfig;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${chat.coze.token-cache.enabled:true}")
+    private boolean cacheEnabled;
+
+    /**
+     * 剩余有效期低于该值的缓存 Token 不再交出，保证调用方拿到的 Token 至少还能用这么久
+     */
+    @Value("${chat.coze.token-cache.refresh-margin-seconds:120}")
+    private int refreshMarginSeconds;
+
+    @Value("${chat.coze.token-cache.max-entries:10000}")
+    private int maxEntries;
 
     private String privateKey;
     private boolean oauthConfigured = false;
+    private JWTOAuthClient oauthClient;
+
+    private final ConcurrentHashMap<String, CachedToken> tokens = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CompletableFuture<CachedToken>> inFlight = new ConcurrentHashMap<>();
+
+    private Counter hits;
+    private Counter misses;
+    private Counter shared;
+    private Timer fetchSuccess;
+    private Timer fetchError;
 
     @PostConstruct
     public void init() {
@@ -52,8 +90,46 @@ public class CozeAccessTokenProvider {
                 && cozeConfig.getOauthPublicKeyId() != null
                 && this.privateKey != null;
 
-        log.info("CozeAccessTokenProvider initialized - OAuth: {}",
-                oauthConfigured ? "configured" : "not configured");
+        if (oauthConfigured) {
+            try {
+                oauthClient = buildClient();
+            } catch (Exception e) {
+                log.warn("Cannot build Coze OAuth client - {}", e.getMessage());
+                oauthConfigured = false;
+            }
+        }
+
+        hits = counter("hit");
+        misses = counter("miss");
+        shared = counter("shared");
+        fetchSuccess = fetchTimer("success");
+        fetchError = fetchTimer("error");
+        Gauge.builder("chat.coze.token.cached", tokens, ConcurrentHashMap::size)
+                .description("Coze access tokens cached in this node").register(meterRegistry);
+
+        log.info("CozeAccessTokenProvider initialized - OAuth: {}, token cache: {} (margin {}s)",
+                oauthConfigured ? "configured" : "not configured", cacheEnabled, refreshMarginSeconds);
+    }
+
+    private Counter counter(String result) {
+        return Counter.builder("chat.coze.token.requests").tag("result", result).register(meterRegistry);
+    }
+
+    private Timer fetchTimer(String outcome) {
+        return Timer.builder("chat.coze.token.fetch").tag("outcome", outcome)
+                .description("Coze OAuth token request latency").register(meterRegistry);
+    }
+
+    /**
+     * 构建 OAuth 客户端（解析私钥）；仅在初始化时调用一次
+     */
+    JWTOAuthClient buildClient() throws Exception {
+        return new JWTOAuthClient.JWTOAuthBuilder()
+                .clientID(cozeConfig.getOauthClientId())
+                .publicKey(cozeConfig.getOauthPublicKeyId())
+                .privateKey(this.privateKey)
+                .baseURL(cozeConfig.getApiBaseUrl())
+                .build();
     }
 
     /**
@@ -67,9 +143,16 @@ public class CozeAccessTokenProvider {
      * 获取 Coze Access Token
      *
      * @param userUuid 用户标识（手机号），用作 session_name 实现会话隔离
-     * @return CozeTokenResponse 包含 access_token 和过期时间
+     * @return CozeTokenResponse 包含 access_token 和剩余有效秒数
      */
     public CozeTokenResponse getAccessToken(String userUuid) {
+        return getAccessToken(userUuid, refreshMarginSeconds);
+    }
+
+    /**
+     * 获取至少还能用 minValiditySeconds 秒的 Coze Access Token（后台续期使用更大的余量）
+     */
+    public CozeTokenResponse getAccessToken(String userUuid, int minValiditySeconds) {
         if (userUuid == null || userUuid.isEmpty()) {
             throw new TokenServiceException("userUuid is required for Coze OAuth");
         }
@@ -78,16 +161,71 @@ public class CozeAccessTokenProvider {
             throw new TokenServiceException("OAuth is not configured");
         }
 
+        if (!cacheEnabled) {
+            return fetch(userUuid).toResponse(System.currentTimeMillis());
+        }
+
+        long now = System.currentTimeMillis();
+        CachedToken cached = tokens.get(userUuid);
+        if (cached != null && cached.usableAt(now, Math.max(refreshMarginSeconds, minValiditySeconds))) {
+            hits.increment();
+            return cached.toResponse(now);
+        }
+
+        CompletableFuture<CachedToken> mine = new CompletableFuture<>();
+        CompletableFuture<CachedToken> running = inFlight.putIfAbsent(userUuid, mine);
+        if (running != null) {
+            shared.increment();
+            try {
+                return running.join().toResponse(System.currentTimeMillis());
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof TokenServiceException tse ? tse
+                        : new TokenServiceException("OAuth token generation failed", e.getCause());
+            }
+        }
+
+        misses.increment();
         try {
-            JWTOAuthClient client = new JWTOAuthClient.JWTOAuthBuilder()
-                    .clientID(cozeConfig.getOauthClientId())
-                    .publicKey(cozeConfig.getOauthPublicKeyId())
-                    .privateKey(this.privateKey)
-                    .baseURL(cozeConfig.getApiBaseUrl())
-                    .build();
+            CachedToken token = fetch(userUuid);
+            store(userUuid, token);
+            mine.complete(token);
+            return token.toResponse(System.currentTimeMillis());
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(userUuid, mine);
+        }
+    }
 
+    /**
+     * 丢弃某用户的缓存 Token（如上游返回鉴权失败时）
+     */
+    public void evict(String userUuid) {
+        if (userUuid != null) {
+            tokens.remove(userUuid);
+        }
+    }
+
+    private void store(String userUuid, CachedToken token) {
+        if (tokens.size() >= maxEntries) {
+            long now = System.currentTimeMillis();
+            tokens.values().removeIf(entry -> !entry.usableAt(now, refreshMarginSeconds));
+            if (tokens.size() >= maxEntries) {
+                return;
+            }
+        }
+        tokens.put(userUuid, token);
+    }
+
+    /**
+     * 调用 OAuth API 获取 Token，并换算绝对过期时间
+     */
+    private CachedToken fetch(String userUuid) {
+        long start = System.nanoTime();
+        try {
             // 使用 userUuid（手机号）作为 session_name，实现会话隔离
-            OAuthToken token = client.getAccessToken(TOKEN_DURATION_SECONDS, userUuid);
+            OAuthToken token = requestToken(userUuid);
             int expiresIn = token.getExpiresIn();
 
             // 判断 expiresIn 是时间戳还是剩余秒数
@@ -100,16 +238,37 @@ public class CozeAccessTokenProvider {
             } else {
                 remainingSeconds = expiresIn;
             }
+            fetchSuccess.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
 
             log.info("Obtained Coze token for user: {}..., expires in: {}s",
                     userUuid.substring(0, Math.min(4, userUuid.length())), remainingSeconds);
 
-            return new CozeTokenResponse(token.getAccessToken(), remainingSeconds);
+            return new CachedToken(token.getAccessToken(),
+                    System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(remainingSeconds));
 
         } catch (Exception e) {
+            fetchError.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
             log.error("OAuth token generation failed for user {}: {}",
                     userUuid.substring(0, Math.min(4, userUuid.length())), e.getMessage());
             throw new TokenServiceException("OAuth token generation failed: " + e.getMessage(), e);
         }
     }
+
+    /**
+     * 单次 OAuth 调用
+     */
+    OAuthToken requestToken(String userUuid) throws Exception {
+        return oauthClient.getAccessToken(TOKEN_DURATION_SECONDS, userUuid);
+    }
+
+    private record CachedToken(String accessToken, long expiresAtMillis) {
+
+        boolean usableAt(long now, int marginSeconds) {
+            return expiresAtMillis - TimeUnit.SECONDS.toMillis(marginSeconds) > now;
+        }
+
+        CozeTokenResponse toResponse(long now) {
+            return new CozeTokenResponse(accessToken, (int) Math.max(0, (expiresAtMillis - now) / 1000));
+        }
+    }
 }
@@ -0,0 +1,352 @@
+package com.volcano.chat.coze;
+
+import com.volcano.chat.config.CozeConfig;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Coze 上游共享 HTTP 客户端
+ *
+ * 所有 Coze REST 调用（TTS/ASR/会话/历史/取消）与 /v1/workflows/chat 流式请求共用一个 JDK HttpClient：
+ * - 连接复用：HTTP/1.1 keep-alive 连接池，空闲超过 keepalive-timeout-s 的连接被回收；
+ *   HTTPS 上通过 ALPN 协商 HTTP/2 时多个请求复用同一连接（多路复用）
+ * - 单主机并发上限：REST 调用按 host 限制同时进行的请求数，超过时最多等待 acquire-timeout-ms；
+ *   流式请求不占用该名额，其并发由 SSE 准入控制（AdmissionScheduler）约束
+ * - REST 调用整体超时 request-timeout-ms（含读取响应体），超时即取消请求；
+ *   流式转发的 REST 响应（TTS 音频）只对响应头适用该超时
+ *
+ * 指标：chat.coze.http.requests{op,status}、chat.coze.http.in_flight、chat.coze.http.pending、
+ * chat.coze.http.streams.active、chat.coze.http.host.in_flight{host}、chat.coze.http.responses{version}。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CozeHttpClient {
+
+    private static final String KEEPALIVE_PROPERTY = "jdk.httpclient.keepalive.timeout";
+    private static final String POOL_SIZE_PROPERTY = "jdk.httpclient.connectionPoolSize";
+    private static final Pattern SUCCESS_CODE = Pattern.compile("^\\s*\\{.*?\"code\"\\s*:\\s*0\\s*[,}]", Pattern.DOTALL);
+
+    private final CozeConfig cozeConfig;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${chat.coze.connect-timeout-ms:5000}")
+    private int connectTimeoutMs;
+
+    /**
+     * REST 调用的整体超时（发出请求到读完响应体）
+     */
+    @Value("${chat.coze.http.request-timeout-ms:60000}")
+    private long requestTimeoutMs;
+
+    /**
+     * 优先使用的协议版本：HTTP_2（HTTPS 上经 ALPN 协商，不支持时回退 HTTP/1.1）| HTTP_1_1
+     */
+    @Value("${chat.coze.http.version:HTTP_2}")
+    private String httpVersion;
+
+    /**
+     * 单个 host 同时进行的 REST 请求上限，0 表示不限制
+     */
+    @Value("${chat.coze.http.max-requests-per-host:64}")
+    private int maxRequestsPerHost;
+
+    @Value("${chat.coze.http.acquire-timeout-ms:5000}")
+    private long acquireTimeoutMs;
+
+    /**
+     * 空闲连接回收时间（秒），对应 JVM 级属性 jdk.httpclient.keepalive.timeout，-D 显式指定时以其为准
+     */
+    @Value("${chat.coze.http.keepalive-timeout-s:30}")
+    private int keepAliveTimeoutSeconds;
+
+    /**
+     * 连接池保留的空闲 HTTP/1.1 连接上限（0 表示不限制），对应 jdk.httpclient.connectionPoolSize
+     */
+    @Value("${chat.coze.http.max-idle-connections:0}")
+    private int maxIdleConnections;
+
+    private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger activeStreams = new AtomicInteger();
+
+    private HttpClient client;
+    private ExecutorService executor;
+
+    @PostConstruct
+    public void init() {
+        // 连接池参数是 JVM 级静态配置，须在首个 HttpClient 创建前设置
+        if (System.getProperty(KEEPALIVE_PROPERTY) == null && keepAliveTimeoutSeconds > 0) {
+            System.setProperty(KEEPALIVE_PROPERTY, String.valueOf(keepAliveTimeoutSeconds));
+        }
+        if (System.getProperty(POOL_SIZE_PROPERTY) == null && maxIdleConnections > 0) {
+            System.setProperty(POOL_SIZE_PROPERTY, String.valueOf(maxIdleConnections));
+        }
+
+        AtomicInteger threadSeq = new AtomicInteger(1);
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setName("coze-http-" + threadSeq.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        HttpClient.Version version = "HTTP_1_1".equalsIgnoreCase(httpVersion == null ? "" : httpVersion.trim())
+                ? HttpClient.Version.HTTP_1_1 : HttpClient.Version.HTTP_2;
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(version)
+                .executor(executor)
+                .followRedirects(HttpClient.Redirect.NORMAL);
+        if (connectTimeoutMs > 0) {
+            builder.connectTimeout(Duration.ofMillis(connectTimeoutMs));
+        }
+        client = builder.build();
+
+        Gauge.builder("chat.coze.http.in_flight", inFlight, AtomicInteger::get)
+                .description("Coze REST requests in progress").register(meterRegistry);
+        Gauge.builder("chat.coze.http.pending", pending, AtomicInteger::get)
+                .description("Coze REST requests waiting for a per-host slot").register(meterRegistry);
+        Gauge.builder("chat.coze.http.streams.active", activeStreams, AtomicInteger::get)
+                .description("Open Coze streaming responses").register(meterRegistry);
+
+        log.info("CozeHttpClient initialized - version: {}, max requests per host: {}, keep-alive: {}s",
+                version, maxRequestsPerHost > 0 ? maxRequestsPerHost : "unlimited",
+                System.getProperty(KEEPALIVE_PROPERTY, "default"));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Coze REST 响应体是否表示成功：HTTP 200 时业务错误仍以非 0 的顶层 code 返回
+     */
+    public static boolean isSuccess(String body) {
+        return body != null && SUCCESS_CODE.matcher(body).find();
+    }
+
+    /**
+     * 以 Coze API 基础地址构造请求（pathAndQuery 以 / 开头）
+     */
+    public HttpRequest.Builder request(String pathAndQuery, String cozeToken) {
+        return HttpRequest.newBuilder(URI.create(cozeConfig.getApiBaseUrl() + pathAndQuery))
+                .header("Authorization", "Bearer " + cozeToken);
+    }
+
+    /**
+     * 同步执行 REST 调用：占用所在 host 的并发名额，整体超时后取消请求并抛出 HttpTimeoutException
+     *
+     * @param op 调用名称，用作指标标签
+     */
+    public <T> HttpResponse<T> send(String op, HttpRequest request, HttpResponse.BodyHandler<T> handler)
+            throws IOException {
+        Semaphore permits = permitsFor(request.uri());
+        acquire(permits, request.uri());
+        inFlight.incrementAndGet();
+        try {
+            HttpResponse<T> response = await(op, client.sendAsync(request, handler));
+            countVersion(response);
+            return response;
+        } finally {
+            inFlight.decrementAndGet();
+            if (permits != null) {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * 同步等待流式响应的响应头（如 TTS 音频），超时处理与 send 相同；
+     * 响应体由调用方边读边转发，关闭前计入 chat.coze.http.streams.active
+     */
+    public HttpResponse<StreamBody> openStream(String op, HttpRequest request) throws IOException {
+        return await(op, openStream(request));
+    }
+
+    private <T> HttpResponse<T> await(String op, CompletableFuture<HttpResponse<T>> future) throws IOException {
+        long start = System.nanoTime();
+        String status = "error";
+        try {
+            HttpResponse<T> response = requestTimeoutMs > 0
+                    ? future.get(requestTimeoutMs, TimeUnit.MILLISECONDS) : future.get();
+            status = String.valueOf(response.statusCode());
+            return response;
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            status = "timeout";
+            throw new HttpTimeoutException("Coze " + op + " timed out after " + requestTimeoutMs + "ms");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Coze " + op + " interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof HttpTimeoutException) {
+                status = "timeout";
+            }
+            throw cause instanceof IOException io ? io : new IOException(cause.getMessage(), cause);
+        } finally {
+            Timer.builder("chat.coze.http.requests")
+                    .tag("op", op)
+                    .tag("status", status)
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * 发起流式请求（async 引擎），响应结束前计入 chat.coze.http.streams.active
+     */
+    public <T> CompletableFuture<HttpResponse<T>> sendStreamAsync(HttpRequest request,
+                                                                   HttpResponse.BodyHandler<T> handler) {
+        activeStreams.incrementAndGet();
+        CompletableFuture<HttpResponse<T>> future = client.sendAsync(request, handler);
+        future.whenComplete((response, ex) -> {
+            activeStreams.decrementAndGet();
+            if (response != null) {
+                countVersion(response);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 发起流式请求（blocking 引擎）：响应体为可从其他线程 close 的输入流，关闭前计入 streams.active
+     */
+    public CompletableFuture<HttpResponse<StreamBody>> openStream(HttpRequest request) {
+        activeStreams.incrementAndGet();
+        AtomicBoolean counted = new AtomicBoolean(true);
+        Runnable onClose = () -> {
+            if (counted.compareAndSet(true, false)) {
+                activeStreams.decrementAndGet();
+            }
+        };
+        CompletableFuture<HttpResponse<StreamBody>> future = client.sendAsync(request, info ->
+                HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofInputStream(),
+                        in -> new StreamBody(in, onClose)));
+        future.whenComplete((response, ex) -> {
+            if (response != null) {
+                countVersion(response);
+            } else {
+                onClose.run();
+            }
+        });
+        return future;
+    }
+
+    private Semaphore permitsFor(URI uri) {
+        if (maxRequestsPerHost <= 0) {
+            return null;
+        }
+        String host = uri.getHost() == null ? "unknown" : uri.getHost();
+        return hostPermits.computeIfAbsent(host, key -> {
+            Semaphore semaphore = new Semaphore(maxRequestsPerHost);
+            Gauge.builder("chat.coze.http.host.in_flight", semaphore,
+                            s -> maxRequestsPerHost - s.availablePermits())
+                    .tag("host", key)
+                    .description("Coze REST requests in progress per host (limit max-requests-per-host)")
+                    .register(meterRegistry);
+            return semaphore;
+        });
+    }
+
+    private void acquire(Semaphore permits, URI uri) throws IOException {
+        if (permits == null || permits.tryAcquire()) {
+            return;
+        }
+        pending.incrementAndGet();
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new HttpTimeoutException("Coze host " + uri.getHost() + " busy: "
+                        + maxRequestsPerHost + " requests in progress");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for Coze connection slot");
+        } finally {
+            pending.decrementAndGet();
+        }
+    }
+
+    private void countVersion(HttpResponse<?> response) {
+        Counter.builder("chat.coze.http.responses")
+                .tag("version", response.version().name())
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * 流式响应体：记录最近一次读到数据的时间供空闲超时判断，关闭可中断正在阻塞的读取
+     */
+    public static final class StreamBody extends FilterInputStream {
+
+        private final Runnable onClose;
+        private volatile long lastActivityNanos = System.nanoTime();
+
+        StreamBody(InputStream in, Runnable onClose) {
+            super(in);
+            this.onClose = onClose;
+        }
+
+        public long idleMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastActivityNanos);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            lastActivityNanos = System.nanoTime();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            lastActivityNanos = System.nanoTime();
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                onClose.run();
+            }
+        }
+    }
+}
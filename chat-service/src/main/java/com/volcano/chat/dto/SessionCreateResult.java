@@ -0,0 +1,18 @@
+package com.volcano.chat.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * 批量创建会话中单个手机号的结果：成功时包含 JWT Token 与过期时间，失败时包含错误信息
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record SessionCreateResult(String phone, String token, Long expiresAt, String error) {
+
+    public static SessionCreateResult created(String phone, String token, long expiresAt) {
+        return new SessionCreateResult(phone, token, expiresAt, null);
+    }
+
+    public static SessionCreateResult failed(String phone, String error) {
+        return new SessionCreateResult(phone, null, null, error);
+    }
+}
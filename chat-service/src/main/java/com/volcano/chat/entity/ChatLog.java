@@ -28,6 +28,12 @@ public class ChatLog {
     @TableField("ai_answer")
     private String aiAnswer;
 
+    /**
+     * 答案来源：为空表示由 Coze 生成，cache / similar 表示回答缓存精确 / 近似命中，coalesced 表示与相同的进行中请求合并
+     */
+    @TableField("answer_source")
+    private String answerSource;
+
     @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
     @TableField("request_time")
     private LocalDateTime requestTime;
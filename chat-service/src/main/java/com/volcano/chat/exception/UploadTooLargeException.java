@@ -0,0 +1,13 @@
+package com.volcano.chat.exception;
+
+import java.io.IOException;
+
+/**
+ * 上传内容超过大小上限
+ */
+public class UploadTooLargeException extends IOException {
+
+    public UploadTooLargeException(long maxBytes) {
+        super("Upload exceeds " + maxBytes + " bytes");
+    }
+}
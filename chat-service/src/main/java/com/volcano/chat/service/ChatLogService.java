@@ -51,6 +51,16 @@ public interface ChatLogService {
      */
     boolean updateById(ChatLog chatLog);
 
+    /**
+     * 批量回填相同的答案（合并请求的多条记录）
+     *
+     * @param recordIds    记录ID列表
+     * @param aiAnswer     AI 回答
+     * @param responseTime 响应时间
+     * @return 更新的记录数
+     */
+    int updateAnswers(List<Long> recordIds, String aiAnswer, LocalDateTime responseTime);
+
     /**
      * 逻辑删除聊天记录
      *
@@ -1,8 +1,30 @@
 package com.volcano.chat.service;
 
+import com.volcano.chat.admission.AdaptiveConcurrencyLimit;
+import com.volcano.chat.admission.AdmissionScheduler;
+import com.volcano.chat.cache.AnswerCache;
+import com.volcano.chat.cache.MessageHistoryCache;
+import com.volcano.chat.cache.SimilarAnswerIndex;
+import com.volcano.chat.cache.TtsAudioCache;
 import com.volcano.chat.config.CozeConfig;
+import com.volcano.chat.coze.ConversationPool;
+import com.volcano.chat.coze.CozeHttpClient;
 import com.volcano.chat.dto.ChatRequest;
 import com.volcano.chat.entity.ChatLog;
+import com.volcano.chat.exception.UploadTooLargeException;
+import com.volcano.chat.sse.AnswerAccumulator;
+import com.volcano.chat.sse.ByteArrayPool;
+import com.volcano.chat.sse.DeltaCoalescer;
+import com.volcano.chat.sse.DeltaJsonExtractor;
+import com.volcano.chat.sse.EmitterSseSink;
+import com.volcano.chat.sse.LiveStream;
+import com.volcano.chat.sse.SseFrame;
+import com.volcano.chat.sse.SseEventSink;
+import com.volcano.chat.sse.SingleFlightRegistry;
+import com.volcano.chat.sse.SseFrameScanner;
+import com.volcano.chat.sse.StreamEvent;
+import com.volcano.chat.sse.StreamRegistry;
+import com.volcano.chat.sse.StreamSubscriber;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
@@ -10,21 +32,35 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
 import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -42,43 +78,221 @@ public class CozeProxyService {
 
     private final CozeConfig cozeConfig;
     private final ChatLogService chatLogService;
+    private final StreamRegistry streamRegistry;
+    private final AdmissionScheduler admissionScheduler;
+    private final AdaptiveConcurrencyLimit adaptiveLimit;
+    private final CozeHttpClient cozeHttp;
+    private final AnswerCache answerCache;
+    private final SimilarAnswerIndex similarIndex;
+    private final SingleFlightRegistry singleFlight;
+    private final TtsAudioCache ttsCache;
+    private final MessageHistoryCache historyCache;
+    private final ConversationPool conversationPool;
     private ExecutorService executor;
 
     @Value("${chat.sse.max-concurrent:300}")
     private int maxConcurrentSse;
 
-    @Value("${chat.coze.connect-timeout-ms:5000}")
-    private int cozeConnectTimeoutMs;
-
     @Value("${chat.coze.read-timeout-ms:60000}")
     private int cozeReadTimeoutMs;
 
+    /**
+     * 流式 ASR 上传大小上限
+     */
+    @Value("${chat.asr.max-upload-mb:10}")
+    private long asrMaxUploadMb;
+
     @Value("${chat.sse.emitter-timeout-ms:0}")
     private long emitterTimeoutMs;
 
-    private Semaphore sseLimiter;
+    /**
+     * SSE 代理引擎：blocking（默认）或 async
+     */
+    @Value("${chat.sse.engine:blocking}")
+    private String sseEngine;
+
+    private static final String ENGINE_ASYNC = "async";
+
+    /**
+     * coze-sse 执行器：platform（默认，有界线程池）或 virtual（每个流一个虚拟线程，需 JDK 21+）
+     */
+    @Value("${chat.sse.executor:platform}")
+    private String sseExecutorMode;
+
+    /**
+     * 虚拟线程模式下用于推算并发上限的内存预算（MB），0 表示不限制
+     */
+    @Value("${chat.sse.memory-budget-mb:0}")
+    private long sseMemoryBudgetMb;
+
+    /**
+     * 单个流的预估内存占用（KB）：答案缓冲、SSE 帧与 HTTP 缓冲区
+     */
+    @Value("${chat.sse.stream-memory-kb:256}")
+    private int sseStreamMemoryKb;
+
+    @Value("${spring.datasource.hikari.maximum-pool-size:0}")
+    private int hikariMaxPoolSize;
+
+    /**
+     * 转发模式：event（默认，解码后重建事件）或 raw（字节级原样转发帧）
+     */
+    @Value("${chat.sse.forward-mode:event}")
+    private String forwardMode;
+
+    private static final String FORWARD_RAW = "raw";
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final int ERROR_BODY_LIMIT = 4096;
+
+    /**
+     * REST TTS 的音频格式，也是 TTS 缓存键的一部分
+     */
+    private static final String TTS_FORMAT = "mp3";
+
+    private ByteArrayPool readBufferPool;
+
+    /**
+     * answer delta 合并窗口（ms），0 表示逐个转发
+     */
+    @Value("${chat.sse.coalesce-window-ms:0}")
+    private long coalesceWindowMs;
+
+    /**
+     * 请求参数 sse_coalesce_ms 可协商的窗口上限（ms）
+     */
+    @Value("${chat.sse.coalesce-max-window-ms:100}")
+    private long coalesceMaxWindowMs;
+
+    /**
+     * 合并内容达到该字符数时立即写出
+     */
+    @Value("${chat.sse.coalesce-max-chars:1024}")
+    private int coalesceMaxChars;
+
+    /**
+     * 排队最长等待时间，超时仍未获得名额则出队并返回 429
+     */
+    @Value("${chat.sse.admission.max-wait-ms:10000}")
+    private long admissionMaxWaitMs;
+
+    /**
+     * 排队期间推送 queued 事件（当前顺位）的间隔，兼作客户端断开检测
+     */
+    @Value("${chat.sse.admission.queued-event-interval-ms:1000}")
+    private long queuedEventIntervalMs;
+
+    private static final String PARAM_COALESCE_MS = "sse_coalesce_ms";
+    private static final String STREAM_CREATED_EVENT = "stream.created";
+    private static final String CHAT_CREATED_EVENT = "conversation.chat.created";
+    private static final String QUEUED_EVENT = "queued";
+    private static final String ANSWER_SOURCE_CACHE = "cache";
+    private static final String ANSWER_SOURCE_SIMILAR = "similar";
+    private static final String ANSWER_SOURCE_COALESCED = "coalesced";
+    private static final String BUSY_MESSAGE = "系统繁忙，请稍后重试";
+    private static final String QUEUE_TIMEOUT_MESSAGE = "排队人数较多，请稍后重试";
+    private static final String USER_LIMIT_MESSAGE = "进行中的对话过多，请等待当前回答完成后重试";
+
+    private static final String EXECUTOR_PLATFORM = "platform";
+    private static final String EXECUTOR_VIRTUAL = "virtual";
+
     private final AtomicInteger threadSeq = new AtomicInteger(1);
 
+    private ScheduledExecutorService sseScheduler;
+
     @PostConstruct
     public void init() {
         int max = maxConcurrentSse > 0 ? maxConcurrentSse : 300;
         maxConcurrentSse = max;
-        sseLimiter = new Semaphore(max, true);
-
-        int core = Math.min(50, max);
-        executor = new ThreadPoolExecutor(
-                core,
-                max,
-                60L,
-                TimeUnit.SECONDS,
-                new SynchronousQueue<>(),
-                runnable -> {
-                    Thread thread = new Thread(runnable);
-                    thread.setName("coze-sse-" + threadSeq.getAndIncrement());
-                    thread.setDaemon(true);
-                    return thread;
-                },
-                new ThreadPoolExecutor.AbortPolicy());
+
+        sseExecutorMode = sseExecutorMode == null ? EXECUTOR_PLATFORM : sseExecutorMode.trim().toLowerCase();
+        if (EXECUTOR_VIRTUAL.equals(sseExecutorMode)) {
+            executor = newVirtualThreadExecutor("coze-sse-vt-");
+            if (executor == null) {
+                log.warn("chat.sse.executor=virtual requires JDK 21+ (running {}), falling back to platform threads",
+                        Runtime.version());
+                sseExecutorMode = EXECUTOR_PLATFORM;
+            }
+        }
+
+        if (EXECUTOR_VIRTUAL.equals(sseExecutorMode)) {
+            // 虚拟线程模式：线程不再是上限，准入只由信号量 + 内存预算决定
+            if (sseMemoryBudgetMb > 0 && sseStreamMemoryKb > 0) {
+                long budgetPermits = sseMemoryBudgetMb * 1024L / sseStreamMemoryKb;
+                max = (int) Math.max(1, Math.min(max, budgetPermits));
+                maxConcurrentSse = max;
+            }
+        } else {
+            int core = Math.min(50, max);
+            executor = new ThreadPoolExecutor(
+                    core,
+                    max,
+                    60L,
+                    TimeUnit.SECONDS,
+                    new SynchronousQueue<>(),
+                    runnable -> {
+                        Thread thread = new Thread(runnable);
+                        thread.setName("coze-sse-" + threadSeq.getAndIncrement());
+                        thread.setDaemon(true);
+                        return thread;
+                    },
+                    new ThreadPoolExecutor.AbortPolicy());
+        }
+        admissionScheduler.setLimit(max);
+        adaptiveLimit.start(max);
+
+        forwardMode = forwardMode == null ? "event" : forwardMode.trim().toLowerCase();
+        readBufferPool = new ByteArrayPool(READ_BUFFER_SIZE, Math.min(max, 512));
+
+        sseEngine = sseEngine == null ? "blocking" : sseEngine.trim().toLowerCase();
+        // 合并写出定时与上游流的空闲 watchdog 共用
+        sseScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setName("coze-sse-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        log.info("CozeProxyService initialized - engine: {}, executor: {}, forward: {}, max concurrent SSE: {}",
+                sseEngine, sseExecutorMode, forwardMode, max);
+        if (EXECUTOR_VIRTUAL.equals(sseExecutorMode)) {
+            logVirtualThreadDiagnostics(max);
+        }
+    }
+
+    /**
+     * 通过反射创建 thread-per-task 虚拟线程执行器，保持 JDK 17 可编译；JDK 21 以下返回 null
+     */
+    private ExecutorService newVirtualThreadExecutor(String namePrefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 1L);
+            ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class
+                    .getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 虚拟线程模式启动诊断：提示可能导致载体线程钉住 (pinning) 或排队的配置
+     */
+    private void logVirtualThreadDiagnostics(int permits) {
+        String trace = System.getProperty("jdk.tracePinnedThreads");
+        if (trace == null) {
+            log.info("Virtual SSE executor: start with -Djdk.tracePinnedThreads=short to report pinned carriers");
+        } else {
+            log.info("Virtual SSE executor: pinned-thread tracing enabled ({})", trace);
+        }
+        if (hikariMaxPoolSize > 0 && permits > hikariMaxPoolSize * 10) {
+            log.warn("Virtual SSE executor: {} stream permits share {} JDBC connections; "
+                    + "Insert Q / Update A will queue on the Hikari pool under load", permits, hikariMaxPoolSize);
+        }
+        log.info("Virtual SSE executor: {} carrier threads, permits={}, memory budget={}MB @ {}KB/stream",
+                Integer.getInteger("jdk.virtualThreadScheduler.parallelism",
+                        Runtime.getRuntime().availableProcessors()),
+                permits, sseMemoryBudgetMb, sseStreamMemoryKb);
     }
 
     @PreDestroy
@@ -86,6 +300,9 @@ public class CozeProxyService {
         if (executor != null) {
             executor.shutdownNow();
         }
+        if (sseScheduler != null) {
+            sseScheduler.shutdownNow();
+        }
     }
 
     /**
@@ -96,251 +313,1051 @@ public class CozeProxyService {
      * 1. 发起请求前先插入问题记录 (Insert Q)
      * 2. 流结束后更新答案 (Update A)
      * 
+     * 代理引擎由 chat.sse.engine 选择：
+     * - blocking: 每个流占用一个 coze-sse 线程（共享 HttpClient 的阻塞输入流 + readLine）
+     * - async: JDK HttpClient 非阻塞读取，流在等待上游时不占用线程
+     * 
+     * 启用 chat.sse.resume.enabled 时首个事件为 stream.created（携带 stream_id），
+     * 后续事件带递增 id，客户端断线后可通过 resumeStream 续传；
+     * 启用 chat.sse.fanout.enabled 时同一会话的其他标签页可通过 attachGeneration 共享本次生成。
+     * 启用 chat.answer-cache.enabled 时无状态首问可直接由回答缓存重放（chat_logs.answer_source=cache），
+     * 另启用 chat.similar-cache 时近似问题也可命中（answer_source=similar）。
+     * 启用 chat.single-flight.enabled 时相同的无状态首问在上游调用期间合并为一次，
+     * 后来者挂载到进行中的流（answer_source=coalesced），各自写入一条聊天记录。
+     * 
      * @param request 聊天请求
      * @param userPhone 用户标识（手机号）
      * @param cozeToken 已缓存的 Coze OAuth Token
      * @param sessionId 会话 ID（与 Token 生命周期绑定，用于聚合同一会话的聊天记录）
      */
     public SseEmitter sendMessage(ChatRequest request, String userPhone, String cozeToken, String sessionId) {
+        // 无状态首问先查回答缓存（精确匹配，再近似匹配），命中时不占用准入名额、不调用 Coze。
+        // 请求键（规范化 + SHA-256）只在回答缓存或单飞启用时计算
+        String requestKey = answerCache.isEnabled() || singleFlight.isEnabled() ? answerCache.keyFor(request) : null;
+        CacheContext cacheLookup = null;
+        if (requestKey != null && answerCache.isEnabled()) {
+            AnswerCache.CachedAnswer cached = answerCache.get(requestKey);
+            if (cached != null) {
+                return replayCachedAnswer(request, userPhone, sessionId, cached, ANSWER_SOURCE_CACHE);
+            }
+            String scope = answerCache.scopeFor(request);
+            SimilarAnswerIndex.Match similar = similarIndex.find(scope, request.getMessage());
+            if (similar != null && !similar.shadow()) {
+                return replayCachedAnswer(request, userPhone, sessionId, similar.answer(), ANSWER_SOURCE_SIMILAR);
+            }
+            cacheLookup = new CacheContext(requestKey, scope, request.getMessage(), similar);
+        }
+        CacheContext cache = cacheLookup;
+
+        // 相同请求正在调用上游时直接挂载（单飞），不占用准入名额
+        String flightKey = singleFlight.isEnabled() ? requestKey : null;
+        if (flightKey != null) {
+            SseEmitter follower = followInFlight(flightKey, request, userPhone, sessionId);
+            if (follower != null) {
+                return follower;
+            }
+        }
+
+        SseEmitter emitter = new SseEmitter(emitterTimeoutMs <= 0 ? 0L : emitterTimeoutMs);
+
+        // 排队的请求获得名额时与下方的流初始化汇合，两者都完成后才启动
+        AtomicInteger rendezvous = new AtomicInteger(2);
+        AtomicReference<Runnable> startRef = new AtomicReference<>();
+        AdmissionScheduler.Ticket ticket = admissionScheduler.acquire(userPhone, () -> {
+            if (rendezvous.decrementAndGet() == 0) {
+                startRef.get().run();
+            }
+        });
+        AdmissionScheduler.State admission = ticket.state();
+        if (admission == AdmissionScheduler.State.REJECTED) {
+            safeSendError(emitter, 429, ticket.rejectReason() == AdmissionScheduler.RejectReason.USER_LIMIT
+                    ? USER_LIMIT_MESSAGE : BUSY_MESSAGE);
+            emitter.complete();
+            return emitter;
+        }
+
+        AtomicBoolean stopRequested = new AtomicBoolean(false);
+        // 中断上游的动作：blocking 引擎为 disconnect，async 引擎为取消订阅/请求
+        AtomicReference<Runnable> upstreamAbort = new AtomicReference<>();
+
+        // 归还名额；仍在排队时为出队
+        Runnable releasePermit = ticket::release;
+
+        Runnable cancelUpstream = () -> {
+            stopRequested.set(true);
+            Runnable abort = upstreamAbort.get();
+            if (abort != null) {
+                try {
+                    abort.run();
+                } catch (Exception ignore) {
+                }
+            }
+            releasePermit.run();
+        };
+
+        // 使用传入的 sessionId（与 Token 生命周期绑定），而非 request 中的 conversationId
+        final String finalSessionId = sessionId;
+
+        // 客户端断开只是离开流，是否取消上游由 StreamRegistry 决定（未启用续传时立即取消）
+        LiveStream stream = streamRegistry.open(finalSessionId, cancelUpstream, flightKey != null);
+        StreamSubscriber subscriber = newSubscriber(stream, emitter, createSink(emitter, request.getParams()));
+        if (stream.isBuffered() && streamRegistry.isResumeEnabled()) {
+            announceStream(emitter, stream);
+        }
+        stream.attach(subscriber, 0);
+        if (flightKey != null) {
+            singleFlight.lead(flightKey, stream);
+        }
+
+        ScheduledFuture<?> queueTicker = admission == AdmissionScheduler.State.QUEUED
+                ? startQueueTicker(ticket, stream) : null;
+
+        Runnable start = () -> {
+            if (queueTicker != null) {
+                queueTicker.cancel(false);
+            }
+            if (stopRequested.get()) {
+                // 排队期间客户端已离开：不触碰 Coze 与数据库
+                releasePermit.run();
+                return;
+            }
+            // 用户消息即将写入会话，缓存的历史随即过期
+            historyCache.invalidate(request.getConversationId());
+            try {
+                if (ENGINE_ASYNC.equals(sseEngine)) {
+                    executor.execute(() -> streamAsync(request, userPhone, cozeToken, finalSessionId,
+                            stream, stopRequested, upstreamAbort, releasePermit, cache));
+                } else {
+                    executor.execute(() -> streamBlocking(request, userPhone, cozeToken, finalSessionId,
+                            stream, stopRequested, upstreamAbort, releasePermit, cache));
+                }
+            } catch (RejectedExecutionException e) {
+                releasePermit.run();
+                failStream(stream, 429, BUSY_MESSAGE);
+            }
+        };
+        startRef.set(start);
+        if (admission == AdmissionScheduler.State.GRANTED || rendezvous.decrementAndGet() == 0) {
+            start.run();
+        }
+
+        return emitter;
+    }
+
+    /**
+     * 排队期间定时推送 queued 事件（顺位与队列长度），超过 max-wait-ms 仍未放行则出队并返回 429。
+     *
+     * 推送同时用于发现已断开的客户端：写失败 → 订阅者离开 → cancelUpstream 出队，全程不触碰 Coze 与数据库。
+     */
+    private ScheduledFuture<?> startQueueTicker(AdmissionScheduler.Ticket ticket, LiveStream stream) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0L, admissionMaxWaitMs));
+        AtomicReference<ScheduledFuture<?>> self = new AtomicReference<>();
+        Runnable tick = () -> {
+            if (ticket.state() != AdmissionScheduler.State.QUEUED || stream.isCompleted()) {
+                cancelTicker(self);
+                return;
+            }
+            if (admissionMaxWaitMs > 0 && System.nanoTime() - deadline >= 0) {
+                cancelTicker(self);
+                if (ticket.withdraw()) {
+                    log.warn("SSE 排队超时出队: waitedMs={}", admissionMaxWaitMs);
+                    failStream(stream, 429, QUEUE_TIMEOUT_MESSAGE);
+                }
+                return;
+            }
+            int position = ticket.position();
+            if (position > 0) {
+                stream.publishTransient(StreamEvent.of(QUEUED_EVENT, "{\"position\":" + position
+                        + ",\"queue_depth\":" + admissionScheduler.queueDepth() + "}"));
+            }
+        };
+        tick.run();
+        long interval = Math.max(100L, queuedEventIntervalMs);
+        try {
+            self.set(sseScheduler.scheduleWithFixedDelay(tick, interval, interval, TimeUnit.MILLISECONDS));
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+        if (ticket.state() != AdmissionScheduler.State.QUEUED) {
+            cancelTicker(self);
+        }
+        return self.get();
+    }
+
+    private static void cancelTicker(AtomicReference<ScheduledFuture<?>> ticker) {
+        ScheduledFuture<?> future = ticker.get();
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * 回答缓存命中：写入带 answer_source 标记（cache / similar）的聊天记录，再按缓存分片重放 SSE 事件
+     * （replay-interval-ms 为 0 时一次性写出，否则按间隔逐片写出）。
+     *
+     * 重放不包含 conversation.chat.created：缓存回答不属于任何 Coze 会话，客户端下一问将开启新会话。
+     */
+    private SseEmitter replayCachedAnswer(ChatRequest request, String userPhone, String sessionId,
+                                          AnswerCache.CachedAnswer cached, String answerSource) {
+        SseEmitter emitter = new SseEmitter(emitterTimeoutMs <= 0 ? 0L : emitterTimeoutMs);
+        LocalDateTime now = LocalDateTime.now();
+        insertServedLog(userPhone, sessionId, request.getMessage(), cached.answer(), answerSource, now);
+
+        List<StreamEvent> events = new ArrayList<>(cached.chunks().size() + 2);
+        for (String chunk : cached.chunks()) {
+            Map<String, Object> delta = new HashMap<>();
+            delta.put("role", "assistant");
+            delta.put("type", "answer");
+            delta.put("content", chunk);
+            events.add(StreamEvent.of(AnswerAccumulator.DELTA_EVENT, toJson(delta)));
+        }
+        events.add(StreamEvent.of("conversation.chat.completed", "{\"status\":\"completed\"}"));
+        events.add(StreamEvent.of("done", "\"[DONE]\""));
+
+        SseEventSink sink = createSink(emitter, request.getParams());
+        long interval = answerCache.replayIntervalMs();
+        if (interval <= 0) {
+            try {
+                for (StreamEvent event : events) {
+                    sink.send(event);
+                }
+                sink.close();
+                emitter.complete();
+            } catch (IOException e) {
+                log.debug("Cached answer replay aborted: {}", e.getMessage());
+            }
+            return emitter;
+        }
+
+        AtomicInteger next = new AtomicInteger();
+        AtomicReference<ScheduledFuture<?>> task = new AtomicReference<>();
+        Runnable tick = () -> {
+            int index = next.getAndIncrement();
+            if (index >= events.size()) {
+                cancelTicker(task);
+                return;
+            }
+            try {
+                sink.send(events.get(index));
+                if (index == events.size() - 1) {
+                    cancelTicker(task);
+                    sink.close();
+                    emitter.complete();
+                }
+            } catch (IOException e) {
+                cancelTicker(task);
+            }
+        };
+        emitter.onCompletion(() -> cancelTicker(task));
+        emitter.onError(e -> cancelTicker(task));
+        try {
+            task.set(sseScheduler.scheduleAtFixedRate(tick, 0, interval, TimeUnit.MILLISECONDS));
+        } catch (RejectedExecutionException e) {
+            safeSendError(emitter, 429, BUSY_MESSAGE);
+            emitter.complete();
+        }
+        return emitter;
+    }
+
+    /**
+     * 单飞 follower：挂载到相同请求进行中的上游流（先补发已生成的前缀），写入自己的聊天记录
+     * （answer_source=coalesced），答案在 leader 结束时批量回填。
+     *
+     * 不转发 conversation.chat.created：该 Coze 会话属于 leader，客户端下一问将开启新会话（与缓存重放一致）。
+     *
+     * @return 没有可挂载的进行中请求时返回 null
+     */
+    private SseEmitter followInFlight(String flightKey, ChatRequest request, String userPhone, String sessionId) {
+        SingleFlightRegistry.Flight flight = singleFlight.find(flightKey);
+        if (flight == null) {
+            return null;
+        }
+        LocalDateTime requestTime = LocalDateTime.now();
+        SseEmitter emitter = new SseEmitter(emitterTimeoutMs <= 0 ? 0L : emitterTimeoutMs);
+        SseEventSink sink = new FollowerSink(createSink(emitter, request.getParams()));
+        if (!singleFlight.join(flight, newSubscriber(flight.stream(), emitter, sink))) {
+            return null;
+        }
+        Long recordId = insertQuestionLog(userPhone, sessionId, request.getMessage(), requestTime,
+                ANSWER_SOURCE_COALESCED);
+        if (!flight.addRecord(recordId) && recordId != null) {
+            // 挂载后 leader 已结束，不会再批量回填
+            String answer = flight.answer();
+            if (answer != null) {
+                updateAnswerLog(recordId, answer, LocalDateTime.now());
+            }
+        }
+        return emitter;
+    }
+
+    /**
+     * 续传断开的流：补发 Last-Event-ID 之后的缓冲事件，并继续接收实时事件
+     *
+     * 只有发起流的同一会话可以续传；流不存在、已回收或续传位置已被淘汰时返回 error 事件。
+     *
+     * @param streamId stream.created 事件中下发的流 ID
+     * @param sessionId 当前会话 ID
+     * @param lastEventId 客户端已收到的最后一个事件序号（Last-Event-ID），0 表示从缓冲起点开始
+     */
+    public SseEmitter resumeStream(String streamId, String sessionId, long lastEventId) {
         SseEmitter emitter = new SseEmitter(emitterTimeoutMs <= 0 ? 0L : emitterTimeoutMs);
+        LiveStream stream = streamRegistry.find(streamId);
+        if (stream == null || !stream.ownerKey().equals(sessionId)) {
+            safeSendError(emitter, 404, "流不存在或已过期");
+            emitter.complete();
+            return emitter;
+        }
+
+        LiveStream.AttachResult result = stream.attach(newSubscriber(stream, emitter, createSink(emitter, null)), lastEventId);
+        if (result != LiveStream.AttachResult.ATTACHED) {
+            safeSendError(emitter, result == LiveStream.AttachResult.GAP ? 410 : 404,
+                    result == LiveStream.AttachResult.GAP ? "续传位置已超出缓冲范围，请重新发送" : "流不存在或已过期");
+            emitter.complete();
+        }
+        return emitter;
+    }
+
+    /**
+     * 挂载到同一会话中进行中的生成（多标签页共享一次上游调用，需启用 chat.sse.fanout.enabled）
+     * 先补发缓冲的前缀，再接收实时事件；不会发起新的 Coze 请求，也不会新增 chat_logs 记录
+     *
+     * @param sessionId 当前会话 ID
+     * @param conversationId 会话 conversation_id
+     * @param chatId chat.created 中的 chat id，为空时挂载该 conversation 最近一次生成
+     */
+    public SseEmitter attachGeneration(String sessionId, String conversationId, String chatId) {
+        SseEmitter emitter = new SseEmitter(emitterTimeoutMs <= 0 ? 0L : emitterTimeoutMs);
+        LiveStream stream = streamRegistry.findGeneration(sessionId, conversationId, chatId);
+        LiveStream.AttachResult result = stream == null
+                ? LiveStream.AttachResult.EXPIRED
+                : stream.attach(newSubscriber(stream, emitter, createSink(emitter, null)), 0);
+        if (result != LiveStream.AttachResult.ATTACHED) {
+            safeSendError(emitter, result == LiveStream.AttachResult.GAP ? 410 : 404,
+                    result == LiveStream.AttachResult.GAP ? "回答已超出缓冲范围，请查看历史消息" : "没有进行中的回答");
+            emitter.complete();
+        }
+        return emitter;
+    }
+
+    /**
+     * 创建订阅者，连接结束（完成、超时、出错）时从流上移除
+     */
+    private StreamSubscriber newSubscriber(LiveStream stream, SseEmitter emitter, SseEventSink sink) {
+        StreamSubscriber subscriber = new StreamSubscriber(emitter, sink);
+        emitter.onCompletion(() -> stream.detach(subscriber));
+        emitter.onTimeout(() -> stream.detach(subscriber));
+        emitter.onError(ex -> stream.detach(subscriber));
+        return subscriber;
+    }
+
+    /**
+     * 可恢复流的首个事件：下发 stream_id 供断线后续传（不编号，不进入缓冲）
+     */
+    private void announceStream(SseEmitter emitter, LiveStream stream) {
+        try {
+            Map<String, Object> data = new HashMap<>();
+            data.put("stream_id", stream.id());
+            emitter.send(SseEmitter.event().name(STREAM_CREATED_EVENT).data(toJson(data)));
+        } catch (IOException ignore) {
+        }
+    }
+
+    /**
+     * blocking 引擎：在当前 coze-sse 线程上完成整个流的读取与转发
+     */
+    private void streamBlocking(ChatRequest request, String userPhone, String cozeToken, String sessionId,
+                                LiveStream stream, AtomicBoolean stopRequested,
+                                AtomicReference<Runnable> upstreamAbort, Runnable releasePermit,
+                                CacheContext cache) {
+        CozeHttpClient.StreamBody body = null;
+        ScheduledFuture<?> watchdog = null;
+        AtomicBoolean timedOut = new AtomicBoolean(false);
+        LocalDateTime requestTime = LocalDateTime.now();
+        AnswerAccumulator aiAnswer = newAccumulator(cache);
+        String userQuestion = request.getMessage();
+        Long chatLogId = null;
+        long upstreamStart = 0;
+        // 成功路径在 stream.complete 之前已失效历史缓存，客户端收到结束后立即读取的历史可以被缓存
+        boolean settled = false;
+
+        try {
+            // ========== 步骤8: 先插入问题记录到数据库 (Insert Q) ==========
+            chatLogId = insertQuestionLog(userPhone, sessionId, userQuestion, requestTime);
+
+            String jsonBody = buildChatBody(request, userPhone);
+            log.debug("Coze request body: {}", jsonBody);
+
+            // ========== 步骤9: 发送请求到 Coze API ==========
+            upstreamStart = System.nanoTime();
+            CompletableFuture<HttpResponse<CozeHttpClient.StreamBody>> future =
+                    cozeHttp.openStream(chatRequest(jsonBody, cozeToken));
+            upstreamAbort.set(() -> future.cancel(true));
+            if (stopRequested.get()) {
+                future.cancel(true);
+            }
+            HttpResponse<CozeHttpClient.StreamBody> response = future.join();
+            body = response.body();
+            CozeHttpClient.StreamBody streamBody = body;
+            upstreamAbort.set(() -> closeQuietly(streamBody));
+
+            int responseCode = response.statusCode();
+            recordResponse(responseCode, upstreamStart);
+            if (responseCode != 200) {
+                String errorMsg = "Coze API error: " + responseCode;
+                log.error(errorMsg);
+                failStream(stream, responseCode, errorMsg);
+                return;
+            }
+
+            watchdog = watchIdle(streamBody, timedOut);
+
+            // ========== 步骤10-11: 读取 SSE 响应并转发 ==========
+            if (FORWARD_RAW.equals(forwardMode)) {
+                SseFrameScanner scanner = new SseFrameScanner(frame -> relayFrame(stream, frame, aiAnswer));
+                byte[] buffer = readBufferPool.acquire();
+                try {
+                    int n;
+                    while (!stopRequested.get() && (n = body.read(buffer)) != -1) {
+                        scanner.feed(buffer, 0, n);
+                    }
+                    if (!stopRequested.get()) {
+                        scanner.finish();
+                    }
+                } finally {
+                    readBufferPool.release(buffer);
+                }
+            } else {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+                String line;
+                String currentEvent = "";
+
+                while (!stopRequested.get() && (line = reader.readLine()) != null) {
+                    if (line.startsWith("event:")) {
+                        currentEvent = line.substring(6).trim();
+                    } else if (line.startsWith("data:") && !currentEvent.isEmpty()) {
+                        relayEvent(stream, currentEvent, line.substring(5).trim(), aiAnswer);
+                    }
+                }
+            }
+
+            // ========== 步骤13: 流结束后更新答案 (Update A) ==========
+            updateAnswerLog(chatLogId, aiAnswer.toString(), LocalDateTime.now());
+            if (!stopRequested.get()) {
+                cacheAnswer(cache, aiAnswer);
+            }
+            completeFlight(stream, aiAnswer);
+            historyCache.invalidate(request.getConversationId());
+            settled = true;
+
+            stream.complete();
+
+        } catch (Exception e) {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (stopRequested.get()) {
+                return;
+            }
+            if (timedOut.get() || cause instanceof HttpTimeoutException) {
+                adaptiveLimit.onFailure(true);
+                log.warn("Coze SSE read timeout ({}ms) for user {}...",
+                        cozeReadTimeoutMs, userPhone.substring(0, Math.min(4, userPhone.length())));
+                failStream(stream, 504, "上游流式响应超时（60秒无数据），请重试");
+            } else {
+                if (upstreamStart != 0) {
+                    adaptiveLimit.onFailure(false);
+                }
+                log.error("Error proxying to Coze API", cause);
+                failStream(stream, 500, cause.getMessage() != null ? cause.getMessage() : "Internal error");
+            }
+        } finally {
+            if (!settled) {
+                historyCache.invalidate(request.getConversationId());
+            }
+            upstreamAbort.set(null);
+            if (watchdog != null) {
+                watchdog.cancel(false);
+            }
+            closeQuietly(body);
+            releasePermit.run();
+        }
+    }
+
+    /**
+     * async 引擎：coze-sse 线程只负责 Insert Q 和发起请求，随后立即归还；
+     * 上游 SSE 行由 HttpClient 在数据到达时回调，空闲等待期间不占用任何线程。
+     */
+    private void streamAsync(ChatRequest request, String userPhone, String cozeToken, String sessionId,
+                             LiveStream stream, AtomicBoolean stopRequested,
+                             AtomicReference<Runnable> upstreamAbort, Runnable releasePermit,
+                             CacheContext cache) {
+        AtomicBoolean finished = new AtomicBoolean(false);
+        try {
+            // ========== 步骤8: 先插入问题记录到数据库 (Insert Q) ==========
+            Long chatLogId = insertQuestionLog(userPhone, sessionId, request.getMessage(), LocalDateTime.now());
+
+            String jsonBody = buildChatBody(request, userPhone);
+            log.debug("Coze request body: {}", jsonBody);
+
+            AnswerAccumulator aiAnswer = newAccumulator(cache);
+            long upstreamStart = System.nanoTime();
+            UpstreamSubscriber<?> subscriber;
+            HttpResponse.BodyHandler<Void> bodyHandler;
+            if (FORWARD_RAW.equals(forwardMode)) {
+                SseByteSubscriber byteSubscriber = new SseByteSubscriber(stream, aiAnswer);
+                subscriber = byteSubscriber;
+                bodyHandler = info -> {
+                    recordResponse(info.statusCode(), upstreamStart);
+                    return info.statusCode() == 200
+                            ? HttpResponse.BodySubscribers.fromSubscriber(byteSubscriber)
+                            : HttpResponse.BodySubscribers.discarding();
+                };
+            } else {
+                SseLineSubscriber lineSubscriber = new SseLineSubscriber(stream, aiAnswer);
+                subscriber = lineSubscriber;
+                bodyHandler = info -> {
+                    recordResponse(info.statusCode(), upstreamStart);
+                    return info.statusCode() == 200
+                            ? HttpResponse.BodySubscribers.fromLineSubscriber(lineSubscriber)
+                            : HttpResponse.BodySubscribers.discarding();
+                };
+            }
+
+            // ========== 步骤9: 发送请求到 Coze API ==========
+            CompletableFuture<HttpResponse<Void>> future = cozeHttp.sendStreamAsync(
+                    chatRequest(jsonBody, cozeToken), bodyHandler);
+            upstreamAbort.set(() -> {
+                future.cancel(true);
+                subscriber.cancel();
+            });
+            if (stopRequested.get()) {
+                // 客户端在发起请求前已断开
+                future.cancel(true);
+            }
+
+            ScheduledFuture<?> watchdog = null;
+            if (cozeReadTimeoutMs > 0) {
+                long period = Math.min(1000L, cozeReadTimeoutMs);
+                watchdog = sseScheduler.scheduleWithFixedDelay(() -> {
+                    if (subscriber.idleMillis() >= cozeReadTimeoutMs && finished.compareAndSet(false, true)) {
+                        adaptiveLimit.onFailure(true);
+                        log.warn("Coze SSE read timeout ({}ms) for user {}...",
+                                cozeReadTimeoutMs, userPhone.substring(0, Math.min(4, userPhone.length())));
+                        subscriber.cancel();
+                        future.cancel(true);
+                        failStream(stream, 504, "上游流式响应超时（60秒无数据），请重试");
+                        historyCache.invalidate(request.getConversationId());
+                        releasePermit.run();
+                    }
+                }, period, period, TimeUnit.MILLISECONDS);
+            }
+            ScheduledFuture<?> watchdogRef = watchdog;
+
+            // ========== 步骤10-13: 行回调转发，流结束后更新答案 ==========
+            // 收尾（写库、结束下游）交给 coze-sse 执行器，不占用 HttpClient 的回调线程
+            future.whenComplete((response, ex) -> runOnSseExecutor(() -> {
+                if (watchdogRef != null) {
+                    watchdogRef.cancel(false);
+                }
+                if (!finished.compareAndSet(false, true)) {
+                    return;
+                }
+                boolean settled = false;
+                try {
+                    if (ex != null) {
+                        if (stopRequested.get()) {
+                            // 与 blocking 引擎一致：客户端停止时仍写入已生成的部分回答
+                            updateAnswerLog(chatLogId, aiAnswer.toString(), LocalDateTime.now());
+                        } else {
+                            Throwable cause = ex instanceof CompletionException && ex.getCause() != null
+                                    ? ex.getCause() : ex;
+                            adaptiveLimit.onFailure(cause instanceof HttpTimeoutException);
+                            if (cause instanceof HttpTimeoutException) {
+                                log.warn("Coze SSE timeout ({}ms) for user {}...", cozeReadTimeoutMs,
+                                        userPhone.substring(0, Math.min(4, userPhone.length())));
+                                failStream(stream, 504, "上游流式响应超时（60秒无数据），请重试");
+                            } else {
+                                log.error("Error proxying to Coze API", cause);
+                                failStream(stream, 500,
+                                        cause.getMessage() != null ? cause.getMessage() : "Internal error");
+                            }
+                        }
+                        return;
+                    }
+                    if (response.statusCode() != 200) {
+                        String errorMsg = "Coze API error: " + response.statusCode();
+                        log.error(errorMsg);
+                        failStream(stream, response.statusCode(), errorMsg);
+                        return;
+                    }
+
+                    // ========== 步骤13: 流结束后更新答案 (Update A) ==========
+                    updateAnswerLog(chatLogId, aiAnswer.toString(), LocalDateTime.now());
+                    if (!stopRequested.get()) {
+                        cacheAnswer(cache, aiAnswer);
+                    }
+                    completeFlight(stream, aiAnswer);
+                    historyCache.invalidate(request.getConversationId());
+                    settled = true;
+                    stream.complete();
+                } finally {
+                    if (!settled) {
+                        historyCache.invalidate(request.getConversationId());
+                    }
+                    upstreamAbort.set(null);
+                    releasePermit.run();
+                }
+            }));
+        } catch (Exception e) {
+            if (finished.compareAndSet(false, true)) {
+                if (!stopRequested.get()) {
+                    log.error("Error proxying to Coze API", e);
+                    failStream(stream, 500, e.getMessage() != null ? e.getMessage() : "Internal error");
+                }
+                releasePermit.run();
+            }
+        }
+    }
+
+    /**
+     * 在 coze-sse 执行器上运行 async 引擎的收尾工作；执行器已满时在当前线程运行，保证许可被归还
+     */
+    private void runOnSseExecutor(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+    }
+
+    /**
+     * async 引擎的上游订阅者基类：逐项 request(1) 形成背压，记录最近活动时间供 watchdog 判断空闲
+     */
+    private abstract class UpstreamSubscriber<T> implements Flow.Subscriber<T> {
+
+        protected final LiveStream stream;
+        private final AtomicReference<Flow.Subscription> subscription = new AtomicReference<>();
+        private volatile long lastActivityNanos = System.nanoTime();
+        private volatile boolean cancelled;
+
+        UpstreamSubscriber(LiveStream stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription s) {
+            subscription.set(s);
+            if (cancelled) {
+                s.cancel();
+            } else {
+                s.request(1);
+            }
+        }
+
+        @Override
+        public void onNext(T item) {
+            lastActivityNanos = System.nanoTime();
+            if (cancelled) {
+                return;
+            }
+            try {
+                handle(item);
+                subscription.get().request(1);
+            } catch (RuntimeException e) {
+                // 下游写失败由 LiveStream 按订阅者处理，这里只会是解析/中继本身的异常
+                log.error("Failed to relay SSE data", e);
+                cancel();
+                failStream(stream, 500, e.getMessage() != null ? e.getMessage() : "Internal error");
+            }
+        }
+
+        protected abstract void handle(T item);
+
+        @Override
+        public void onError(Throwable throwable) {
+            // 由 sendAsync 返回的 future 统一处理
+        }
+
+        @Override
+        public void onComplete() {
+            // 由 sendAsync 返回的 future 统一处理
+        }
+
+        long idleMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastActivityNanos);
+        }
+
+        void cancel() {
+            cancelled = true;
+            Flow.Subscription s = subscription.get();
+            if (s != null) {
+                s.cancel();
+            }
+        }
+    }
+
+    /**
+     * event 转发模式：解析 event:/data: 行并重新构建事件
+     */
+    private class SseLineSubscriber extends UpstreamSubscriber<String> {
+
+        private final AnswerAccumulator aiAnswer;
+        private String currentEvent = "";
+
+        SseLineSubscriber(LiveStream stream, AnswerAccumulator aiAnswer) {
+            super(stream);
+            this.aiAnswer = aiAnswer;
+        }
+
+        @Override
+        protected void handle(String line) {
+            if (line.startsWith("event:")) {
+                currentEvent = line.substring(6).trim();
+            } else if (line.startsWith("data:") && !currentEvent.isEmpty()) {
+                relayEvent(stream, currentEvent, line.substring(5).trim(), aiAnswer);
+            }
+        }
+    }
+
+    /**
+     * raw 转发模式：直接扫描上游 ByteBuffer 的帧边界，原样转发帧字节
+     */
+    private class SseByteSubscriber extends UpstreamSubscriber<List<ByteBuffer>> {
+
+        private final SseFrameScanner scanner;
+
+        SseByteSubscriber(LiveStream stream, AnswerAccumulator aiAnswer) {
+            super(stream);
+            this.scanner = new SseFrameScanner(frame -> relayFrame(stream, frame, aiAnswer));
+        }
+
+        @Override
+        protected void handle(List<ByteBuffer> buffers) {
+            for (ByteBuffer buffer : buffers) {
+                scanner.feed(buffer);
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            scanner.finish();
+        }
+    }
+
+    /**
+     * 单飞 follower 的下游输出：过滤 leader 会话的 conversation.chat.created，其余事件照常写出
+     */
+    private static final class FollowerSink implements SseEventSink {
+
+        private final SseEventSink delegate;
+
+        FollowerSink(SseEventSink delegate) {
+            this.delegate = delegate;
+        }
 
-        if (sseLimiter == null || !sseLimiter.tryAcquire()) {
-            safeSendError(emitter, 429, "系统繁忙，请稍后重试");
-            emitter.complete();
-            return emitter;
+        @Override
+        public void send(StreamEvent event) throws IOException {
+            if (!CHAT_CREATED_EVENT.equals(event.event())) {
+                delegate.send(event);
+            }
         }
 
-        AtomicBoolean stopRequested = new AtomicBoolean(false);
-        AtomicBoolean permitReleased = new AtomicBoolean(false);
-        AtomicReference<HttpURLConnection> connectionRef = new AtomicReference<>();
+        @Override
+        public void flush() throws IOException {
+            delegate.flush();
+        }
 
-        Runnable releasePermit = () -> {
-            if (permitReleased.compareAndSet(false, true)) {
-                sseLimiter.release();
-            }
-        };
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
 
-        Runnable cancelUpstream = () -> {
-            stopRequested.set(true);
-            HttpURLConnection conn = connectionRef.get();
-            if (conn != null) {
-                try {
-                    conn.disconnect();
-                } catch (Exception ignore) {
-                }
-            }
-        };
+    /**
+     * raw 模式转发单个上游帧：帧字节原样写出，只有需要累积答案的事件才解码 data
+     */
+    private void relayFrame(LiveStream stream, SseFrame frame, AnswerAccumulator aiAnswer) {
+        if (frame.event().isEmpty() || !frame.hasData()) {
+            return;
+        }
+        if (CHAT_CREATED_EVENT.equals(frame.event())) {
+            bindGeneration(stream, frame.data());
+        }
+        stream.publish(StreamEvent.of(frame));
+        appendAnswer(aiAnswer, frame);
+    }
 
-        emitter.onCompletion(() -> {
-            cancelUpstream.run();
-            releasePermit.run();
-        });
-        emitter.onTimeout(() -> {
-            cancelUpstream.run();
-            releasePermit.run();
-        });
-        emitter.onError(ex -> {
-            cancelUpstream.run();
-            releasePermit.run();
-        });
+    /**
+     * 转发单个上游事件到前端，并累积 AI 回答内容
+     */
+    private void relayEvent(LiveStream stream, String event, String data, AnswerAccumulator aiAnswer) {
+        // 记录 SSE 事件（调试用）
+        log.debug("SSE Event: type={}, data={}", event,
+                data.length() > 200 ? data.substring(0, 200) + "..." : data);
+
+        // 转发事件到前端
+        if (CHAT_CREATED_EVENT.equals(event)) {
+            bindGeneration(stream, data);
+        }
+        stream.publish(StreamEvent.of(event, data));
 
-        // 使用传入的 sessionId（与 Token 生命周期绑定），而非 request 中的 conversationId
-        final String finalSessionId = sessionId;
+        // 累积 AI 回答内容（只提取 conversation.message.delta 中 type=answer 的内容）
+        appendAnswer(aiAnswer, event, data);
+    }
 
-        try {
-            executor.execute(() -> {
-                HttpURLConnection connection = null;
-                LocalDateTime requestTime = LocalDateTime.now();
-                StringBuilder aiAnswerBuilder = new StringBuilder();
-                String userQuestion = request.getMessage();
-                Long chatLogId = null;
-                
-                try {
-                // ========== 步骤8: 先插入问题记录到数据库 (Insert Q) ==========
-                chatLogId = insertQuestionLog(userPhone, finalSessionId, userQuestion, requestTime);
-                
-                // 构建请求体
-                Map<String, Object> body = new HashMap<>();
-                body.put("workflow_id", cozeConfig.getWorkflowId());
-                body.put("app_id", cozeConfig.getAppId());
-
-                // 用户消息
-                Map<String, Object> message = new HashMap<>();
-                message.put("role", "user");
-                message.put("content", userQuestion);
-                message.put("content_type", "text");
-                body.put("additional_messages", new Object[] { message });
-
-                // 参数（包含 user_uuid - 这个不会暴露给前端）
-                Map<String, Object> params = new HashMap<>();
-                params.put("user_uuid", userPhone);
-                if (request.getParams() != null) {
-                    params.putAll(request.getParams());
-                }
-                body.put("parameters", params);
+    /**
+     * chat.created 携带本次生成的 chat id 与 conversation_id，登记后其他标签页即可挂载
+     */
+    private void bindGeneration(LiveStream stream, String data) {
+        if (!stream.isBuffered()) {
+            return;
+        }
+        streamRegistry.bindGeneration(stream,
+                DeltaJsonExtractor.stringField(data, "conversation_id"),
+                DeltaJsonExtractor.stringField(data, "id"));
+    }
 
-                // 如果有会话 ID
-                if (request.getConversationId() != null && !request.getConversationId().isEmpty()) {
-                    body.put("conversation_id", request.getConversationId());
-                }
+    /**
+     * 构建 /v1/workflows/chat 请求体
+     */
+    private String buildChatBody(ChatRequest request, String userPhone) {
+        Map<String, Object> body = new HashMap<>();
+        body.put("workflow_id", cozeConfig.getWorkflowId());
+        body.put("app_id", cozeConfig.getAppId());
+
+        // 用户消息
+        Map<String, Object> message = new HashMap<>();
+        message.put("role", "user");
+        message.put("content", request.getMessage());
+        message.put("content_type", "text");
+        body.put("additional_messages", new Object[] { message });
+
+        // 参数（包含 user_uuid - 这个不会暴露给前端）
+        Map<String, Object> params = new HashMap<>();
+        params.put("user_uuid", userPhone);
+        if (request.getParams() != null) {
+            params.putAll(request.getParams());
+            // 流控参数只在代理层使用，不透传给工作流
+            params.remove(PARAM_COALESCE_MS);
+        }
+        body.put("parameters", params);
 
-                String jsonBody = toJson(body);
-                log.debug("Coze request body: {}", jsonBody);
-
-                // ========== 步骤9: 发送请求到 Coze API ==========
-                URL url = new URL(cozeConfig.getApiBaseUrl() + "/v1/workflows/chat");
-                connection = (HttpURLConnection) url.openConnection();
-                connectionRef.set(connection);
-                applyTimeouts(connection);
-                connection.setRequestMethod("POST");
-                connection.setRequestProperty("Content-Type", "application/json");
-                connection.setRequestProperty("Authorization", "Bearer " + cozeToken);
-                connection.setRequestProperty("Accept", "text/event-stream");
-                connection.setDoOutput(true);
-                connection.setDoInput(true);
-
-                // 写入请求体
-                try (OutputStream os = connection.getOutputStream()) {
-                    os.write(jsonBody.getBytes(StandardCharsets.UTF_8));
-                }
+        // 如果有会话 ID
+        if (request.getConversationId() != null && !request.getConversationId().isEmpty()) {
+            body.put("conversation_id", request.getConversationId());
+        }
 
-                int responseCode = connection.getResponseCode();
-                if (responseCode != 200) {
-                    String errorMsg = "Coze API error: " + responseCode;
-                    log.error(errorMsg);
-                    safeSendError(emitter, responseCode, errorMsg);
-                    emitter.complete();
-                    return;
-                }
+        return toJson(body);
+    }
 
-                // ========== 步骤10-11: 读取 SSE 响应并转发 ==========
-                try (BufferedReader reader = new BufferedReader(
-                        new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
-                    String line;
-                    String currentEvent = "";
-
-                    while (!stopRequested.get() && (line = reader.readLine()) != null) {
-                        if (line.startsWith("event:")) {
-                            currentEvent = line.substring(6).trim();
-                        } else if (line.startsWith("data:") && !currentEvent.isEmpty()) {
-                            String data = line.substring(5).trim();
-                            
-                            // 记录 SSE 事件（调试用）
-                            log.debug("SSE Event: type={}, data={}", currentEvent, 
-                                    data.length() > 200 ? data.substring(0, 200) + "..." : data);
-                            
-                            // 转发事件到前端
-                            emitter.send(SseEmitter.event()
-                                    .name(currentEvent)
-                                    .data(data));
-                            
-                            // 累积 AI 回答内容（只提取 conversation.message.delta 中 type=answer 的内容）
-                            extractAndAppendContent(currentEvent, data, aiAnswerBuilder);
-                        }
-                    }
-                }
+    /**
+     * 向自适应限流上报上游响应：200 记录 TTFB，5xx/429 视为上游过载
+     */
+    private void recordResponse(int statusCode, long upstreamStart) {
+        if (statusCode == 200) {
+            adaptiveLimit.onFirstByte(System.nanoTime() - upstreamStart);
+        } else if (statusCode >= 500 || statusCode == 429) {
+            adaptiveLimit.onFailure(false);
+        }
+    }
 
-                // ========== 步骤13: 流结束后更新答案 (Update A) ==========
-                updateAnswerLog(chatLogId, aiAnswerBuilder.toString(), LocalDateTime.now());
+    /**
+     * /v1/workflows/chat 流式请求；timeout 仅约束到响应头到达为止，流式阶段的空闲超时由 watchdog 负责
+     */
+    private HttpRequest chatRequest(String jsonBody, String cozeToken) {
+        HttpRequest.Builder builder = cozeHttp.request("/v1/workflows/chat", cozeToken)
+                .header("Content-Type", "application/json")
+                .header("Accept", "text/event-stream")
+                .POST(HttpRequest.BodyPublishers.ofString(jsonBody, StandardCharsets.UTF_8));
+        if (cozeReadTimeoutMs > 0) {
+            builder.timeout(Duration.ofMillis(cozeReadTimeoutMs));
+        }
+        return builder.build();
+    }
 
-                emitter.complete();
+    /**
+     * 读空闲超时：超过 read-timeout 没有新数据时关闭输入流，打断阻塞中的读取（未配置时返回 null）
+     */
+    private ScheduledFuture<?> watchIdle(CozeHttpClient.StreamBody body, AtomicBoolean timedOut) {
+        if (cozeReadTimeoutMs <= 0) {
+            return null;
+        }
+        long period = Math.min(1000L, cozeReadTimeoutMs);
+        return sseScheduler.scheduleWithFixedDelay(() -> {
+            if (body.idleMillis() >= cozeReadTimeoutMs && timedOut.compareAndSet(false, true)) {
+                closeQuietly(body);
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
 
-            } catch (java.net.SocketTimeoutException e) {
-                if (!stopRequested.get()) {
-                    log.warn("Coze SSE read timeout ({}ms) for user {}...",
-                            cozeReadTimeoutMs, userPhone.substring(0, Math.min(4, userPhone.length())));
-                    safeSendError(emitter, 504, "上游流式响应超时（60秒无数据），请重试");
-                    emitter.complete();
-                }
-            } catch (Exception e) {
-                if (!stopRequested.get()) {
-                    log.error("Error proxying to Coze API", e);
-                    safeSendError(emitter, 500, e.getMessage() != null ? e.getMessage() : "Internal error");
-                    emitter.complete();
-                }
-            } finally {
-                connectionRef.set(null);
-                if (connection != null) {
-                    connection.disconnect();
-                }
-                releasePermit.run();
+    private static void closeQuietly(InputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException ignore) {
             }
-            });
-        } catch (RejectedExecutionException e) {
-            cancelUpstream.run();
-            releasePermit.run();
-            safeSendError(emitter, 429, "系统繁忙，请稍后重试");
-            emitter.complete();
         }
-
-        return emitter;
     }
 
-    private void applyTimeouts(HttpURLConnection connection) {
-        if (cozeConnectTimeoutMs > 0) {
-            connection.setConnectTimeout(cozeConnectTimeoutMs);
+    /**
+     * 创建流的下游输出：默认直接写 emitter；启用合并窗口时叠加 DeltaCoalescer
+     * 合并窗口可由请求参数 sse_coalesce_ms 协商（不超过 chat.sse.coalesce-max-window-ms，0 表示关闭）
+     */
+    private SseEventSink createSink(SseEmitter emitter, Map<String, Object> params) {
+        SseEventSink sink = new EmitterSseSink(emitter);
+        long window = coalesceWindowMs;
+        Object requested = params != null ? params.get(PARAM_COALESCE_MS) : null;
+        if (requested != null) {
+            try {
+                long value = requested instanceof Number n ? n.longValue() : Long.parseLong(requested.toString().trim());
+                window = Math.max(0, Math.min(value, coalesceMaxWindowMs));
+            } catch (NumberFormatException e) {
+                log.debug("Ignoring invalid {}: {}", PARAM_COALESCE_MS, requested);
+            }
         }
-        if (cozeReadTimeoutMs > 0) {
-            connection.setReadTimeout(cozeReadTimeoutMs);
+        if (window <= 0) {
+            return sink;
         }
+        return new DeltaCoalescer(sink, window, coalesceMaxChars, sseScheduler);
+    }
+
+    /**
+     * 以 error 事件结束流（经由 LiveStream 发布，续传的客户端同样能收到）
+     */
+    private void failStream(LiveStream stream, int code, String msg) {
+        stream.publish(StreamEvent.of("error", errorJson(code, msg)));
+        stream.complete();
     }
 
     private void safeSendError(SseEmitter emitter, int code, String msg) {
         try {
-            Map<String, Object> err = new HashMap<>();
-            err.put("code", code);
-            err.put("msg", msg);
-            emitter.send(SseEmitter.event().name("error").data(toJson(err)));
+            emitter.send(SseEmitter.event().name("error").data(errorJson(code, msg)));
         } catch (IOException ignore) {
         }
     }
 
+    private String errorJson(int code, String msg) {
+        Map<String, Object> err = new HashMap<>();
+        err.put("code", code);
+        err.put("msg", msg);
+        return toJson(err);
+    }
+
     /**
-     * 代理 TTS 请求到 Coze API
+     * 代理 TTS 请求到 Coze API（流式）
+     *
+     * 收到上游 200 响应头后返回写出回调：音频分片经池化读缓冲边读边写给客户端（分块传输），
+     * 不在堆上保留整段 MP3，客户端在合成结束前即可开始播放。非 200 在写出前抛出 IOException，
+     * 调用方仍可返回错误状态码。客户端断开（写失败）或上游超过 read-timeout 无数据时关闭上游响应体，取消传输。
+     * 上游响应体在返回前已打开，调用方须在异步写出结束（含超时、未执行）时调用 close 释放连接。
      */
-    public byte[] textToSpeech(String text, String cozeToken) throws IOException {
+    public TtsAudio textToSpeech(String text, String cozeToken) throws IOException {
+        String cacheKey = ttsCache.keyFor(text, cozeConfig.getVoiceId(), TTS_FORMAT);
+        if (cacheKey != null) {
+            TtsAudioCache.Audio cached = ttsCache.get(cacheKey);
+            if (cached != null) {
+                return new TtsAudio(out -> writeCachedAudio(cached, out), null);
+            }
+        }
+
         Map<String, Object> body = new HashMap<>();
         body.put("input", text);
         body.put("voice_id", cozeConfig.getVoiceId());
-        body.put("response_format", "mp3");
+        body.put("response_format", TTS_FORMAT);
 
         String jsonBody = toJson(body);
 
-        URL url = new URL(cozeConfig.getApiBaseUrl() + "/v1/audio/speech");
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        applyTimeouts(connection);
-        connection.setRequestMethod("POST");
-        connection.setRequestProperty("Content-Type", "application/json");
-        connection.setRequestProperty("Authorization", "Bearer " + cozeToken);
-        connection.setDoOutput(true);
+        HttpRequest request = cozeHttp.request("/v1/audio/speech", cozeToken)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(jsonBody, StandardCharsets.UTF_8))
+                .build();
+        HttpResponse<CozeHttpClient.StreamBody> response = cozeHttp.openStream("tts", request);
+        CozeHttpClient.StreamBody audio = response.body();
 
-        try (OutputStream os = connection.getOutputStream()) {
-            os.write(jsonBody.getBytes(StandardCharsets.UTF_8));
-        }
-
-        int responseCode = connection.getResponseCode();
+        int responseCode = response.statusCode();
         if (responseCode != 200) {
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getErrorStream()))) {
-                StringBuilder errorResponse = new StringBuilder();
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    errorResponse.append(line);
-                }
-                log.error("Coze TTS error: {} - {}", responseCode, errorResponse.toString());
+            String error;
+            try (audio) {
+                error = new String(audio.readNBytes(ERROR_BODY_LIMIT), StandardCharsets.UTF_8);
             }
+            log.error("Coze TTS error: {} - {}", responseCode, error);
             throw new IOException("Failed to generate speech: " + responseCode);
         }
+        return new TtsAudio(out -> relayAudio(audio, out, cacheKey != null ? ttsCache.writer(cacheKey) : null), audio);
+    }
+
+    /**
+     * TTS 写出回调；upstream 为已打开的上游响应体（缓存命中时为 null）。
+     * writeTo 结束时自行关闭上游；close 可重复调用，用于异步写出未执行或超时时释放池化连接
+     */
+    public static final class TtsAudio implements StreamingResponseBody, Closeable {
+
+        private final StreamingResponseBody body;
+        private final InputStream upstream;
+
+        TtsAudio(StreamingResponseBody body, InputStream upstream) {
+            this.body = body;
+            this.upstream = upstream;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            body.writeTo(out);
+        }
+
+        @Override
+        public void close() {
+            closeQuietly(upstream);
+        }
+    }
+
+    /**
+     * 将缓存命中的音频经池化缓冲分块写给客户端
+     */
+    private void writeCachedAudio(TtsAudioCache.Audio audio, OutputStream out) throws IOException {
+        byte[] buffer = readBufferPool.acquire();
+        try {
+            audio.writeTo(out, buffer);
+        } finally {
+            readBufferPool.release(buffer);
+        }
+    }
 
-        try (java.io.InputStream is = connection.getInputStream();
-                java.io.ByteArrayOutputStream bos = new java.io.ByteArrayOutputStream()) {
-            byte[] buffer = new byte[8192];
-            int len;
-            while ((len = is.read(buffer)) != -1) {
-                bos.write(buffer, 0, len);
+    /**
+     * 将上游音频逐块写给客户端，每块立即 flush；任一侧结束或出错都会关闭上游响应体。
+     * recorder 非空时同时落盘，仅在上游正常结束时提交到 TTS 缓存
+     */
+    private void relayAudio(CozeHttpClient.StreamBody audio, OutputStream out,
+                            TtsAudioCache.AudioWriter recorder) throws IOException {
+        AtomicBoolean timedOut = new AtomicBoolean(false);
+        ScheduledFuture<?> watchdog = watchIdle(audio, timedOut);
+        byte[] buffer = readBufferPool.acquire();
+        try {
+            int n;
+            while ((n = audio.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+                out.flush();
+                if (recorder != null) {
+                    recorder.write(buffer, 0, n);
+                }
+            }
+            if (recorder != null) {
+                recorder.commit();
             }
-            return bos.toByteArray();
+        } catch (IOException e) {
+            if (timedOut.get()) {
+                log.warn("Coze TTS read timeout ({}ms), audio truncated", cozeReadTimeoutMs);
+                throw new HttpTimeoutException("Coze TTS stream idle for " + cozeReadTimeoutMs + "ms");
+            }
+            log.debug("TTS relay aborted: {}", e.getMessage());
+            throw e;
         } finally {
-            connection.disconnect();
+            if (watchdog != null) {
+                watchdog.cancel(false);
+            }
+            readBufferPool.release(buffer);
+            closeQuietly(audio);
+            if (recorder != null) {
+                recorder.close();
+            }
         }
     }
 
@@ -348,150 +1365,227 @@ public class CozeProxyService {
      * 代理 ASR 请求到 Coze API
      */
     public String speechToText(org.springframework.web.multipart.MultipartFile file, String cozeToken) throws IOException {
-        String boundary = "---boundary" + System.currentTimeMillis();
-        String LINE_FEED = "\r\n";
+        // File data 直接从上传文件流式读取
+        HttpRequest.BodyPublisher data = HttpRequest.BodyPublishers.ofInputStream(() -> {
+            try {
+                return file.getInputStream();
+            } catch (IOException e) {
+                throw new java.io.UncheckedIOException(e);
+            }
+        });
+        return transcribe(file.getOriginalFilename(), file.getContentType(), data, file.getSize(), cozeToken);
+    }
 
-        URL url = new URL(cozeConfig.getApiBaseUrl() + "/v1/audio/transcriptions");
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        applyTimeouts(connection);
-        connection.setRequestMethod("POST");
-        connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
-        connection.setRequestProperty("Authorization", "Bearer " + cozeToken);
-        connection.setDoOutput(true);
-
-        try (OutputStream outputStream = connection.getOutputStream();
-                java.io.PrintWriter writer = new java.io.PrintWriter(
-                        new java.io.OutputStreamWriter(outputStream, StandardCharsets.UTF_8), true)) {
-
-            // File part
-            writer.append("--" + boundary).append(LINE_FEED);
-            writer.append(
-                    "Content-Disposition: form-data; name=\"file\"; filename=\"" + file.getOriginalFilename() + "\"")
-                    .append(LINE_FEED);
-            writer.append("Content-Type: " + (file.getContentType() != null ? file.getContentType() : "audio/wav"))
-                    .append(LINE_FEED);
-            writer.append(LINE_FEED);
-            writer.flush();
-
-            // File data
-            try (java.io.InputStream inputStream = file.getInputStream()) {
-                byte[] buffer = new byte[4096];
-                int bytesRead;
-                while ((bytesRead = inputStream.read(buffer)) != -1) {
-                    outputStream.write(buffer, 0, bytesRead);
-                }
-                outputStream.flush();
+    /**
+     * 流式 ASR：客户端以原始音频作为请求体上传，边接收边作为 multipart 的 file 部分转发给 Coze，
+     * 本服务不解析 multipart、不落盘也不整段缓冲，上游在上传结束前即可开始接收。
+     * 声明长度超限时在连接上游前拒绝；未声明长度时按实际读取字节数限制，超限即中止上游请求。
+     * 客户端中途断开时读取失败，同样中止上游请求。
+     *
+     * @param contentLength 请求体长度，未知时为 -1
+     * @throws UploadTooLargeException 超过 chat.asr.max-upload-mb
+     */
+    public String speechToText(InputStream audio, long contentLength, String filename, String contentType,
+                               String cozeToken) throws IOException {
+        long maxBytes = asrMaxUploadMb * 1024 * 1024;
+        if (contentLength > maxBytes) {
+            throw new UploadTooLargeException(maxBytes);
+        }
+        LimitedInputStream limited = new LimitedInputStream(audio, maxBytes);
+        try {
+            return transcribe(filename, contentType, HttpRequest.BodyPublishers.ofInputStream(() -> limited),
+                    contentLength, cozeToken);
+        } catch (IOException e) {
+            if (limited.exceeded()) {
+                throw new UploadTooLargeException(maxBytes);
             }
+            throw e;
+        }
+    }
+
+    /**
+     * 以 multipart/form-data 发送音频；dataLength 已知时声明总长度，否则按流式（HTTP/1.1 chunked）发送
+     */
+    private String transcribe(String filename, String contentType, HttpRequest.BodyPublisher data,
+                              long dataLength, String cozeToken) throws IOException {
+        String boundary = "---boundary" + System.currentTimeMillis();
+        String LINE_FEED = "\r\n";
 
-            writer.append(LINE_FEED);
-            writer.append("--" + boundary + "--").append(LINE_FEED);
-            writer.flush();
+        // File part
+        String head = "--" + boundary + LINE_FEED
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"" + filename + "\""
+                + LINE_FEED
+                + "Content-Type: " + (contentType != null ? contentType : "audio/wav")
+                + LINE_FEED
+                + LINE_FEED;
+        String tail = LINE_FEED + "--" + boundary + "--" + LINE_FEED;
+
+        HttpRequest.BodyPublisher multipart = HttpRequest.BodyPublishers.concat(
+                HttpRequest.BodyPublishers.ofString(head, StandardCharsets.UTF_8),
+                data,
+                HttpRequest.BodyPublishers.ofString(tail, StandardCharsets.UTF_8));
+        if (dataLength >= 0) {
+            long total = head.getBytes(StandardCharsets.UTF_8).length + dataLength
+                    + tail.getBytes(StandardCharsets.UTF_8).length;
+            multipart = HttpRequest.BodyPublishers.fromPublisher(multipart, total);
         }
 
-        int responseCode = connection.getResponseCode();
+        HttpRequest request = cozeHttp.request("/v1/audio/transcriptions", cozeToken)
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(multipart)
+                .build();
+        HttpResponse<String> response = cozeHttp.send("asr", request,
+                HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+
+        int responseCode = response.statusCode();
         if (responseCode != 200) {
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getErrorStream()))) {
-                StringBuilder errorResponse = new StringBuilder();
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    errorResponse.append(line);
-                }
-                log.error("Coze ASR error: {} - {}", responseCode, errorResponse.toString());
-            }
+            log.error("Coze ASR error: {} - {}", responseCode, response.body());
             throw new IOException("Failed to transcribe audio: " + responseCode);
         }
+        return response.body();
+    }
+
+    /**
+     * 按已读字节数限制上传大小，超限时读取失败并记录，便于调用方区分超限与其它 I/O 错误
+     */
+    private static final class LimitedInputStream extends java.io.FilterInputStream {
+
+        private final long maxBytes;
+        private long count;
+        private volatile boolean exceeded;
+
+        LimitedInputStream(InputStream in, long maxBytes) {
+            super(in);
+            this.maxBytes = maxBytes;
+        }
+
+        boolean exceeded() {
+            return exceeded;
+        }
 
-        try (BufferedReader reader = new BufferedReader(
-                new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
-            StringBuilder response = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                response.append(line);
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        private void count(int n) throws IOException {
+            count += n;
+            if (count > maxBytes) {
+                exceeded = true;
+                throw new UploadTooLargeException(maxBytes);
             }
-            return response.toString();
-        } finally {
-            connection.disconnect();
         }
     }
 
     /**
      * 创建新会话
+     * 启用会话池时优先取出为该用户预创建的会话，并在后台补齐
+     */
+    public String createConversation(String userPhone, String cozeToken) throws IOException {
+        if (!conversationPool.isEnabled()) {
+            return requestConversation(cozeToken);
+        }
+        String scope = conversationScope(userPhone);
+        String pooled = conversationPool.take(scope);
+        conversationPool.refill(scope, () -> pooledConversation(cozeToken));
+        return pooled != null ? pooled : requestConversation(cozeToken);
+    }
+
+    /**
+     * 为用户预热会话池（会话令牌签发后调用），池未启用时无操作。
+     * cozeToken 在后台补齐线程上才取得，不增加签发请求的耗时
+     */
+    public void warmConversations(String userPhone, java.util.function.Supplier<String> cozeToken) {
+        if (conversationPool.isEnabled()) {
+            conversationPool.refill(conversationScope(userPhone), () -> {
+                String token = cozeToken.get();
+                return token == null || token.isEmpty() ? null : pooledConversation(token);
+            });
+        }
+    }
+
+    private String conversationScope(String userPhone) {
+        return cozeConfig.getBotId() + ':' + userPhone;
+    }
+
+    /**
+     * 补齐会话池：Coze 以 HTTP 200 返回的业务错误不入池
      */
-    public String createConversation(String cozeToken) throws IOException {
+    private String pooledConversation(String cozeToken) throws IOException {
+        String body = requestConversation(cozeToken);
+        if (!CozeHttpClient.isSuccess(body)) {
+            log.warn("Coze conversation create returned an error, not pooled: {}",
+                    body.substring(0, Math.min(200, body.length())));
+            return null;
+        }
+        return body;
+    }
+
+    private String requestConversation(String cozeToken) throws IOException {
         Map<String, Object> body = new HashMap<>();
         body.put("bot_id", cozeConfig.getBotId());
 
         String jsonBody = toJson(body);
 
-        URL url = new URL(cozeConfig.getApiBaseUrl() + "/v1/conversation/create");
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        applyTimeouts(connection);
-        connection.setRequestMethod("POST");
-        connection.setRequestProperty("Content-Type", "application/json");
-        connection.setRequestProperty("Authorization", "Bearer " + cozeToken);
-        connection.setDoOutput(true);
-
-        try (OutputStream os = connection.getOutputStream()) {
-            os.write(jsonBody.getBytes(StandardCharsets.UTF_8));
-        }
+        HttpRequest request = cozeHttp.request("/v1/conversation/create", cozeToken)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(jsonBody, StandardCharsets.UTF_8))
+                .build();
+        HttpResponse<String> response = cozeHttp.send("conversation_create", request,
+                HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
 
-        int responseCode = connection.getResponseCode();
+        int responseCode = response.statusCode();
         if (responseCode != 200) {
             throw new IOException("Failed to create conversation: " + responseCode);
         }
-
-        try (BufferedReader reader = new BufferedReader(
-                new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
-            StringBuilder response = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                response.append(line);
-            }
-            return response.toString();
-        } finally {
-            connection.disconnect();
-        }
+        return response.body();
     }
 
     /**
      * 获取消息历史
+     * 启用历史缓存时先查缓存；条目归属 userPhone，发送消息时失效
      */
-    public String getMessageHistory(String conversationId, String cozeToken) throws IOException {
+    public String getMessageHistory(String conversationId, String userPhone, String cozeToken) throws IOException {
+        String cached = historyCache.get(conversationId, userPhone);
+        if (cached != null) {
+            return cached;
+        }
+        long since = historyCache.epoch();
+        String version = historyCache.version(conversationId);
+
         Map<String, Object> body = new HashMap<>();
         body.put("order", "asc");
         body.put("limit", 50);
 
         String jsonBody = toJson(body);
 
-        URL url = new URL(
-                cozeConfig.getApiBaseUrl() + "/v1/conversation/message/list?conversation_id=" + conversationId);
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        applyTimeouts(connection);
-        connection.setRequestMethod("POST");
-        connection.setRequestProperty("Content-Type", "application/json");
-        connection.setRequestProperty("Authorization", "Bearer " + cozeToken);
-        connection.setDoOutput(true);
-
-        try (OutputStream os = connection.getOutputStream()) {
-            os.write(jsonBody.getBytes(StandardCharsets.UTF_8));
-        }
+        HttpRequest request = cozeHttp.request(
+                        "/v1/conversation/message/list?conversation_id=" + conversationId, cozeToken)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(jsonBody, StandardCharsets.UTF_8))
+                .build();
+        HttpResponse<String> response = cozeHttp.send("message_list", request,
+                HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
 
-        int responseCode = connection.getResponseCode();
+        int responseCode = response.statusCode();
         if (responseCode != 200) {
             throw new IOException("Failed to get message history: " + responseCode);
         }
-
-        try (BufferedReader reader = new BufferedReader(
-                new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
-            StringBuilder response = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                response.append(line);
-            }
-            return response.toString();
-        } finally {
-            connection.disconnect();
-        }
+        historyCache.put(conversationId, userPhone, response.body(), since, version);
+        return response.body();
     }
 
     /**
@@ -510,35 +1604,18 @@ public class CozeProxyService {
         body.put("chat_id", chatId);
         String jsonBody = toJson(body);
 
-        URL url = new URL(cozeConfig.getApiBaseUrl() + "/v3/chat/cancel");
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        applyTimeouts(connection);
-        connection.setRequestMethod("POST");
-        connection.setRequestProperty("Content-Type", "application/json");
-        connection.setRequestProperty("Authorization", "Bearer " + cozeToken);
-        connection.setDoOutput(true);
-
-        try (OutputStream os = connection.getOutputStream()) {
-            os.write(jsonBody.getBytes(StandardCharsets.UTF_8));
-        }
-
-        int responseCode = connection.getResponseCode();
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
-                responseCode >= 200 && responseCode < 400 ? connection.getInputStream() : connection.getErrorStream(),
-                StandardCharsets.UTF_8))) {
-            StringBuilder response = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                response.append(line);
-            }
+        HttpRequest request = cozeHttp.request("/v3/chat/cancel", cozeToken)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(jsonBody, StandardCharsets.UTF_8))
+                .build();
+        HttpResponse<String> response = cozeHttp.send("chat_cancel", request,
+                HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
 
-            if (responseCode != 200) {
-                throw new IOException("Failed to cancel chat: " + responseCode + " - " + response);
-            }
-            return response.toString();
-        } finally {
-            connection.disconnect();
+        int responseCode = response.statusCode();
+        if (responseCode != 200) {
+            throw new IOException("Failed to cancel chat: " + responseCode + " - " + response.body());
         }
+        return response.body();
     }
 
     /**
@@ -592,105 +1669,87 @@ public class CozeProxyService {
     }
 
     /**
-     * 从 SSE 事件数据中提取 AI 回答内容并累积
-     * 
-     * Coze Workflow API 流式响应事件类型：
-     * - conversation.chat.created: 会话创建
-     * - conversation.chat.in_progress: 处理中
-     * - conversation.message.delta: 增量消息内容（流式输出）
-     * - conversation.message.completed: 消息完成
-     * - conversation.chat.completed: 会话完成
-     * - done: 结束
-     * 
-     * 只提取 type="answer" 的消息内容，忽略 type="verbose" 的调试信息
+     * 为一个流创建回答累积器；需要写入回答缓存时同时记录分片边界
      */
-    private void extractAndAppendContent(String eventType, String data, StringBuilder builder) {
-        try {
-            // 只处理增量消息事件
-            if (!"conversation.message.delta".equals(eventType)) {
-                return;
-            }
-            
-            // 检查是否是 answer 类型（忽略 verbose 类型的调试信息）
-            String type = extractJsonField(data, "type");
-            if (!"answer".equals(type)) {
-                return;
-            }
-            
-            // 提取 content 字段
-            String content = extractJsonField(data, "content");
-            if (content != null && !content.isEmpty()) {
-                builder.append(content);
-                log.debug("Extracted answer content: {}", content);
-            }
-        } catch (Exception e) {
-            log.debug("Failed to extract content from SSE data: {}", e.getMessage());
+    private static AnswerAccumulator newAccumulator(CacheContext cache) {
+        AnswerAccumulator accumulator = new AnswerAccumulator();
+        if (cache != null) {
+            accumulator.recordChunks();
         }
+        return accumulator;
     }
 
     /**
-     * 从 JSON 字符串中提取指定字段的值
+     * 只缓存完整成功的回答：上游未返回 failed/error，且客户端未中途取消。
+     * 同时登记到近似问题索引，并校验 shadow 模式下本可命中的候选回答
      */
-    private String extractJsonField(String json, String fieldName) {
-        String searchKey = "\"" + fieldName + "\":";
-        int fieldStart = json.indexOf(searchKey);
-        if (fieldStart == -1) {
-            return null;
+    private void cacheAnswer(CacheContext cache, AnswerAccumulator aiAnswer) {
+        if (cache == null || aiAnswer.failed() || aiAnswer.length() == 0) {
+            return;
         }
-        
-        int valueStart = fieldStart + searchKey.length();
-        // 跳过空格
-        while (valueStart < json.length() && json.charAt(valueStart) == ' ') {
-            valueStart++;
+        AnswerCache.CachedAnswer answer = new AnswerCache.CachedAnswer(aiAnswer.chunks());
+        answerCache.put(cache.key(), answer.chunks());
+        similarIndex.add(cache.scope(), cache.question(), answer);
+        if (cache.shadowMatch() != null) {
+            similarIndex.verifyShadow(cache.shadowMatch(), answer.answer());
         }
-        
-        if (valueStart >= json.length()) {
-            return null;
+    }
+
+    /**
+     * 单飞 leader 结束：先注销（之后的相同请求不再挂载），再为已挂载的 follower 批量回填同一答案。
+     * 失败或取消的流由关闭回调注销，follower 记录与 leader 一样不回填
+     */
+    private void completeFlight(LiveStream stream, AnswerAccumulator aiAnswer) {
+        String answer = aiAnswer.toString();
+        List<Long> recordIds = singleFlight.complete(stream, answer);
+        if (recordIds.isEmpty()) {
+            return;
         }
-        
-        char firstChar = json.charAt(valueStart);
-        if (firstChar == '"') {
-            // 字符串值
-            int valueEnd = findClosingQuote(json, valueStart + 1);
-            if (valueEnd != -1) {
-                String value = json.substring(valueStart + 1, valueEnd);
-                // 反转义
-                return value.replace("\\n", "\n")
-                           .replace("\\r", "\r")
-                           .replace("\\t", "\t")
-                           .replace("\\\"", "\"")
-                           .replace("\\\\", "\\");
-            }
-        } else if (firstChar == '{' || firstChar == '[') {
-            // 对象或数组，暂不处理
-            return null;
-        } else {
-            // 数字、布尔等
-            int valueEnd = valueStart;
-            while (valueEnd < json.length() && 
-                   json.charAt(valueEnd) != ',' && 
-                   json.charAt(valueEnd) != '}' &&
-                   json.charAt(valueEnd) != ']') {
-                valueEnd++;
-            }
-            return json.substring(valueStart, valueEnd).trim();
+        try {
+            chatLogService.updateAnswers(recordIds, answer, LocalDateTime.now());
+        } catch (Exception e) {
+            log.error("Failed to update {} coalesced answer logs", recordIds.size(), e);
         }
-        return null;
     }
 
     /**
-     * 查找 JSON 字符串中的闭合引号位置（处理转义）
+     * 可缓存请求的缓存上下文：精确键、相似匹配 scope、原始问题，以及 shadow 模式下本可命中的候选
      */
-    private int findClosingQuote(String s, int start) {
-        for (int i = start; i < s.length(); i++) {
-            char c = s.charAt(i);
-            if (c == '\\' && i + 1 < s.length()) {
-                i++; // 跳过转义字符
-            } else if (c == '"') {
-                return i;
-            }
+    private record CacheContext(String key, String scope, String question, SimilarAnswerIndex.Match shadowMatch) {
+    }
+
+    private void appendAnswer(AnswerAccumulator answer, String eventType, String data) {
+        if (answer.append(eventType, data) < 0) {
+            log.debug("Failed to extract content from SSE data: incomplete JSON");
+        }
+    }
+
+    private void appendAnswer(AnswerAccumulator answer, SseFrame frame) {
+        if (answer.append(frame) < 0) {
+            log.debug("Failed to extract content from SSE frame: incomplete JSON");
+        }
+    }
+
+    /**
+     * 不经过 Coze 直接作答（如缓存命中）时一次写入问题与答案，answerSource 标记答案来源
+     */
+    private void insertServedLog(String userPhone, String sessionId, String userQuestion, String aiAnswer,
+                                 String answerSource, LocalDateTime time) {
+        try {
+            ChatLog chatLog = new ChatLog();
+            chatLog.setUserId(userPhone);
+            chatLog.setSessionId(sessionId);
+            chatLog.setUserQuestion(userQuestion);
+            chatLog.setAiAnswer(aiAnswer);
+            chatLog.setAnswerSource(answerSource);
+            chatLog.setRequestTime(time);
+            chatLog.setResponseTime(time);
+            chatLog.setDeleted(0);
+
+            chatLogService.insert(chatLog);
+        } catch (Exception e) {
+            log.error("Failed to insert {} answer log for user: {}", answerSource, userPhone, e);
         }
-        return -1;
     }
 
     /**
@@ -701,12 +1760,21 @@ public class CozeProxyService {
      */
     private Long insertQuestionLog(String userPhone, String sessionId, String userQuestion, 
                                    LocalDateTime requestTime) {
+        return insertQuestionLog(userPhone, sessionId, userQuestion, requestTime, null);
+    }
+
+    /**
+     * @param answerSource 答案来源标记，直接调用上游时为 null
+     */
+    private Long insertQuestionLog(String userPhone, String sessionId, String userQuestion,
+                                   LocalDateTime requestTime, String answerSource) {
         try {
             ChatLog chatLog = new ChatLog();
             chatLog.setUserId(userPhone);
             chatLog.setSessionId(sessionId);
             chatLog.setUserQuestion(userQuestion);
             chatLog.setAiAnswer(null); // 答案稍后更新
+            chatLog.setAnswerSource(answerSource);
             chatLog.setRequestTime(requestTime);
             chatLog.setResponseTime(null); // 响应时间稍后更新
             chatLog.setDeleted(0);
@@ -1,7 +1,12 @@
 package com.volcano.chat.service;
 
+import com.volcano.chat.dto.SessionCreateResult;
 import com.volcano.chat.dto.UserTokenInfo;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
 /**
  * 用户 Token 信息管理服务
  * 使用 JWT Token 作为 Key，存储手机号和 Coze Token
@@ -16,6 +21,15 @@ public interface UserTokenService {
      */
     String createUserToken(String phone);
 
+    /**
+     * 批量创建用户 Token 信息
+     * 
+     * @param phones   用户手机号列表（重复的只创建一次）
+     * @param onResult 每个手机号的结果，完成一批即回调一批（串行调用，可能来自不同线程）
+     * @return 全部结果回调完成后完成；onResult 抛出异常时以该异常完成，剩余手机号不再处理
+     */
+    CompletableFuture<Void> createUserTokens(List<String> phones, Consumer<SessionCreateResult> onResult);
+
     /**
      * 根据 JWT Token 获取用户信息
      * 
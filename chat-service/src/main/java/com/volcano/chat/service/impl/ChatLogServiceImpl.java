@@ -1,5 +1,6 @@
 package com.volcano.chat.service.impl;
 
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
 import com.volcano.chat.entity.ChatLog;
 import com.volcano.chat.mapper.ChatLogMapper;
 import com.volcano.chat.service.ChatLogService;
@@ -51,6 +52,17 @@ public class ChatLogServiceImpl implements ChatLogService {
         return rows > 0;
     }
 
+    @Override
+    public int updateAnswers(List<Long> recordIds, String aiAnswer, LocalDateTime responseTime) {
+        if (recordIds.isEmpty()) {
+            return 0;
+        }
+        ChatLog chatLog = new ChatLog();
+        chatLog.setAiAnswer(aiAnswer);
+        chatLog.setResponseTime(responseTime);
+        return chatLogMapper.update(chatLog, Wrappers.<ChatLog>lambdaUpdate().in(ChatLog::getRecordId, recordIds));
+    }
+
     @Override
     public boolean deleteById(Long recordId) {
         int rows = chatLogMapper.deleteByRecordId(recordId);
@@ -0,0 +1,347 @@
+package com.volcano.chat.service.impl;
+
+import com.volcano.chat.cache.UserTokenCache;
+import com.volcano.chat.coze.CozeAccessTokenProvider;
+import com.volcano.chat.dto.CozeTokenResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 会话 Coze Token 后台续期
+ *
+ * 会话（user:token:{jwt}）中的 Coze Token 有自己的过期时间（cozeExpiresAt），可能早于会话本身过期，
+ * 创建会话时获取失败则为空串。每个会话登记在 Redis ZSET（user:token:refresh）中，score 为下次续期时间：
+ * - 获取成功：Token 过期前 lead-seconds 再减去 [0, jitter-seconds) 的随机量，避免同一批会话同时续期
+ * - 获取失败或 Token 为空：retry-seconds（加抖动）后重试
+ *
+ * 各节点每 poll-interval-ms 用 Lua 脚本原子认领到期成员（score 推后 lease-seconds 作为租约，
+ * 节点在续期中途退出时由其它节点在租约到期后接手），在 concurrency 个线程内续期，
+ * 认领数不超过空闲名额。续期结果仅在会话仍存在时写回，会话已过期或 Token 有效期已覆盖会话剩余时间时
+ * 不再续期。Token 获取因此不出现在请求路径上。写回后通知各节点的 UserTokenCache 失效。
+ *
+ * 指标：chat.coze.token.refresh{outcome=success|failure|skipped}、chat.coze.token.refresh.lag（实际续期时间
+ * 晚于计划时间的量）、chat.coze.token.refresh.in_flight。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CozeTokenRefresher {
+
+    static final String SCHEDULE_KEY = "user:token:refresh";
+
+    /**
+     * 取出 score 不晚于 ARGV[1] 的最多 ARGV[2] 个成员（带 score），并把它们的 score 改为租约到期时间 ARGV[3]
+     */
+    private static final DefaultRedisScript<List<Object>> CLAIM_SCRIPT = new DefaultRedisScript<>(
+            "local due = redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', ARGV[1], 'WITHSCORES', 'LIMIT', 0, tonumber(ARGV[2]))\n"
+                    + "for i = 1, #due, 2 do redis.call('ZADD', KEYS[1], ARGV[3], due[i]) end\n"
+                    + "return due", RedisUserTokenService.listResult());
+
+    /**
+     * 会话仍存在时写入新 Token；不存在时返回 0，避免写出一个没有过期时间的 Hash
+     */
+    private static final DefaultRedisScript<Long> UPDATE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[1]) == 0 then return 0 end\n"
+                    + "redis.call('HSET', KEYS[1], ARGV[1], ARGV[2], ARGV[3], ARGV[4])\n"
+                    + "return 1", Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final CozeAccessTokenProvider cozeAccessTokenProvider;
+    private final UserTokenCache userTokenCache;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${chat.coze.token-refresh.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * 在 Token 过期前多久续期
+     */
+    @Value("${chat.coze.token-refresh.lead-seconds:300}")
+    private long leadSeconds;
+
+    @Value("${chat.coze.token-refresh.jitter-seconds:60}")
+    private long jitterSeconds;
+
+    /**
+     * 获取失败（含创建会话时失败）后的重试间隔
+     */
+    @Value("${chat.coze.token-refresh.retry-seconds:15}")
+    private long retrySeconds;
+
+    @Value("${chat.coze.token-refresh.poll-interval-ms:1000}")
+    private long pollIntervalMs;
+
+    /**
+     * 同时进行的续期数（每个节点）
+     */
+    @Value("${chat.coze.token-refresh.concurrency:4}")
+    private int concurrency;
+
+    @Value("${chat.coze.token-refresh.lease-seconds:60}")
+    private long leaseSeconds;
+
+    private ScheduledExecutorService poller;
+    private ExecutorService workers;
+    private Semaphore permits;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile boolean pollFailing;
+
+    private Counter succeeded;
+    private Counter failed;
+    private Counter skipped;
+    private Timer lag;
+
+    @PostConstruct
+    public void init() {
+        succeeded = counter("success");
+        failed = counter("failure");
+        skipped = counter("skipped");
+        lag = Timer.builder("chat.coze.token.refresh.lag")
+                .description("Delay between the planned and the actual Coze token refresh").register(meterRegistry);
+        Gauge.builder("chat.coze.token.refresh.in_flight", inFlight, AtomicInteger::get)
+                .description("Coze token refreshes running on this node").register(meterRegistry);
+        if (!enabled) {
+            return;
+        }
+        int threads = Math.max(1, concurrency);
+        permits = new Semaphore(threads);
+        AtomicInteger threadSeq = new AtomicInteger(1);
+        workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setName("coze-token-refresh-" + threadSeq.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setName("coze-token-refresh-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long delay = Math.max(100L, pollIntervalMs);
+        poller.scheduleWithFixedDelay(this::poll, delay, delay, TimeUnit.MILLISECONDS);
+        log.info("Coze token refresher enabled - lead: {}s, jitter: {}s, retry: {}s, concurrency: {}",
+                leadSeconds, jitterSeconds, retrySeconds, threads);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (poller != null) {
+            poller.shutdownNow();
+        }
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+    }
+
+    private Counter counter(String outcome) {
+        return Counter.builder("chat.coze.token.refresh").tag("outcome", outcome).register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 登记会话：cozeExpiresAt 为会话中 Coze Token 的过期时间（毫秒），Token 为空时传 0 表示尽快重试
+     */
+    public void track(String jwtToken, long cozeExpiresAt) {
+        if (!enabled || jwtToken == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long at = cozeExpiresAt > 0 ? nextRefreshAt(cozeExpiresAt, now) : retryAt(now);
+        try {
+            redisTemplate.opsForZSet().add(SCHEDULE_KEY, jwtToken, at);
+        } catch (Exception e) {
+            log.warn("Coze token refresh: cannot schedule session - {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 批量登记会话（jwt -> cozeExpiresAt），一次 ZADD
+     */
+    public void track(Map<String, Long> sessions) {
+        if (!enabled || sessions.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Set<ZSetOperations.TypedTuple<String>> entries = new HashSet<>();
+        sessions.forEach((jwtToken, cozeExpiresAt) -> entries.add(ZSetOperations.TypedTuple.of(jwtToken,
+                (double) (cozeExpiresAt > 0 ? nextRefreshAt(cozeExpiresAt, now) : retryAt(now)))));
+        try {
+            redisTemplate.opsForZSet().add(SCHEDULE_KEY, entries);
+        } catch (Exception e) {
+            log.warn("Coze token refresh: cannot schedule {} sessions - {}", entries.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * 下次续期时间：过期前 lead-seconds 再提前 [0, jitter-seconds) 的随机量，不早于 now
+     */
+    long nextRefreshAt(long cozeExpiresAt, long now) {
+        return Math.max(now, cozeExpiresAt - TimeUnit.SECONDS.toMillis(leadSeconds) - jitterMillis());
+    }
+
+    /**
+     * 失败后的重试时间：retry-seconds 加上 [0, retry-seconds) 的随机量
+     */
+    long retryAt(long now) {
+        long retryMillis = TimeUnit.SECONDS.toMillis(Math.max(1, retrySeconds));
+        return now + retryMillis + ThreadLocalRandom.current().nextLong(retryMillis);
+    }
+
+    /**
+     * 会话在 Token 过期前结束时无需续期
+     */
+    boolean needsRefresh(long cozeExpiresAt, long sessionExpiresAt) {
+        return cozeExpiresAt < sessionExpiresAt;
+    }
+
+    /**
+     * 续期时要求 Token 至少还能用的秒数：超过 lead + jitter，拿到的 Token 不会立即再次到期
+     */
+    int minValiditySeconds() {
+        return (int) Math.min(Integer.MAX_VALUE, 2 * (leadSeconds + jitterSeconds));
+    }
+
+    private long jitterMillis() {
+        long jitter = TimeUnit.SECONDS.toMillis(jitterSeconds);
+        return jitter > 0 ? ThreadLocalRandom.current().nextLong(jitter) : 0;
+    }
+
+    private void poll() {
+        int available = permits.availablePermits();
+        if (available == 0) {
+            return;
+        }
+        List<?> due;
+        long now = System.currentTimeMillis();
+        try {
+            due = redisTemplate.execute(CLAIM_SCRIPT, Collections.singletonList(SCHEDULE_KEY),
+                    String.valueOf(now), String.valueOf(available),
+                    String.valueOf(now + TimeUnit.SECONDS.toMillis(Math.max(1, leaseSeconds))));
+            if (pollFailing) {
+                pollFailing = false;
+                log.info("Coze token refresh: Redis reachable again");
+            }
+        } catch (Exception e) {
+            if (!pollFailing) {
+                pollFailing = true;
+                log.warn("Coze token refresh: poll failed - {}", e.getMessage());
+            }
+            return;
+        }
+        if (due == null) {
+            return;
+        }
+        for (int i = 0; i + 1 < due.size(); i += 2) {
+            String jwtToken = String.valueOf(due.get(i));
+            long plannedAt = (long) Double.parseDouble(String.valueOf(due.get(i + 1)));
+            if (!permits.tryAcquire()) {
+                return;
+            }
+            inFlight.incrementAndGet();
+            try {
+                workers.execute(() -> {
+                    try {
+                        refresh(jwtToken, plannedAt);
+                    } finally {
+                        inFlight.decrementAndGet();
+                        permits.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                inFlight.decrementAndGet();
+                permits.release();
+                return;
+            }
+        }
+    }
+
+    private void refresh(String jwtToken, long plannedAt) {
+        String key = RedisUserTokenService.KEY_PREFIX + jwtToken;
+        long now = System.currentTimeMillis();
+        lag.record(Math.max(0, now - plannedAt), TimeUnit.MILLISECONDS);
+        String phone = null;
+        try {
+            List<Object> fields = redisTemplate.opsForHash().multiGet(key,
+                    List.of(RedisUserTokenService.FIELD_PHONE, RedisUserTokenService.FIELD_COZE_EXPIRES_AT));
+            Long ttlMs = redisTemplate.getExpire(key, TimeUnit.MILLISECONDS);
+            phone = fields.get(0) != null ? fields.get(0).toString() : null;
+            if (phone == null || ttlMs == null || ttlMs <= 0) {
+                // 会话已过期或被删除
+                redisTemplate.opsForZSet().remove(SCHEDULE_KEY, jwtToken);
+                skipped.increment();
+                return;
+            }
+            long sessionExpiresAt = now + ttlMs;
+            long cozeExpiresAt = parseLong(fields.get(1));
+            if (!needsRefresh(cozeExpiresAt, sessionExpiresAt)) {
+                // Token 已覆盖会话剩余时间；会话结束时再看一次（期间会话可能被延长）
+                redisTemplate.opsForZSet().add(SCHEDULE_KEY, jwtToken, Math.max(retryAt(now), sessionExpiresAt));
+                skipped.increment();
+                return;
+            }
+
+            CozeTokenResponse token = cozeAccessTokenProvider.getAccessToken(phone, minValiditySeconds());
+            long expiresAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(token.getExpiresIn());
+            Long updated = redisTemplate.execute(UPDATE_SCRIPT, Collections.singletonList(key),
+                    RedisUserTokenService.FIELD_COZE_TOKEN, token.getAccessToken(),
+                    RedisUserTokenService.FIELD_COZE_EXPIRES_AT, String.valueOf(expiresAt));
+            if (updated == null || updated == 0L) {
+                redisTemplate.opsForZSet().remove(SCHEDULE_KEY, jwtToken);
+                skipped.increment();
+                return;
+            }
+            userTokenCache.invalidate(jwtToken);
+            redisTemplate.opsForZSet().add(SCHEDULE_KEY, jwtToken, nextRefreshAt(expiresAt, System.currentTimeMillis()));
+            succeeded.increment();
+        } catch (Exception e) {
+            failed.increment();
+            log.warn("Coze token refresh failed for phone: {}..., retrying - {}",
+                    phone != null ? phone.substring(0, Math.min(4, phone.length())) : "?", e.getMessage());
+            try {
+                redisTemplate.opsForZSet().add(SCHEDULE_KEY, jwtToken, retryAt(System.currentTimeMillis()));
+            } catch (Exception ignored) {
+                // 租约到期后由任一节点重新认领
+            }
+        }
+    }
+
+    private static long parseLong(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value.toString());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
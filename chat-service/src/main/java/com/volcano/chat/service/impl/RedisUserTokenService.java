@@ -1,22 +1,57 @@
 package com.volcano.chat.service.impl;
 
+import com.volcano.chat.cache.UserTokenCache;
 import com.volcano.chat.coze.CozeAccessTokenProvider;
 import com.volcano.chat.dto.CozeTokenResponse;
+import com.volcano.chat.dto.SessionCreateResult;
 import com.volcano.chat.dto.UserTokenInfo;
 import com.volcano.chat.service.UserTokenService;
 import com.volcano.chat.util.JwtUtil;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * 基于 Redis 的用户 Token 信息管理服务实现
- * 使用 Hash 结构存储：Key = JWT Token, Fields = {phone, cozeToken, sessionId}
+ * 使用 Hash 结构存储：Key = JWT Token, Fields = {phone, cozeToken, sessionId, cozeExpiresAt}
+ * Coze Token 由 CozeTokenRefresher 在过期前后台续期，创建时获取失败也由它重试
+ * 读取经过本地 near-cache（UserTokenCache），删除会话时通知各节点失效
+ *
+ * 创建会话用一个 Lua 脚本完成 HSET + EXPIRE（一次往返，不会留下没有过期时间的 Key）。
+ * 开启 sliding-expiry 后，读取会话用一个脚本完成 HGETALL + EXPIRE：TTL 变为空闲超时，活跃用户不会在
+ * 第 30 分钟被登出；此时 JWT 的有效期为 max-lifetime-seconds，作为会话的绝对上限。
+ * near-cache 命中不访问 Redis，会话最多在 near-cache 条目过期（local-ttl-seconds）后才被延长。
+ *
+ * 批量创建（createUserTokens）：JWT 签发与 Coze Token 获取在 parallelism 个线程内并行，
+ * 准备好的会话每 redis-batch-size 个用一次流水线（EVAL CREATE_SCRIPT × N）写入 Redis，写入后立即回调结果。
  */
 @Slf4j
 @Service
@@ -25,14 +60,96 @@ public class RedisUserTokenService implements UserTokenService {
 
     private final StringRedisTemplate redisTemplate;
     private final CozeAccessTokenProvider cozeAccessTokenProvider;
+    private final CozeTokenRefresher cozeTokenRefresher;
+    private final UserTokenCache userTokenCache;
 
     // 过期时间设置为30分钟
-    private static final long TOKEN_EXPIRE_SECONDS = 1800;
-    private static final String KEY_PREFIX = "user:token:";
+    static final long TOKEN_EXPIRE_SECONDS = 1800;
+    static final String KEY_PREFIX = "user:token:";
     
-    private static final String FIELD_PHONE = "phone";
-    private static final String FIELD_COZE_TOKEN = "cozeToken";
-    private static final String FIELD_SESSION_ID = "sessionId";
+    static final String FIELD_PHONE = "phone";
+    static final String FIELD_COZE_TOKEN = "cozeToken";
+    static final String FIELD_SESSION_ID = "sessionId";
+    // Coze Token 过期时间（毫秒时间戳），获取失败时为 0
+    static final String FIELD_COZE_EXPIRES_AT = "cozeExpiresAt";
+
+    /**
+     * ARGV[1] 为过期秒数，其后为 field、value 交替
+     */
+    static final DefaultRedisScript<Long> CREATE_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('HSET', KEYS[1], unpack(ARGV, 2))\n"
+                    + "redis.call('EXPIRE', KEYS[1], ARGV[1])\n"
+                    + "return 1", Long.class);
+
+    /**
+     * 读取会话并把过期时间重置为 ARGV[1] 秒；会话不存在时返回空列表
+     */
+    static final DefaultRedisScript<List<Object>> TOUCH_SCRIPT = new DefaultRedisScript<>(
+            "local data = redis.call('HGETALL', KEYS[1])\n"
+                    + "if #data > 0 then redis.call('EXPIRE', KEYS[1], ARGV[1]) end\n"
+                    + "return data", listResult());
+
+    /**
+     * 返回多值回复的脚本结果类型：Lua 表按 List 返回，元素类型由序列化器决定
+     */
+    @SuppressWarnings("unchecked")
+    static Class<List<Object>> listResult() {
+        return (Class<List<Object>>) (Class<?>) List.class;
+    }
+
+    /**
+     * 批量创建时并行获取 Coze Token 的线程数（所有批次共享）
+     */
+    @Value("${chat.session.batch.parallelism:8}")
+    private int batchParallelism;
+
+    @Value("${chat.session.batch.redis-batch-size:100}")
+    private int redisBatchSize;
+
+    private ExecutorService batchExecutor;
+
+    /**
+     * 各批次的写出任务（流水线写入 Redis 并回调结果）；每个批次同一时刻至多占用一个线程，
+     * 慢的下游只阻塞自己的批次，不占用准备会话的共享线程
+     */
+    private ExecutorService batchWriter;
+
+    @Value("${chat.session.sliding-expiry.enabled:false}")
+    private boolean slidingExpiry;
+
+    /**
+     * 开启 sliding-expiry 时 JWT 的有效期（会话最长存活时间）
+     */
+    @Value("${chat.session.sliding-expiry.max-lifetime-seconds:43200}")
+    private long maxLifetimeSeconds;
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadSeq = new AtomicInteger(1);
+        batchExecutor = Executors.newFixedThreadPool(Math.max(1, batchParallelism), runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setName("session-batch-" + threadSeq.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger writerSeq = new AtomicInteger(1);
+        batchWriter = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setName("session-batch-writer-" + writerSeq.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (batchExecutor != null) {
+            batchExecutor.shutdownNow();
+        }
+        if (batchWriter != null) {
+            batchWriter.shutdownNow();
+        }
+    }
 
     @Override
     public String createUserToken(String phone) {
@@ -41,23 +158,28 @@ public class RedisUserTokenService implements UserTokenService {
         }
         
         // 使用 JwtUtil 生成 JWT Token
-        String jwtToken = JwtUtil.generateToken(phone);
+        String jwtToken = slidingExpiry
+                ? JwtUtil.generateToken(phone, TimeUnit.SECONDS.toMillis(maxLifetimeSeconds))
+                : JwtUtil.generateToken(phone);
         String key = KEY_PREFIX + jwtToken;
 
         // 调用 CozeAccessTokenProvider 获取 Coze Token
-        String cozeToken = fetchCozeToken(phone);
+        CozeTokenResponse cozeToken = fetchCozeToken(phone);
+        long cozeExpiresAt = cozeToken != null
+                ? System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(cozeToken.getExpiresIn())
+                : 0;
         
         // 生成 Session ID：sess-{手机号后4位}-{时间戳}
         String sessionId = generateSessionId(phone);
 
-        // 使用 Hash 存储
-        Map<String, String> tokenData = new HashMap<>();
-        tokenData.put(FIELD_PHONE, phone);
-        tokenData.put(FIELD_COZE_TOKEN, cozeToken != null ? cozeToken : "");
-        tokenData.put(FIELD_SESSION_ID, sessionId);
-
-        redisTemplate.opsForHash().putAll(key, tokenData);
-        redisTemplate.expire(key, TOKEN_EXPIRE_SECONDS, TimeUnit.SECONDS);
+        // 使用 Hash 存储，HSET 与 EXPIRE 在同一脚本中原子执行
+        redisTemplate.execute(CREATE_SCRIPT, Collections.singletonList(key),
+                String.valueOf(TOKEN_EXPIRE_SECONDS),
+                FIELD_PHONE, phone,
+                FIELD_COZE_TOKEN, cozeToken != null ? cozeToken.getAccessToken() : "",
+                FIELD_SESSION_ID, sessionId,
+                FIELD_COZE_EXPIRES_AT, String.valueOf(cozeExpiresAt));
+        cozeTokenRefresher.track(jwtToken, cozeExpiresAt);
 
         log.info("Created user token for phone: {}..., sessionId: {}, TTL: {}s",
                 phone.substring(0, Math.min(4, phone.length())), sessionId, TOKEN_EXPIRE_SECONDS);
@@ -65,6 +187,175 @@ public class RedisUserTokenService implements UserTokenService {
         return jwtToken;
     }
     
+    @Override
+    public CompletableFuture<Void> createUserTokens(List<String> phones, Consumer<SessionCreateResult> onResult) {
+        Set<String> distinct = new LinkedHashSet<>(phones);
+        Batch batch = new Batch(distinct.size(), onResult);
+        for (String phone : distinct) {
+            if (phone == null || phone.isEmpty()) {
+                batch.prepared(PendingSession.failed(phone, "Phone is required"));
+                continue;
+            }
+            try {
+                batchExecutor.execute(() -> batch.prepared(batch.cancelled
+                        ? PendingSession.failed(phone, "Cancelled")
+                        : prepareSession(phone)));
+            } catch (RejectedExecutionException e) {
+                batch.prepared(PendingSession.failed(phone, "Service is shutting down"));
+            }
+        }
+        return batch.done;
+    }
+
+    /**
+     * 签发 JWT 并获取 Coze Token；获取失败时该手机号报错，不写入会话
+     */
+    private PendingSession prepareSession(String phone) {
+        try {
+            CozeTokenResponse cozeToken = cozeAccessTokenProvider.getAccessToken(phone);
+            String jwtToken = slidingExpiry
+                    ? JwtUtil.generateToken(phone, TimeUnit.SECONDS.toMillis(maxLifetimeSeconds))
+                    : JwtUtil.generateToken(phone);
+            long cozeExpiresAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(cozeToken.getExpiresIn());
+            return new PendingSession(phone, jwtToken, cozeToken.getAccessToken(), generateSessionId(phone),
+                    cozeExpiresAt, null);
+        } catch (Exception e) {
+            return PendingSession.failed(phone, "Coze token unavailable: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 一次流水线写入一批会话，并登记后台续期
+     */
+    private void writeSessions(List<PendingSession> sessions) {
+        byte[] script = CREATE_SCRIPT.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+        byte[] ttl = String.valueOf(TOKEN_EXPIRE_SECONDS).getBytes(StandardCharsets.UTF_8);
+        // 流水线中 EVALSHA 无法在 NOSCRIPT 时回退，直接用 EVAL
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (PendingSession session : sessions) {
+                connection.scriptingCommands().eval(script, ReturnType.INTEGER, 1,
+                        bytes(KEY_PREFIX + session.jwtToken), ttl,
+                        bytes(FIELD_PHONE), bytes(session.phone),
+                        bytes(FIELD_COZE_TOKEN), bytes(session.cozeToken),
+                        bytes(FIELD_SESSION_ID), bytes(session.sessionId),
+                        bytes(FIELD_COZE_EXPIRES_AT), bytes(String.valueOf(session.cozeExpiresAt)));
+            }
+            return null;
+        });
+        Map<String, Long> tracked = new HashMap<>();
+        for (PendingSession session : sessions) {
+            tracked.put(session.jwtToken, session.cozeExpiresAt);
+        }
+        cozeTokenRefresher.track(tracked);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 一次批量创建的进度：准备线程只把结果放入队列，由本批次的写出任务取出、凑满一批（或全部准备完）即写入并回调。
+     * 写出任务同一时刻只有一个，回调串行且按批次顺序
+     */
+    private final class Batch {
+
+        private final Consumer<SessionCreateResult> onResult;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private final Queue<PendingSession> prepared = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean draining = new AtomicBoolean();
+        // 以下字段只由写出任务访问（draining 的交接保证可见性）
+        private final List<PendingSession> buffer = new ArrayList<>();
+        private int remaining;
+        private int created;
+        private volatile boolean cancelled;
+
+        private Batch(int total, Consumer<SessionCreateResult> onResult) {
+            this.remaining = total;
+            this.onResult = onResult;
+            if (total == 0) {
+                done.complete(null);
+            }
+        }
+
+        private void prepared(PendingSession session) {
+            if (cancelled) {
+                return;
+            }
+            prepared.add(session);
+            scheduleDrain();
+        }
+
+        private void scheduleDrain() {
+            if (!draining.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                batchWriter.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                cancelled = true;
+                done.completeExceptionally(e);
+            }
+        }
+
+        private void drain() {
+            try {
+                PendingSession session;
+                while (!cancelled && (session = prepared.poll()) != null) {
+                    remaining--;
+                    if (session.error != null) {
+                        onResult.accept(SessionCreateResult.failed(session.phone, session.error));
+                    } else {
+                        buffer.add(session);
+                    }
+                    if (buffer.size() >= Math.max(1, redisBatchSize) || (remaining == 0 && !buffer.isEmpty())) {
+                        flush();
+                    }
+                    if (remaining == 0) {
+                        log.info("Batch session create finished - created: {}", created);
+                        done.complete(null);
+                    }
+                }
+            } catch (RuntimeException e) {
+                // 回调失败（如客户端断开）：放弃剩余手机号
+                cancelled = true;
+                done.completeExceptionally(e);
+            } finally {
+                draining.set(false);
+            }
+            // 队列取空后、交还写出权之前又有结果入队
+            if (!cancelled && !prepared.isEmpty()) {
+                scheduleDrain();
+            }
+        }
+
+        private void flush() {
+            List<PendingSession> sessions = new ArrayList<>(buffer);
+            buffer.clear();
+            try {
+                writeSessions(sessions);
+            } catch (Exception e) {
+                log.error("Batch session write failed for {} sessions: {}", sessions.size(), e.getMessage());
+                for (PendingSession session : sessions) {
+                    onResult.accept(SessionCreateResult.failed(session.phone, "Session store unavailable"));
+                }
+                return;
+            }
+            long expiresAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TOKEN_EXPIRE_SECONDS);
+            for (PendingSession session : sessions) {
+                onResult.accept(SessionCreateResult.created(session.phone, session.jwtToken, expiresAt));
+                created++;
+            }
+        }
+    }
+
+    private record PendingSession(String phone, String jwtToken, String cozeToken, String sessionId,
+                                  long cozeExpiresAt, String error) {
+
+        static PendingSession failed(String phone, String error) {
+            return new PendingSession(phone, null, null, null, 0, error);
+        }
+    }
+    
     /**
      * 生成 Session ID
      * 格式: sess-{手机号后4位}-{Unix时间戳}
@@ -84,10 +375,57 @@ public class RedisUserTokenService implements UserTokenService {
             return null;
         }
         
+        UserTokenInfo cached = userTokenCache.get(jwtToken);
+        if (cached != null) {
+            return cached;
+        }
+
         String key = KEY_PREFIX + jwtToken;
-        Map<Object, Object> data = redisTemplate.opsForHash().entries(key);
-        
-        if (data.isEmpty()) {
+        if (slidingExpiry) {
+            long since = userTokenCache.epoch();
+            List<?> flat = redisTemplate.execute(TOUCH_SCRIPT, Collections.singletonList(key),
+                    String.valueOf(TOKEN_EXPIRE_SECONDS));
+            UserTokenInfo info = toUserTokenInfo(toMap(flat));
+            if (info != null) {
+                userTokenCache.put(jwtToken, info, TimeUnit.SECONDS.toMillis(TOKEN_EXPIRE_SECONDS), since);
+            }
+            return info;
+        }
+        if (!userTokenCache.isEnabled()) {
+            return toUserTokenInfo(redisTemplate.opsForHash().entries(key));
+        }
+
+        // HGETALL 与 PTTL 在同一次往返中完成，本地条目不会比会话活得更久
+        long since = userTokenCache.epoch();
+        List<Object> results = redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings({"unchecked", "rawtypes"})
+            public Object execute(RedisOperations operations) {
+                operations.opsForHash().entries(key);
+                operations.getExpire(key, TimeUnit.MILLISECONDS);
+                return null;
+            }
+        });
+        @SuppressWarnings("unchecked")
+        UserTokenInfo info = toUserTokenInfo((Map<Object, Object>) results.get(0));
+        if (info != null && results.get(1) instanceof Long ttlMillis) {
+            userTokenCache.put(jwtToken, info, ttlMillis, since);
+        }
+        return info;
+    }
+
+    private static Map<Object, Object> toMap(List<?> flat) {
+        Map<Object, Object> data = new HashMap<>();
+        if (flat != null) {
+            for (int i = 0; i + 1 < flat.size(); i += 2) {
+                data.put(flat.get(i), flat.get(i + 1));
+            }
+        }
+        return data;
+    }
+
+    private UserTokenInfo toUserTokenInfo(Map<Object, Object> data) {
+        if (data == null || data.isEmpty()) {
             return null;
         }
 
@@ -106,6 +444,7 @@ public class RedisUserTokenService implements UserTokenService {
         
         String key = KEY_PREFIX + jwtToken;
         Boolean deleted = redisTemplate.delete(key);
+        userTokenCache.invalidate(jwtToken);
         
         if (Boolean.TRUE.equals(deleted)) {
             log.info("Deleted user token: {}...", jwtToken.substring(0, 8));
@@ -117,10 +456,9 @@ public class RedisUserTokenService implements UserTokenService {
     /**
      * 获取 Coze Token
      */
-    private String fetchCozeToken(String phone) {
+    private CozeTokenResponse fetchCozeToken(String phone) {
         try {
-            CozeTokenResponse response = cozeAccessTokenProvider.getAccessToken(phone);
-            return response.getAccessToken();
+            return cozeAccessTokenProvider.getAccessToken(phone);
         } catch (Exception e) {
             log.error("Failed to fetch Coze token for phone: {}..., error: {}",
                     phone.substring(0, Math.min(4, phone.length())), e.getMessage());
@@ -0,0 +1,114 @@
+package com.volcano.chat.sse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 单个流的 AI 回答累积器
+ *
+ * 只累积 conversation.message.delta 中 type=answer 的 content（忽略 verbose 调试信息），
+ * 用于流结束后的 Update A。非线程安全，每个流一个实例。
+ *
+ * Coze 流式响应事件类型：
+ * - conversation.chat.created: 会话创建
+ * - conversation.chat.in_progress: 处理中
+ * - conversation.message.delta: 增量消息内容（流式输出），由 DeltaJsonExtractor 提取
+ * - conversation.message.completed: 消息完成
+ * - conversation.chat.completed: 会话完成
+ * - conversation.chat.failed / error: 上游失败，标记为失败
+ * - done: 结束
+ *
+ * 开启分片记录时同时保留每个 delta 的边界，供回答缓存按原分片重放。
+ */
+public class AnswerAccumulator {
+
+    public static final String DELTA_EVENT = "conversation.message.delta";
+    private static final String FAILED_EVENT = "conversation.chat.failed";
+    private static final String ERROR_EVENT = "error";
+
+    private final StringBuilder answer = new StringBuilder();
+    private final DeltaJsonExtractor extractor = new DeltaJsonExtractor();
+    private List<Integer> chunkEnds;
+    private boolean failed;
+
+    /**
+     * 记录每个 delta 的分片边界
+     */
+    public void recordChunks() {
+        if (chunkEnds == null) {
+            chunkEnds = new ArrayList<>();
+        }
+    }
+
+    /**
+     * event 模式：data 已解码为字符串
+     *
+     * @return 本次追加的字符数，JSON 不完整时返回 -1
+     */
+    public int append(String event, CharSequence data) {
+        if (!DELTA_EVENT.equals(event)) {
+            markFailed(event);
+            return 0;
+        }
+        return chunk(extractor.appendAnswer(data, answer));
+    }
+
+    /**
+     * raw 模式：直接从帧的 UTF-8 字节中提取，不解码整段 data
+     */
+    public int append(SseFrame frame) {
+        if (!DELTA_EVENT.equals(frame.event()) || !frame.hasData()) {
+            markFailed(frame.event());
+            return 0;
+        }
+        if (frame.dataLineCount() == 1) {
+            return chunk(extractor.appendAnswer(frame.raw(), frame.dataOffset(), frame.dataLength(), answer));
+        }
+        return chunk(extractor.appendAnswer(frame.data(), answer));
+    }
+
+    private int chunk(int appended) {
+        if (appended > 0 && chunkEnds != null) {
+            chunkEnds.add(answer.length());
+        }
+        return appended;
+    }
+
+    private void markFailed(String event) {
+        if (FAILED_EVENT.equals(event) || ERROR_EVENT.equals(event)) {
+            failed = true;
+        }
+    }
+
+    /**
+     * 上游是否返回了 conversation.chat.failed 或 error 事件
+     */
+    public boolean failed() {
+        return failed;
+    }
+
+    /**
+     * 按 delta 划分的回答分片；未开启分片记录时为整段回答
+     */
+    public List<String> chunks() {
+        if (chunkEnds == null) {
+            return answer.length() == 0 ? List.of() : List.of(answer.toString());
+        }
+        List<String> chunks = new ArrayList<>(chunkEnds.size());
+        int start = 0;
+        for (int end : chunkEnds) {
+            chunks.add(answer.substring(start, end));
+            start = end;
+        }
+        return chunks;
+    }
+
+    public int length() {
+        return answer.length();
+    }
+
+    @Override
+    public String toString() {
+        return answer.toString();
+    }
+}
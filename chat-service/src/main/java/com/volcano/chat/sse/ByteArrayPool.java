@@ -0,0 +1,31 @@
+package com.volcano.chat.sse;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * 定长 byte[] 读缓冲池
+ *
+ * 上游读取与 Servlet 写出都基于 byte[] 流接口，堆外 DirectByteBuffer 在这里只会多一次拷贝，
+ * 因此复用堆内数组；池满时多余数组直接丢弃交给 GC。
+ */
+public class ByteArrayPool {
+
+    private final int bufferSize;
+    private final ArrayBlockingQueue<byte[]> pool;
+
+    public ByteArrayPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.pool = new ArrayBlockingQueue<>(Math.max(1, maxPooled));
+    }
+
+    public byte[] acquire() {
+        byte[] buf = pool.poll();
+        return buf != null ? buf : new byte[bufferSize];
+    }
+
+    public void release(byte[] buf) {
+        if (buf != null && buf.length == bufferSize) {
+            pool.offer(buf);
+        }
+    }
+}
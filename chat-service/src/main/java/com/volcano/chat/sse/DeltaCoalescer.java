@@ -0,0 +1,118 @@
+package com.volcano.chat.sse;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * answer delta 合并阶段
+ *
+ * 将连续的 type=answer delta 合并为一个事件：沿用首个 delta 的 JSON 外壳，
+ * content 为各 delta 转义后内容的拼接（转义片段直接拼接仍是合法 JSON 字符串，无需反转义再转义）。
+ * 在时间窗口到期或累积内容达到上限时写出；任何其他事件（含 verbose delta、completed、done）
+ * 都会先写出缓冲再立即发送，保证事件顺序不变。
+ *
+ * 连续 delta 之间必然没有 message.completed 等事件，因此被合并的 delta 属于同一条消息。
+ */
+@Slf4j
+public class DeltaCoalescer implements SseEventSink {
+
+    private final SseEventSink delegate;
+    private final long windowMs;
+    private final int maxChars;
+    private final ScheduledExecutorService scheduler;
+    private final DeltaJsonExtractor extractor = new DeltaJsonExtractor();
+
+    // 缓冲中的合并事件：prefix + content + suffix
+    private String pendingPrefix;
+    private String pendingSuffix;
+    private final StringBuilder pendingContent = new StringBuilder();
+    private StreamEvent pendingFirst;
+    private long pendingLastId;
+    private int pendingCount;
+    private ScheduledFuture<?> flushTask;
+    private boolean closed;
+
+    public DeltaCoalescer(SseEventSink delegate, long windowMs, int maxChars, ScheduledExecutorService scheduler) {
+        this.delegate = delegate;
+        this.windowMs = windowMs;
+        this.maxChars = maxChars;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public synchronized void send(StreamEvent event) throws IOException {
+        if (!closed && AnswerAccumulator.DELTA_EVENT.equals(event.event())) {
+            String data = event.data();
+            if (extractor.locateAnswer(data)) {
+                buffer(event, data);
+                return;
+            }
+        }
+        flush();
+        delegate.send(event);
+    }
+
+    private void buffer(StreamEvent event, String data) throws IOException {
+        int start = extractor.contentStart();
+        int end = extractor.contentEnd();
+        if (pendingCount == 0) {
+            pendingPrefix = data.substring(0, start);
+            pendingFirst = event;
+            if (windowMs > 0 && scheduler != null) {
+                flushTask = scheduler.schedule(this::flushQuietly, windowMs, TimeUnit.MILLISECONDS);
+            }
+        }
+        pendingSuffix = data.substring(end);
+        pendingContent.append(data, start, end);
+        pendingLastId = event.id();
+        pendingCount++;
+        if (pendingContent.length() >= maxChars || windowMs <= 0) {
+            flush();
+        }
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        if (pendingCount == 0) {
+            return;
+        }
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        // 只缓冲了一个事件时原样写出（raw 模式保留原始帧字节），否则以最后一个 delta 的序号写出合并事件
+        StreamEvent out = pendingCount == 1
+                ? pendingFirst
+                : StreamEvent.of(AnswerAccumulator.DELTA_EVENT, pendingPrefix + pendingContent + pendingSuffix)
+                        .withId(pendingLastId);
+        pendingCount = 0;
+        pendingFirst = null;
+        pendingPrefix = null;
+        pendingSuffix = null;
+        pendingContent.setLength(0);
+        delegate.send(out);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            closed = true;
+        }
+    }
+
+    private synchronized void flushQuietly() {
+        flushTask = null;
+        try {
+            flush();
+        } catch (IOException | RuntimeException e) {
+            // 客户端已断开：由中继线程在下一次发送时感知并终止流
+            log.debug("Coalesced delta flush failed: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,525 @@
+package com.volcano.chat.sse;
+
+/**
+ * conversation.message.delta 单次扫描提取器
+ *
+ * 一次扫描 delta JSON 的顶层字段，定位 "type" 与 "content" 的值区间（忽略嵌套对象/数组中的同名字段），
+ * 两者都已找到或 type 已确定不是 answer 时提前结束扫描；
+ * 当 type 为 answer 时把 content 反转义后直接写入答案 StringBuilder。
+ * 支持全部 JSON 转义（含 \\uXXXX 与代理对），全程不创建中间字符串。
+ *
+ * 提供 CharSequence（event 模式）与 UTF-8 字节（raw 模式）两种输入。
+ * 扫描状态保存在实例字段中以便复用，非线程安全，每个流一个实例。
+ */
+public class DeltaJsonExtractor {
+
+    private static final String ANSWER = "answer";
+    private static final String TYPE_KEY = "type";
+    private static final String CONTENT_KEY = "content";
+
+    // 最近一次扫描得到的值区间（字符串值为引号内部区间），-1 表示未找到
+    private int typeStart;
+    private int typeEnd;
+    private int contentStart;
+    private int contentEnd;
+
+    private char[] scratch = new char[256];
+
+    /**
+     * 若 delta 的 type 为 answer，将 content 追加到 out
+     *
+     * @return 追加的字符数；非 answer 或没有 content 时返回 0，在找到所需字段前 JSON 不完整时返回 -1
+     */
+    public int appendAnswer(CharSequence json, StringBuilder out) {
+        if (!scan(json)) {
+            return -1;
+        }
+        if (typeStart < 0 || contentStart < 0 || !regionEquals(json, typeStart, typeEnd, ANSWER)) {
+            return 0;
+        }
+        int before = out.length();
+        unescape(json, contentStart, contentEnd, out);
+        return out.length() - before;
+    }
+
+    /**
+     * 字节版本：json 为 UTF-8 编码的 [off, off + len) 区间
+     */
+    public int appendAnswer(byte[] json, int off, int len, StringBuilder out) {
+        if (!scan(json, off, off + len)) {
+            return -1;
+        }
+        if (typeStart < 0 || contentStart < 0 || !regionEquals(json, typeStart, typeEnd, ANSWER)) {
+            return 0;
+        }
+        int before = out.length();
+        unescapeUtf8(json, contentStart, contentEnd, out);
+        return out.length() - before;
+    }
+
+    /**
+     * 只定位不追加：type 为 answer 且存在 content 时返回 true，区间见 {@link #contentStart()}
+     */
+    public boolean locateAnswer(CharSequence json) {
+        return scan(json) && typeStart >= 0 && contentStart >= 0 && regionEquals(json, typeStart, typeEnd, ANSWER);
+    }
+
+    /**
+     * 最近一次扫描中 content 值（引号内部）的起止位置，供需要原地改写 content 的调用方使用
+     */
+    public int contentStart() {
+        return contentStart;
+    }
+
+    public int contentEnd() {
+        return contentEnd;
+    }
+
+    /**
+     * 读取顶层字符串字段的值（反转义后），字段不存在、不是字符串或 JSON 不完整时返回 null
+     * 用于 conversation.chat.created 等低频事件，按需创建字符串
+     */
+    public static String stringField(CharSequence s, String key) {
+        int n = s.length();
+        int i = skipWs(s, 0, n);
+        if (i >= n || s.charAt(i) != '{') {
+            return null;
+        }
+        i++;
+        while (true) {
+            i = skipWs(s, i, n);
+            if (i >= n || s.charAt(i) == '}') {
+                return null;
+            }
+            if (s.charAt(i) == ',') {
+                i++;
+                continue;
+            }
+            if (s.charAt(i) != '"') {
+                return null;
+            }
+            int keyStart = i + 1;
+            int keyEnd = stringEnd(s, keyStart, n);
+            if (keyEnd < 0) {
+                return null;
+            }
+            i = skipWs(s, keyEnd + 1, n);
+            if (i >= n || s.charAt(i) != ':') {
+                return null;
+            }
+            i = skipWs(s, i + 1, n);
+            boolean match = regionEquals(s, keyStart, keyEnd, key);
+            if (i < n && s.charAt(i) == '"') {
+                int valueEnd = stringEnd(s, i + 1, n);
+                if (valueEnd < 0) {
+                    return null;
+                }
+                if (match) {
+                    StringBuilder value = new StringBuilder(valueEnd - i - 1);
+                    unescape(s, i + 1, valueEnd, value);
+                    return value.toString();
+                }
+                i = valueEnd + 1;
+            } else {
+                if (match) {
+                    return null;
+                }
+                i = skipValue(s, i, n);
+                if (i < 0) {
+                    return null;
+                }
+            }
+        }
+    }
+
+    // ==================== CharSequence 扫描 ====================
+
+    private boolean scan(CharSequence s) {
+        typeStart = typeEnd = contentStart = contentEnd = -1;
+        int n = s.length();
+        int i = skipWs(s, 0, n);
+        if (i >= n || s.charAt(i) != '{') {
+            return false;
+        }
+        i++;
+        while (true) {
+            i = skipWs(s, i, n);
+            if (i >= n) {
+                return false;
+            }
+            char c = s.charAt(i);
+            if (c == '}') {
+                return true;
+            }
+            if (c == ',') {
+                i++;
+                continue;
+            }
+            if (c != '"') {
+                return false;
+            }
+            int keyStart = i + 1;
+            int keyEnd = stringEnd(s, keyStart, n);
+            if (keyEnd < 0) {
+                return false;
+            }
+            i = skipWs(s, keyEnd + 1, n);
+            if (i >= n || s.charAt(i) != ':') {
+                return false;
+            }
+            i = skipWs(s, i + 1, n);
+            if (i >= n) {
+                return false;
+            }
+            if (s.charAt(i) == '"') {
+                int valueEnd = stringEnd(s, i + 1, n);
+                if (valueEnd < 0) {
+                    return false;
+                }
+                if (regionEquals(s, keyStart, keyEnd, TYPE_KEY)) {
+                    typeStart = i + 1;
+                    typeEnd = valueEnd;
+                } else if (regionEquals(s, keyStart, keyEnd, CONTENT_KEY)) {
+                    contentStart = i + 1;
+                    contentEnd = valueEnd;
+                }
+                if (typeStart >= 0 && (contentStart >= 0 || !regionEquals(s, typeStart, typeEnd, ANSWER))) {
+                    // 已拿到所需字段（或已确定不是 answer），无需扫描剩余字段
+                    return true;
+                }
+                i = valueEnd + 1;
+            } else {
+                i = skipValue(s, i, n);
+                if (i < 0) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    private static int skipWs(CharSequence s, int i, int n) {
+        while (i < n) {
+            char c = s.charAt(i);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    /** 返回字符串结束引号位置（start 为开引号之后），未闭合返回 -1 */
+    private static int stringEnd(CharSequence s, int i, int n) {
+        if (s instanceof String str) {
+            // String 输入走 indexOf 内建优化，再按前导反斜杠个数判断引号是否被转义
+            int q = str.indexOf('"', i);
+            while (q >= 0 && q < n) {
+                int backslashes = 0;
+                for (int k = q - 1; k >= i && str.charAt(k) == '\\'; k--) {
+                    backslashes++;
+                }
+                if ((backslashes & 1) == 0) {
+                    return q;
+                }
+                q = str.indexOf('"', q + 1);
+            }
+            return -1;
+        }
+        while (i < n) {
+            char c = s.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == '"') {
+                return i;
+            } else {
+                i++;
+            }
+        }
+        return -1;
+    }
+
+    /** 跳过非字符串值（数字、布尔、null、嵌套对象/数组），返回值之后的位置 */
+    private static int skipValue(CharSequence s, int i, int n) {
+        int depth = 0;
+        while (i < n) {
+            char c = s.charAt(i);
+            if (c == '"') {
+                i = stringEnd(s, i + 1, n);
+                if (i < 0) {
+                    return -1;
+                }
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                if (depth == 0) {
+                    return i;
+                }
+                depth--;
+                if (depth == 0) {
+                    return i + 1;
+                }
+            } else if (c == ',' && depth == 0) {
+                return i;
+            }
+            i++;
+        }
+        return depth == 0 ? i : -1;
+    }
+
+    private static boolean regionEquals(CharSequence s, int start, int end, String expected) {
+        if (end - start != expected.length()) {
+            return false;
+        }
+        for (int i = 0; i < expected.length(); i++) {
+            if (s.charAt(start + i) != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void unescape(CharSequence s, int i, int end, StringBuilder out) {
+        while (i < end) {
+            // 无转义的连续片段整段追加
+            int run = i;
+            while (run < end && s.charAt(run) != '\\') {
+                run++;
+            }
+            if (run > i) {
+                out.append(s, i, run);
+                i = run;
+            }
+            if (i >= end) {
+                break;
+            }
+            i++;
+            if (i >= end) {
+                out.append('\\');
+                break;
+            }
+            char e = s.charAt(i++);
+            switch (e) {
+                case 'n' -> out.append('\n');
+                case 'r' -> out.append('\r');
+                case 't' -> out.append('\t');
+                case 'b' -> out.append('\b');
+                case 'f' -> out.append('\f');
+                case 'u' -> {
+                    int cp = end - i >= 4 ? hex4(s, i) : -1;
+                    if (cp < 0) {
+                        out.append('\\').append('u');
+                    } else {
+                        // 代理对的两个 \\u 依次追加即组成完整的 UTF-16 码点
+                        out.append((char) cp);
+                        i += 4;
+                    }
+                }
+                default -> out.append(e); // \" \\ \/ 及未知转义
+            }
+        }
+    }
+
+    private static int hex4(CharSequence s, int i) {
+        int v = 0;
+        for (int k = 0; k < 4; k++) {
+            int d = Character.digit(s.charAt(i + k), 16);
+            if (d < 0) {
+                return -1;
+            }
+            v = (v << 4) | d;
+        }
+        return v;
+    }
+
+    // ==================== UTF-8 字节扫描 ====================
+
+    private boolean scan(byte[] s, int from, int n) {
+        typeStart = typeEnd = contentStart = contentEnd = -1;
+        int i = skipWs(s, from, n);
+        if (i >= n || s[i] != '{') {
+            return false;
+        }
+        i++;
+        while (true) {
+            i = skipWs(s, i, n);
+            if (i >= n) {
+                return false;
+            }
+            byte c = s[i];
+            if (c == '}') {
+                return true;
+            }
+            if (c == ',') {
+                i++;
+                continue;
+            }
+            if (c != '"') {
+                return false;
+            }
+            int keyStart = i + 1;
+            int keyEnd = stringEnd(s, keyStart, n);
+            if (keyEnd < 0) {
+                return false;
+            }
+            i = skipWs(s, keyEnd + 1, n);
+            if (i >= n || s[i] != ':') {
+                return false;
+            }
+            i = skipWs(s, i + 1, n);
+            if (i >= n) {
+                return false;
+            }
+            if (s[i] == '"') {
+                int valueEnd = stringEnd(s, i + 1, n);
+                if (valueEnd < 0) {
+                    return false;
+                }
+                if (regionEquals(s, keyStart, keyEnd, TYPE_KEY)) {
+                    typeStart = i + 1;
+                    typeEnd = valueEnd;
+                } else if (regionEquals(s, keyStart, keyEnd, CONTENT_KEY)) {
+                    contentStart = i + 1;
+                    contentEnd = valueEnd;
+                }
+                if (typeStart >= 0 && (contentStart >= 0 || !regionEquals(s, typeStart, typeEnd, ANSWER))) {
+                    return true;
+                }
+                i = valueEnd + 1;
+            } else {
+                i = skipValue(s, i, n);
+                if (i < 0) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    private static int skipWs(byte[] s, int i, int n) {
+        while (i < n) {
+            byte c = s[i];
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private static int stringEnd(byte[] s, int i, int n) {
+        while (i < n) {
+            byte c = s[i];
+            if (c == '\\') {
+                i += 2;
+            } else if (c == '"') {
+                return i;
+            } else {
+                i++;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipValue(byte[] s, int i, int n) {
+        int depth = 0;
+        while (i < n) {
+            byte c = s[i];
+            if (c == '"') {
+                i = stringEnd(s, i + 1, n);
+                if (i < 0) {
+                    return -1;
+                }
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                if (depth == 0) {
+                    return i;
+                }
+                depth--;
+                if (depth == 0) {
+                    return i + 1;
+                }
+            } else if (c == ',' && depth == 0) {
+                return i;
+            }
+            i++;
+        }
+        return depth == 0 ? i : -1;
+    }
+
+    private static boolean regionEquals(byte[] s, int start, int end, String expected) {
+        if (end - start != expected.length()) {
+            return false;
+        }
+        for (int i = 0; i < expected.length(); i++) {
+            if (s[start + i] != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void unescapeUtf8(byte[] s, int i, int end, StringBuilder out) {
+        // 解码结果不会多于字节数，先写入复用的 char[] 再一次性追加
+        if (scratch.length < end - i) {
+            scratch = new char[Math.max(end - i, scratch.length * 2)];
+        }
+        char[] buf = scratch;
+        int n = 0;
+        while (i < end) {
+            int b = s[i] & 0xFF;
+            if (b == '\\' && i + 1 < end) {
+                byte e = s[i + 1];
+                i += 2;
+                switch (e) {
+                    case 'n' -> buf[n++] = '\n';
+                    case 'r' -> buf[n++] = '\r';
+                    case 't' -> buf[n++] = '\t';
+                    case 'b' -> buf[n++] = '\b';
+                    case 'f' -> buf[n++] = '\f';
+                    case 'u' -> {
+                        int cp = end - i >= 4 ? hex4(s, i) : -1;
+                        if (cp < 0) {
+                            buf[n++] = '\\';
+                            buf[n++] = 'u';
+                        } else {
+                            buf[n++] = (char) cp;
+                            i += 4;
+                        }
+                    }
+                    default -> buf[n++] = (char) (e & 0xFF);
+                }
+            } else if (b < 0x80) {
+                buf[n++] = (char) b;
+                i++;
+            } else if (b >= 0xC0 && b < 0xE0 && i + 1 < end) {
+                buf[n++] = (char) (((b & 0x1F) << 6) | (s[i + 1] & 0x3F));
+                i += 2;
+            } else if (b >= 0xE0 && b < 0xF0 && i + 2 < end) {
+                buf[n++] = (char) (((b & 0x0F) << 12) | ((s[i + 1] & 0x3F) << 6) | (s[i + 2] & 0x3F));
+                i += 3;
+            } else if (b >= 0xF0 && i + 3 < end) {
+                int cp = ((b & 0x07) << 18) | ((s[i + 1] & 0x3F) << 12)
+                        | ((s[i + 2] & 0x3F) << 6) | (s[i + 3] & 0x3F);
+                buf[n++] = Character.highSurrogate(cp);
+                buf[n++] = Character.lowSurrogate(cp);
+                i += 4;
+            } else {
+                buf[n++] = '\uFFFD';
+                i++;
+            }
+        }
+        out.append(buf, 0, n);
+    }
+
+    private static int hex4(byte[] s, int i) {
+        int v = 0;
+        for (int k = 0; k < 4; k++) {
+            int d = Character.digit(s[i + k], 16);
+            if (d < 0) {
+                return -1;
+            }
+            v = (v << 4) | d;
+        }
+        return v;
+    }
+}
@@ -0,0 +1,43 @@
+package com.volcano.chat.sse;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * 直接写入 SseEmitter 的 sink
+ */
+public class EmitterSseSink implements SseEventSink {
+
+    private final SseEmitter emitter;
+
+    public EmitterSseSink(SseEmitter emitter) {
+        this.emitter = emitter;
+    }
+
+    @Override
+    public void send(StreamEvent event) throws IOException {
+        SseFrame frame = event.frame();
+        if (frame == null) {
+            SseEmitter.SseEventBuilder builder = SseEmitter.event();
+            if (event.id() > 0) {
+                builder.id(Long.toString(event.id()));
+            }
+            emitter.send(builder.name(event.event()).data(event.data()));
+            return;
+        }
+        // byte[] 由 ByteArrayHttpMessageConverter 直接写出，不再经过 SSE 事件构建与重新编码
+        Set<ResponseBodyEmitter.DataWithMediaType> items = new LinkedHashSet<>(2);
+        if (event.id() > 0) {
+            byte[] idLine = ("id:" + event.id() + "\n").getBytes(StandardCharsets.US_ASCII);
+            items.add(new ResponseBodyEmitter.DataWithMediaType(idLine, MediaType.TEXT_EVENT_STREAM));
+        }
+        items.add(new ResponseBodyEmitter.DataWithMediaType(frame.raw(), MediaType.TEXT_EVENT_STREAM));
+        emitter.send(items);
+    }
+}
@@ -0,0 +1,373 @@
+package com.volcano.chat.sse;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一次上游生成（一个 Coze 流）的下游分发点
+ *
+ * 上游中继线程通过 publish 推送事件，LiveStream 负责写给所有已挂载的订阅者（多标签页共享同一次生成）。
+ * 缓冲流为每个事件分配单调递增的序号（SSE id 字段），并在有界环形缓冲中保留最近的事件；
+ * 断线续传或后加入的订阅者挂载时先补发缓冲中的后续事件，再继续接收实时事件。
+ * 缓冲按事件数与估算字节数双重限制，超出时淘汰最旧的事件。
+ *
+ * 写出在锁外进行：锁内只编号入缓冲并取订阅者快照。指定 deliveryExecutor 时每个订阅者有自己的有界发送队列，
+ * 由该执行器逐个写出，上游中继线程只负责入队，卡住的连接不会阻塞其他订阅者与上游读取；
+ * 队列超过 maxQueuedEvents 或当前写出已持续超过 send-timeout 的订阅者被断开（可凭 Last-Event-ID 续传），
+ * 写失败的订阅者被移除。未指定执行器时在发布线程上直接写出。
+ *
+ * 订阅者全部离开或流结束时通知 Listener，由其决定宽限期、取消上游与回收。
+ */
+public class LiveStream {
+
+    /**
+     * 生命周期回调（由 StreamRegistry 实现）
+     */
+    public interface Listener {
+
+        /** 最后一个订阅者离开且流仍在进行 */
+        void onIdle(LiveStream stream);
+
+        /** 空闲流重新有了订阅者 */
+        void onActive(LiveStream stream);
+
+        /** 流已正常结束或失败 */
+        void onCompleted(LiveStream stream);
+    }
+
+    /**
+     * 重新挂载的结果
+     */
+    public enum AttachResult {
+        /** 已补发并挂载（已结束的流补发后直接结束连接） */
+        ATTACHED,
+        /** 请求位置之后的事件已被淘汰，无法无缝续传 */
+        GAP,
+        /** 流已被取消或回收 */
+        EXPIRED
+    }
+
+    private final String id;
+    private final String ownerKey;
+    private final boolean buffered;
+    private final int maxEvents;
+    private final long maxBytes;
+    private final Runnable cancelUpstream;
+    private final Listener listener;
+    private final Executor deliveryExecutor;
+    private final int maxQueuedEvents;
+    private final long sendTimeoutNanos;
+
+    private final ArrayDeque<StreamEvent> buffer;
+    private long bufferedBytes;
+    private long lastId;
+    private final List<StreamSubscriber> subscribers = new ArrayList<>(1);
+    private volatile boolean completed;
+    private boolean cancelled;
+
+    /** 宽限期定时任务（空闲取消或结束后回收），由 Listener 维护 */
+    volatile ScheduledFuture<?> pendingTask;
+
+    /** 绑定的生成索引键（会话 + conversation + chat），收到 chat.created 后由 StreamRegistry 设置 */
+    volatile String generationKey;
+    volatile String conversationKey;
+
+    /** 单飞登记的请求键，由 SingleFlightRegistry 设置 */
+    volatile String flightKey;
+
+    /** 流结束或取消时执行一次的回调 */
+    private Runnable closeHook;
+
+    public LiveStream(String id, String ownerKey, boolean buffered, int maxEvents, long maxBytes,
+                      Runnable cancelUpstream, Listener listener) {
+        this(id, ownerKey, buffered, maxEvents, maxBytes, null, 0, 0, cancelUpstream, listener);
+    }
+
+    /**
+     * @param deliveryExecutor 写出订阅者发送队列的执行器；null 表示在发布线程上直接写出
+     * @param maxQueuedEvents 单个订阅者发送队列的事件数上限，超出即断开该订阅者；0 表示不限制
+     * @param sendTimeoutMs 单次写出的时间上限，入队时发现超出即断开该订阅者；0 表示不限制
+     */
+    public LiveStream(String id, String ownerKey, boolean buffered, int maxEvents, long maxBytes,
+                      Executor deliveryExecutor, int maxQueuedEvents, long sendTimeoutMs,
+                      Runnable cancelUpstream, Listener listener) {
+        this.id = id;
+        this.deliveryExecutor = deliveryExecutor;
+        this.maxQueuedEvents = maxQueuedEvents;
+        this.sendTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(sendTimeoutMs);
+        this.ownerKey = ownerKey;
+        this.buffered = buffered;
+        this.maxEvents = maxEvents;
+        this.maxBytes = maxBytes;
+        this.cancelUpstream = cancelUpstream;
+        this.listener = listener;
+        this.buffer = buffered ? new ArrayDeque<>() : null;
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public String ownerKey() {
+        return ownerKey;
+    }
+
+    public boolean isBuffered() {
+        return buffered;
+    }
+
+    /**
+     * 推送一个上游事件：缓冲流先编号入缓冲，再写给所有订阅者；写失败的订阅者被移除
+     */
+    public void publish(StreamEvent event) {
+        StreamSubscriber[] targets;
+        synchronized (this) {
+            if (completed || cancelled) {
+                return;
+            }
+            if (buffered) {
+                event = event.withId(++lastId);
+                buffer(event);
+            }
+            targets = snapshot();
+        }
+        deliver(event, targets);
+    }
+
+    /**
+     * 推送一个状态事件（如排队位置）：不编号、不入缓冲，只写给当前订阅者，续传时不会补发
+     */
+    public void publishTransient(StreamEvent event) {
+        StreamSubscriber[] targets;
+        synchronized (this) {
+            if (completed || cancelled) {
+                return;
+            }
+            targets = snapshot();
+        }
+        deliver(event, targets);
+    }
+
+    private void buffer(StreamEvent event) {
+        buffer.addLast(event);
+        bufferedBytes += event.sizeBytes();
+        while (buffer.size() > 1 && (buffer.size() > maxEvents || bufferedBytes > maxBytes)) {
+            bufferedBytes -= buffer.removeFirst().sizeBytes();
+        }
+    }
+
+    private StreamSubscriber[] snapshot() {
+        return subscribers.isEmpty() ? null : subscribers.toArray(new StreamSubscriber[0]);
+    }
+
+    /**
+     * 在锁外交给订阅者快照：有执行器时入队后返回，否则直接写出；写失败、队列溢出或写出超时的订阅者被移除
+     */
+    private void deliver(StreamEvent event, StreamSubscriber[] targets) {
+        if (targets == null) {
+            return;
+        }
+        for (StreamSubscriber subscriber : targets) {
+            if (deliveryExecutor == null) {
+                if (!subscriber.send(event)) {
+                    detach(subscriber);
+                }
+            } else if (sendTimeoutNanos > 0 && subscriber.writingNanos() > sendTimeoutNanos) {
+                drop(subscriber, "SSE subscriber write stalled");
+            } else if (!subscriber.enqueue(event, maxQueuedEvents)) {
+                drop(subscriber, "SSE subscriber queue overflow");
+            } else {
+                scheduleDrain(subscriber);
+            }
+        }
+    }
+
+    /**
+     * 断开跟不上的订阅者；emitter 的结束与写出共用同一把锁，交给执行器以免等待卡住的写出
+     */
+    private void drop(StreamSubscriber subscriber, String reason) {
+        detach(subscriber);
+        deliveryExecutor.execute(() -> subscriber.abort(reason));
+    }
+
+    private void scheduleDrain(StreamSubscriber subscriber) {
+        if (subscriber.claimDrain()) {
+            deliveryExecutor.execute(() -> drain(subscriber));
+        }
+    }
+
+    /**
+     * 在执行器上写出订阅者队列中的事件，队列写空后按需结束连接
+     */
+    private void drain(StreamSubscriber subscriber) {
+        StreamEvent event;
+        while ((event = subscriber.nextQueued()) != null) {
+            if (!subscriber.send(event)) {
+                detach(subscriber);
+                return;
+            }
+        }
+        if (subscriber.isFinishing()) {
+            subscriber.complete();
+        }
+    }
+
+    /**
+     * 挂载订阅者，补发 lastEventId 之后仍在缓冲中的事件（首次挂载传 0）
+     */
+    public AttachResult attach(StreamSubscriber subscriber, long lastEventId) {
+        boolean live = false;
+        boolean reactivated = false;
+        long sent = lastEventId;
+        // 锁内取出待补发的事件、锁外写出，直到追上 lastId 后在同一把锁内挂载，不会漏发或重复
+        while (true) {
+            List<StreamEvent> pending = null;
+            synchronized (this) {
+                if (cancelled) {
+                    return AttachResult.EXPIRED;
+                }
+                if (buffered && sent < lastId) {
+                    long firstBuffered = buffer.isEmpty() ? lastId + 1 : buffer.peekFirst().id();
+                    if (sent + 1 < firstBuffered) {
+                        if (sent == lastEventId) {
+                            return AttachResult.GAP;
+                        }
+                        // 补发期间后续事件已被淘汰：断开，由客户端凭 Last-Event-ID 再次续传
+                        subscriber.abort("SSE replay fell behind the buffer");
+                        return AttachResult.ATTACHED;
+                    }
+                    pending = new ArrayList<>();
+                    for (StreamEvent event : buffer) {
+                        if (event.id() > sent) {
+                            pending.add(event);
+                        }
+                    }
+                } else if (completed) {
+                    break;
+                } else {
+                    reactivated = subscribers.isEmpty();
+                    subscribers.add(subscriber);
+                    live = true;
+                    break;
+                }
+            }
+            for (StreamEvent event : pending) {
+                if (!subscriber.send(event)) {
+                    return AttachResult.ATTACHED;
+                }
+                sent = event.id();
+            }
+        }
+        if (!live) {
+            // 已结束的流：补发完毕后结束连接
+            subscriber.complete();
+            return AttachResult.ATTACHED;
+        }
+        if (reactivated) {
+            listener.onActive(this);
+        }
+        return AttachResult.ATTACHED;
+    }
+
+    /**
+     * 订阅者连接结束（完成、超时或出错）时移除
+     */
+    public void detach(StreamSubscriber subscriber) {
+        boolean idle;
+        synchronized (this) {
+            idle = subscribers.remove(subscriber) && subscribers.isEmpty() && !completed && !cancelled;
+        }
+        if (idle) {
+            listener.onIdle(this);
+        }
+    }
+
+    /**
+     * 登记流结束（正常结束、失败或取消）时执行一次的回调；流已结束时立即执行
+     */
+    public void onClose(Runnable hook) {
+        synchronized (this) {
+            if (!completed && !cancelled) {
+                closeHook = hook;
+                return;
+            }
+        }
+        hook.run();
+    }
+
+    private synchronized Runnable takeCloseHook() {
+        Runnable hook = closeHook;
+        closeHook = null;
+        return hook;
+    }
+
+    /**
+     * 流结束：写出所有订阅者的缓冲与发送队列并结束连接；缓冲流的事件缓冲保留到回收为止
+     */
+    public void complete() {
+        List<StreamSubscriber> current;
+        synchronized (this) {
+            if (completed || cancelled) {
+                return;
+            }
+            completed = true;
+            current = new ArrayList<>(subscribers);
+            subscribers.clear();
+        }
+        Runnable hook = takeCloseHook();
+        if (hook != null) {
+            hook.run();
+        }
+        for (StreamSubscriber subscriber : current) {
+            if (deliveryExecutor == null) {
+                subscriber.complete();
+            } else {
+                // 排在已入队的事件之后结束连接
+                subscriber.finishAfterQueued();
+                scheduleDrain(subscriber);
+            }
+        }
+        listener.onCompleted(this);
+    }
+
+    /**
+     * 取消流：中断上游并释放缓冲（宽限期内无人续传，或回收已结束的流）
+     */
+    void cancel() {
+        boolean running;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            running = !completed;
+            cancelled = true;
+            if (buffer != null) {
+                buffer.clear();
+                bufferedBytes = 0;
+            }
+        }
+        Runnable hook = takeCloseHook();
+        if (hook != null) {
+            hook.run();
+        }
+        if (running) {
+            cancelUpstream.run();
+        }
+    }
+
+    public synchronized int subscriberCount() {
+        return subscribers.size();
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    public synchronized long bufferedBytes() {
+        return bufferedBytes;
+    }
+}
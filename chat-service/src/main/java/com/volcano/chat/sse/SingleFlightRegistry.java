@@ -0,0 +1,182 @@
+package com.volcano.chat.sse;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 单飞（single-flight）登记：相同的可缓存请求同一时刻只向 Coze 发起一次
+ *
+ * 首个请求（leader）照常经过准入并调用上游，以请求键登记自己的 LiveStream；
+ * 进行中出现相同请求时（follower）直接挂载到该流，先补发已生成的前缀再接收实时事件，不占用准入名额。
+ * 流结束、失败或取消时自动注销；leader 成功结束时注销并取回 follower 的聊天记录 ID，由调用方统一回填答案。
+ *
+ * 指标：chat.single_flight.requests{role=leader|follower}、chat.single_flight.in_flight。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SingleFlightRegistry {
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${chat.single-flight.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * 单次上游调用最多挂载的 follower 数，超过后新请求各自调用上游
+     */
+    @Value("${chat.single-flight.max-followers:500}")
+    private int maxFollowers;
+
+    private final ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<>();
+
+    private Counter leaders;
+    private Counter followers;
+
+    @PostConstruct
+    public void init() {
+        leaders = counter("leader");
+        followers = counter("follower");
+        Gauge.builder("chat.single_flight.in_flight", flights, ConcurrentHashMap::size)
+                .description("Upstream calls currently shared by identical requests").register(meterRegistry);
+        if (enabled) {
+            log.info("Single-flight enabled - max followers per upstream call: {}", maxFollowers);
+        }
+    }
+
+    private Counter counter(String role) {
+        return Counter.builder("chat.single_flight.requests").tag("role", role).register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 以请求键登记 leader 的流；流未缓冲（无法为后来者补发前缀）或相同请求已在进行时返回 false
+     */
+    public boolean lead(String key, LiveStream stream) {
+        if (!enabled || !stream.isBuffered()) {
+            return false;
+        }
+        Flight flight = new Flight(stream);
+        if (flights.putIfAbsent(key, flight) != null) {
+            return false;
+        }
+        stream.flightKey = key;
+        stream.onClose(() -> {
+            if (flights.remove(key, flight)) {
+                flight.finish(null);
+            }
+        });
+        leaders.increment();
+        return true;
+    }
+
+    /**
+     * 查找相同请求进行中的上游调用
+     */
+    public Flight find(String key) {
+        return enabled ? flights.get(key) : null;
+    }
+
+    /**
+     * 作为 follower 挂载：补发缓冲前缀并接收后续事件。
+     * 名额已满、前缀已超出缓冲或流已回收时返回 false，调用方应自行调用上游
+     */
+    public boolean join(Flight flight, StreamSubscriber subscriber) {
+        if (!flight.reserve(maxFollowers)) {
+            return false;
+        }
+        if (flight.stream.attach(subscriber, 0) != LiveStream.AttachResult.ATTACHED) {
+            flight.unreserve();
+            return false;
+        }
+        followers.increment();
+        return true;
+    }
+
+    /**
+     * leader 成功结束（在 stream.complete 之前调用）：注销并返回需要回填答案的 follower 记录 ID
+     */
+    public List<Long> complete(LiveStream stream, String answer) {
+        String key = stream.flightKey;
+        if (key == null) {
+            return List.of();
+        }
+        Flight flight = flights.get(key);
+        if (flight == null || flight.stream != stream || !flights.remove(key, flight)) {
+            return List.of();
+        }
+        return flight.finish(answer);
+    }
+
+    /**
+     * 一次被共享的上游调用
+     */
+    public static final class Flight {
+
+        private final LiveStream stream;
+        private final List<Long> recordIds = new ArrayList<>();
+        private int followers;
+        private boolean finished;
+        private String answer;
+
+        private Flight(LiveStream stream) {
+            this.stream = stream;
+        }
+
+        public LiveStream stream() {
+            return stream;
+        }
+
+        private synchronized boolean reserve(int max) {
+            if (finished || followers >= max) {
+                return false;
+            }
+            followers++;
+            return true;
+        }
+
+        private synchronized void unreserve() {
+            followers--;
+        }
+
+        /**
+         * 登记 follower 的聊天记录，leader 结束时统一回填；
+         * leader 已结束时返回 false，调用方按 answer() 自行回填
+         */
+        public synchronized boolean addRecord(Long recordId) {
+            if (finished) {
+                return false;
+            }
+            if (recordId != null) {
+                recordIds.add(recordId);
+            }
+            return true;
+        }
+
+        /**
+         * leader 的最终回答；未结束或失败、取消时为 null
+         */
+        public synchronized String answer() {
+            return answer;
+        }
+
+        private synchronized List<Long> finish(String answer) {
+            finished = true;
+            this.answer = answer;
+            return List.copyOf(recordIds);
+        }
+    }
+}
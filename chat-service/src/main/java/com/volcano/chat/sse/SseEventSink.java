@@ -0,0 +1,29 @@
+package com.volcano.chat.sse;
+
+import java.io.IOException;
+
+/**
+ * 单个订阅者的下游输出
+ *
+ * 事件经由 sink 写给前端，便于在发送前叠加合并、缓冲等处理阶段。
+ */
+public interface SseEventSink {
+
+    /**
+     * 发送事件：带原始帧时原样写出帧字节，否则重新构建 SSE 事件
+     */
+    void send(StreamEvent event) throws IOException;
+
+    /**
+     * 立即写出所有缓冲中的事件
+     */
+    default void flush() throws IOException {
+    }
+
+    /**
+     * 流结束：写出缓冲并释放定时器等资源，之后不再发送
+     */
+    default void close() throws IOException {
+        flush();
+    }
+}
@@ -0,0 +1,82 @@
+package com.volcano.chat.sse;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 上游 SSE 帧（字节级）
+ *
+ * raw 为完整帧字节（含 event:/data: 行与结尾空行），可原样写给前端；
+ * data 仅在调用 {@link #data()} 时才按 UTF-8 解码，不需要检查内容的事件不产生任何字符串。
+ */
+public final class SseFrame {
+
+    private final String event;
+    private final byte[] raw;
+    private final int[] dataSpans;
+    private final int dataSpanCount;
+    private String data;
+
+    SseFrame(String event, byte[] raw, int[] dataSpans, int dataSpanCount) {
+        this.event = event;
+        this.raw = raw;
+        this.dataSpans = dataSpans;
+        this.dataSpanCount = dataSpanCount;
+    }
+
+    /**
+     * 事件名（event: 字段），没有 event: 行时为空字符串
+     */
+    public String event() {
+        return event;
+    }
+
+    /**
+     * 完整帧字节，调用方不得修改
+     */
+    public byte[] raw() {
+        return raw;
+    }
+
+    public boolean hasData() {
+        return dataSpanCount > 0;
+    }
+
+    public int dataLineCount() {
+        return dataSpanCount;
+    }
+
+    /**
+     * 第一行 data 在 raw 中的起始位置
+     */
+    public int dataOffset() {
+        return dataSpans[0];
+    }
+
+    /**
+     * 第一行 data 的字节长度
+     */
+    public int dataLength() {
+        return dataSpans[1];
+    }
+
+    /**
+     * data: 字段内容（多行 data 以 \n 连接），首次调用时解码并缓存
+     */
+    public String data() {
+        if (data == null) {
+            if (dataSpanCount == 1) {
+                data = new String(raw, dataSpans[0], dataSpans[1], StandardCharsets.UTF_8);
+            } else {
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < dataSpanCount; i++) {
+                    if (i > 0) {
+                        sb.append('\n');
+                    }
+                    sb.append(new String(raw, dataSpans[i * 2], dataSpans[i * 2 + 1], StandardCharsets.UTF_8));
+                }
+                data = sb.toString();
+            }
+        }
+        return data;
+    }
+}
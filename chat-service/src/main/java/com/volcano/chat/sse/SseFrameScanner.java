@@ -0,0 +1,169 @@
+package com.volcano.chat.sse;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * 字节级 SSE 帧扫描器
+ *
+ * 直接在上游字节流中查找行与帧边界（LF / CRLF，空行结束一帧），
+ * 只解码很短的 event 名称，data 保持为字节区间，由 {@link SseFrame#data()} 按需解码。
+ * 每个完整帧只做一次拷贝（从累积缓冲区拷出 raw 字节）。非线程安全，每个流一个实例。
+ */
+public class SseFrameScanner {
+
+    private static final byte[] EVENT_PREFIX = "event:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DATA_PREFIX = "data:".getBytes(StandardCharsets.US_ASCII);
+
+    private final Consumer<SseFrame> sink;
+
+    /** 当前帧累积字节 */
+    private byte[] frame = new byte[1024];
+    private int frameLen;
+    /** 当前行在 frame 中的起始位置 */
+    private int lineStart;
+    /** 待确认的 CR 位置（CRLF 或裸 CR 均为行结束），-1 表示无 */
+    private int pendingCr = -1;
+    /** 堆外 ByteBuffer 的分段拷贝缓冲 */
+    private byte[] scratch;
+
+    private String event = "";
+    private int[] dataSpans = new int[4];
+    private int dataSpanCount;
+
+    public SseFrameScanner(Consumer<SseFrame> sink) {
+        this.sink = sink;
+    }
+
+    public void feed(byte[] buf, int off, int len) {
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            byte b = buf[i];
+            if (pendingCr >= 0) {
+                int cr = pendingCr;
+                pendingCr = -1;
+                if (b == '\n') {
+                    // CRLF：LF 属于同一个行结束符
+                    append(b);
+                    endLine(cr);
+                    continue;
+                }
+                endLine(cr);
+            }
+            append(b);
+            if (b == '\r') {
+                pendingCr = frameLen - 1;
+            } else if (b == '\n') {
+                endLine(frameLen - 1);
+            }
+        }
+    }
+
+    public void feed(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            feed(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+        } else {
+            if (scratch == null) {
+                scratch = new byte[8192];
+            }
+            while (buffer.hasRemaining()) {
+                int n = Math.min(buffer.remaining(), scratch.length);
+                buffer.get(scratch, 0, n);
+                feed(scratch, 0, n);
+            }
+        }
+    }
+
+    /**
+     * 上游结束：未以空行结尾的最后一帧按完整帧处理，并补齐缺失的行结束符与结束空行，
+     * 原样透传 raw 时浏览器才会派发该事件，也不会与下一帧粘连
+     */
+    public void finish() {
+        if (pendingCr >= 0) {
+            int cr = pendingCr;
+            pendingCr = -1;
+            endLine(cr);
+        }
+        if (frameLen > lineStart) {
+            append((byte) '\n');
+            endLine(frameLen - 1);
+        }
+        if (frameLen > 0) {
+            if (frame[frameLen - 1] == '\r') {
+                // 裸 CR 后直接补 LF 会被当作 CRLF，需再补一个 LF 才是空行
+                append((byte) '\n');
+            }
+            append((byte) '\n');
+            emit();
+        }
+    }
+
+    private void endLine(int lineEnd) {
+        int start = lineStart;
+        lineStart = frameLen;
+        if (lineEnd == start) {
+            // 空行：帧结束
+            emit();
+            return;
+        }
+        if (startsWith(start, lineEnd, EVENT_PREFIX)) {
+            int s = skipSpace(start + EVENT_PREFIX.length, lineEnd);
+            event = new String(frame, s, trimEnd(s, lineEnd) - s, StandardCharsets.UTF_8);
+        } else if (startsWith(start, lineEnd, DATA_PREFIX)) {
+            int s = skipSpace(start + DATA_PREFIX.length, lineEnd);
+            if (dataSpanCount * 2 == dataSpans.length) {
+                dataSpans = Arrays.copyOf(dataSpans, dataSpans.length * 2);
+            }
+            dataSpans[dataSpanCount * 2] = s;
+            dataSpans[dataSpanCount * 2 + 1] = trimEnd(s, lineEnd) - s;
+            dataSpanCount++;
+        }
+    }
+
+    private void emit() {
+        if (!event.isEmpty() || dataSpanCount > 0) {
+            byte[] raw = Arrays.copyOf(frame, frameLen);
+            sink.accept(new SseFrame(event, raw, Arrays.copyOf(dataSpans, dataSpanCount * 2), dataSpanCount));
+        }
+        frameLen = 0;
+        lineStart = 0;
+        event = "";
+        dataSpanCount = 0;
+    }
+
+    private void append(byte b) {
+        if (frameLen == frame.length) {
+            frame = Arrays.copyOf(frame, frame.length * 2);
+        }
+        frame[frameLen++] = b;
+    }
+
+    private boolean startsWith(int start, int end, byte[] prefix) {
+        if (end - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (frame[start + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int skipSpace(int from, int end) {
+        while (from < end && frame[from] == ' ') {
+            from++;
+        }
+        return from;
+    }
+
+    private int trimEnd(int start, int end) {
+        while (end > start && (frame[end - 1] == ' ' || frame[end - 1] == '\t')) {
+            end--;
+        }
+        return end;
+    }
+}
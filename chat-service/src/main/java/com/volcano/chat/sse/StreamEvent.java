@@ -0,0 +1,64 @@
+package com.volcano.chat.sse;
+
+/**
+ * 发往前端的单个 SSE 事件
+ *
+ * event 模式下持有解码后的 data；raw 模式下持有上游原始帧，data 按需解码。
+ * id 为流内单调递增的事件序号（可恢复流才分配，0 表示不输出 id 字段）。
+ */
+public final class StreamEvent {
+
+    private final long id;
+    private final String event;
+    private final String data;
+    private final SseFrame frame;
+
+    private StreamEvent(long id, String event, String data, SseFrame frame) {
+        this.id = id;
+        this.event = event;
+        this.data = data;
+        this.frame = frame;
+    }
+
+    public static StreamEvent of(String event, String data) {
+        return new StreamEvent(0, event, data, null);
+    }
+
+    public static StreamEvent of(SseFrame frame) {
+        return new StreamEvent(0, frame.event(), null, frame);
+    }
+
+    /**
+     * 同一事件以新的序号重新标记
+     */
+    public StreamEvent withId(long id) {
+        return new StreamEvent(id, event, data, frame);
+    }
+
+    public long id() {
+        return id;
+    }
+
+    public String event() {
+        return event;
+    }
+
+    public String data() {
+        return data != null ? data : frame.data();
+    }
+
+    /**
+     * 原始上游帧，event 模式或合并后的事件为 null
+     */
+    public SseFrame frame() {
+        return frame;
+    }
+
+    /**
+     * 缓冲占用的估算字节数（字符串按 UTF-16 计）
+     */
+    public int sizeBytes() {
+        int size = 64 + event.length() * 2;
+        return frame != null ? size + frame.raw().length : size + data.length() * 2;
+    }
+}
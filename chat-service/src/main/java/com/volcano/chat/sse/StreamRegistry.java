@@ -0,0 +1,301 @@
+package com.volcano.chat.sse;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SSE 流注册表：断线续传与多订阅者共享
+ *
+ * - 续传（chat.sse.resume.enabled）：每个上游流分配随机 streamId，客户端断线后可在宽限期内凭 Last-Event-ID 续传；
+ *   订阅者全部离开时不立即取消上游，宽限期内无人续传才取消，流结束后缓冲同样保留一个宽限期
+ * - 共享（chat.sse.fanout.enabled）：收到 conversation.chat.created 后按 会话 + conversation + chat 建立索引，
+ *   同一会话的其他标签页可挂载到进行中的生成，先补发缓冲前缀再接收实时事件；最后一个订阅者离开才取消上游
+ * - 内存上限：单流缓冲受 buffer-max-events / buffer-max-kb 约束，缓冲流数量受 max-total-mb 约束；
+ *   名额用尽时优先淘汰最早结束的流，仍无名额则新流退化为不缓冲
+ * - 单飞（chat.single-flight.enabled）：可合并的请求即使未启用续传/共享也开启缓冲，供相同请求的后来者补发前缀；
+ *   这类流结束后立即回收，最后一个订阅者离开即取消上游
+ * - 都未启用时流不登记、不编号，客户端断开即取消上游（与原行为一致）
+ */
+@Slf4j
+@Component
+public class StreamRegistry implements LiveStream.Listener {
+
+    @Value("${chat.sse.resume.enabled:false}")
+    private boolean resumeEnabled;
+
+    @Value("${chat.sse.fanout.enabled:false}")
+    private boolean fanoutEnabled;
+
+    @Value("${chat.sse.resume.grace-ms:30000}")
+    private long graceMs;
+
+    @Value("${chat.sse.resume.buffer-max-events:2000}")
+    private int bufferMaxEvents;
+
+    @Value("${chat.sse.resume.buffer-max-kb:256}")
+    private int bufferMaxKb;
+
+    @Value("${chat.sse.resume.max-total-mb:64}")
+    private long maxTotalMb;
+
+    /**
+     * 单次写给订阅者的时间上限，超出即断开该订阅者（0 不限制）
+     */
+    @Value("${chat.sse.subscriber-send-timeout-ms:5000}")
+    private long sendTimeoutMs;
+
+    /**
+     * 每个订阅者发送队列的事件数上限，写出跟不上时超出即断开该订阅者（0 不限制）
+     */
+    @Value("${chat.sse.subscriber-queue-max-events:1000}")
+    private int queueMaxEvents;
+
+    private int maxStreams;
+
+    /** 按登记顺序保存，淘汰时从最早的已结束流开始；两个索引与之共用同一把锁 */
+    private final Map<String, LiveStream> streams = new LinkedHashMap<>();
+    /** 会话 + conversation + chat -> 流 */
+    private final Map<String, LiveStream> generations = new HashMap<>();
+    /** 会话 + conversation -> 最近一次生成，供不知道 chat_id 的订阅者挂载 */
+    private final Map<String, LiveStream> latestGenerations = new HashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private ScheduledExecutorService scheduler;
+    /** 写出订阅者发送队列；每个订阅者同一时刻至多占用一个线程，卡住的连接只占住自己的线程 */
+    private ExecutorService deliveryExecutor;
+
+    @PostConstruct
+    public void init() {
+        bufferMaxEvents = Math.max(1, bufferMaxEvents);
+        bufferMaxKb = Math.max(1, bufferMaxKb);
+        maxStreams = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxTotalMb * 1024 / bufferMaxKb));
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setName("sse-resume-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger deliveryThreads = new AtomicInteger();
+        deliveryExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setName("sse-subscriber-" + deliveryThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (isBuffering()) {
+            log.info("SSE stream registry - resume: {}, fan-out: {}, grace: {}ms, buffer: {} events / {}KB per stream, "
+                    + "max streams: {}", resumeEnabled, fanoutEnabled, graceMs, bufferMaxEvents, bufferMaxKb, maxStreams);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (deliveryExecutor != null) {
+            deliveryExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * 为新的上游流创建分发点
+     *
+     * @param ownerKey 续传与共享的鉴权依据（会话 ID），只有同一会话可以挂载
+     * @param cancelUpstream 取消上游的动作
+     */
+    public LiveStream open(String ownerKey, Runnable cancelUpstream) {
+        return open(ownerKey, cancelUpstream, false);
+    }
+
+    /**
+     * @param shareable 该流可能被相同请求合并挂载（单飞），需要缓冲以补发前缀
+     */
+    public LiveStream open(String ownerKey, Runnable cancelUpstream, boolean shareable) {
+        if (isBuffering() || shareable) {
+            LiveStream stream = null;
+            LiveStream evicted = null;
+            synchronized (streams) {
+                if (streams.size() >= maxStreams) {
+                    evicted = removeOldestCompleted();
+                }
+                if (streams.size() < maxStreams) {
+                    String id = newStreamId();
+                    stream = new LiveStream(id, ownerKey, true, bufferMaxEvents,
+                            bufferMaxKb * 1024L, deliveryExecutor, queueMaxEvents, sendTimeoutMs, cancelUpstream, this);
+                    streams.put(id, stream);
+                }
+            }
+            // 在注册表锁外释放，避免与流自身的锁交叉
+            if (evicted != null) {
+                evicted.cancel();
+            }
+            if (stream != null) {
+                return stream;
+            }
+            log.warn("SSE stream buffer capacity exhausted ({} streams), stream will not be resumable or shared",
+                    maxStreams);
+        }
+        return new LiveStream(null, ownerKey, false, 0, 0, deliveryExecutor, queueMaxEvents, sendTimeoutMs,
+                cancelUpstream, this);
+    }
+
+    /**
+     * 按 streamId 查找可续传的流（未启用、已回收或不存在时返回 null）
+     */
+    public LiveStream find(String streamId) {
+        if (!resumeEnabled || streamId == null) {
+            return null;
+        }
+        synchronized (streams) {
+            return streams.get(streamId);
+        }
+    }
+
+    /**
+     * 收到 conversation.chat.created 后登记生成索引，供同一会话的其他订阅者挂载
+     */
+    public void bindGeneration(LiveStream stream, String conversationId, String chatId) {
+        if (!fanoutEnabled || !stream.isBuffered() || conversationId == null || chatId == null) {
+            return;
+        }
+        String conversationKey = stream.ownerKey() + '\n' + conversationId;
+        String generationKey = conversationKey + '\n' + chatId;
+        synchronized (streams) {
+            if (!streams.containsKey(stream.id())) {
+                return;
+            }
+            stream.conversationKey = conversationKey;
+            stream.generationKey = generationKey;
+            generations.put(generationKey, stream);
+            latestGenerations.put(conversationKey, stream);
+        }
+    }
+
+    /**
+     * 查找同一会话中进行中（或宽限期内已结束）的生成
+     *
+     * @param chatId 为空时返回该 conversation 最近一次生成
+     */
+    public LiveStream findGeneration(String ownerKey, String conversationId, String chatId) {
+        if (!fanoutEnabled || ownerKey == null || conversationId == null) {
+            return null;
+        }
+        String conversationKey = ownerKey + '\n' + conversationId;
+        synchronized (streams) {
+            return chatId == null || chatId.isEmpty()
+                    ? latestGenerations.get(conversationKey)
+                    : generations.get(conversationKey + '\n' + chatId);
+        }
+    }
+
+    public boolean isResumeEnabled() {
+        return resumeEnabled;
+    }
+
+    public int size() {
+        synchronized (streams) {
+            return streams.size();
+        }
+    }
+
+    private boolean isBuffering() {
+        return resumeEnabled || fanoutEnabled;
+    }
+
+    private LiveStream removeOldestCompleted() {
+        Iterator<LiveStream> it = streams.values().iterator();
+        while (it.hasNext()) {
+            LiveStream stream = it.next();
+            if (stream.isCompleted()) {
+                it.remove();
+                unindex(stream);
+                return stream;
+            }
+        }
+        return null;
+    }
+
+    private void unindex(LiveStream stream) {
+        if (stream.generationKey != null) {
+            generations.remove(stream.generationKey, stream);
+            latestGenerations.remove(stream.conversationKey, stream);
+        }
+    }
+
+    private String newStreamId() {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    @Override
+    public void onIdle(LiveStream stream) {
+        // 只有续传需要在无人订阅时保留上游；仅共享时最后一个订阅者离开即取消
+        if (!stream.isBuffered() || !resumeEnabled || graceMs <= 0) {
+            expire(stream);
+            return;
+        }
+        schedule(stream, () -> {
+            if (stream.subscriberCount() == 0 && !stream.isCompleted()) {
+                log.debug("SSE stream {} not resumed within {}ms, cancelling upstream", stream.id(), graceMs);
+                expire(stream);
+            }
+        });
+    }
+
+    @Override
+    public void onActive(LiveStream stream) {
+        ScheduledFuture<?> task = stream.pendingTask;
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
+    @Override
+    public void onCompleted(LiveStream stream) {
+        if (!stream.isBuffered()) {
+            return;
+        }
+        // 只为单飞缓冲的流无人需要续传，结束即回收
+        if (graceMs <= 0 || !isBuffering()) {
+            expire(stream);
+        } else {
+            schedule(stream, () -> expire(stream));
+        }
+    }
+
+    private void schedule(LiveStream stream, Runnable task) {
+        ScheduledFuture<?> previous = stream.pendingTask;
+        if (previous != null) {
+            previous.cancel(false);
+        }
+        stream.pendingTask = scheduler.schedule(task, graceMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void expire(LiveStream stream) {
+        if (stream.isBuffered()) {
+            synchronized (streams) {
+                if (streams.remove(stream.id(), stream)) {
+                    unindex(stream);
+                }
+            }
+        }
+        stream.cancel();
+    }
+}
@@ -0,0 +1,148 @@
+package com.volcano.chat.sse;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+/**
+ * 挂在 LiveStream 上的一个前端连接：emitter 负责连接生命周期，sink 负责写出（可叠加合并阶段）
+ */
+@Slf4j
+public class StreamSubscriber {
+
+    private final SseEmitter emitter;
+    private final SseEventSink sink;
+    private volatile boolean closed;
+
+    // 发送队列由 queueLock 保护（写出期间持有 this，入队不能等它）；draining 表示已有写出任务在运行
+    private final Object queueLock = new Object();
+    private final ArrayDeque<StreamEvent> outbound = new ArrayDeque<>();
+    private boolean draining;
+    private boolean finishing;
+    /** 当前写出开始的时间，0 表示未在写出 */
+    private volatile long writeStartedNanos;
+
+    public StreamSubscriber(SseEmitter emitter, SseEventSink sink) {
+        this.emitter = emitter;
+        this.sink = sink;
+    }
+
+    public SseEmitter emitter() {
+        return emitter;
+    }
+
+    /**
+     * 写出事件；写失败（客户端断开）时以错误结束该连接并返回 false。
+     * 同一连接的写出串行进行（上游中继与排队状态可能来自不同线程）
+     */
+    synchronized boolean send(StreamEvent event) {
+        if (closed) {
+            return false;
+        }
+        writeStartedNanos = System.nanoTime();
+        try {
+            sink.send(event);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            log.debug("Failed to relay SSE event to subscriber: {}", e.getMessage());
+            closed = true;
+            emitter.completeWithError(e);
+            return false;
+        } finally {
+            writeStartedNanos = 0;
+        }
+    }
+
+    /**
+     * 当前这次写出已持续的时间，未在写出时为 0
+     */
+    long writingNanos() {
+        long started = writeStartedNanos;
+        return started == 0 ? 0 : System.nanoTime() - started;
+    }
+
+    /**
+     * 追加一个待写出的事件；连接已结束或队列已满（maxQueued 大于 0 时）返回 false
+     */
+    boolean enqueue(StreamEvent event, int maxQueued) {
+        synchronized (queueLock) {
+            if (closed || (maxQueued > 0 && outbound.size() >= maxQueued)) {
+                return false;
+            }
+            outbound.addLast(event);
+            return true;
+        }
+    }
+
+    /**
+     * 队列写空后结束连接
+     */
+    void finishAfterQueued() {
+        synchronized (queueLock) {
+            finishing = true;
+        }
+    }
+
+    boolean isFinishing() {
+        synchronized (queueLock) {
+            return finishing;
+        }
+    }
+
+    /**
+     * 取得写出权：已有写出任务在运行或无事可做时返回 false
+     */
+    boolean claimDrain() {
+        synchronized (queueLock) {
+            if (draining || (outbound.isEmpty() && !finishing)) {
+                return false;
+            }
+            draining = true;
+            return true;
+        }
+    }
+
+    /**
+     * 取下一个待写出的事件；队列已空或连接已结束时返回 null，并交还写出权（待结束时保留，由当前写出者结束连接）
+     */
+    StreamEvent nextQueued() {
+        synchronized (queueLock) {
+            StreamEvent event = closed ? null : outbound.pollFirst();
+            if (event == null) {
+                outbound.clear();
+                draining = finishing;
+            }
+            return event;
+        }
+    }
+
+    /**
+     * 以错误结束连接（如写出过慢），客户端可凭 Last-Event-ID 续传
+     */
+    void abort(String reason) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        log.debug("Dropping SSE subscriber: {}", reason);
+        emitter.completeWithError(new IOException(reason));
+    }
+
+    /**
+     * 写出缓冲中的事件并正常结束连接
+     */
+    synchronized void complete() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            sink.close();
+        } catch (IOException | RuntimeException e) {
+            log.debug("Failed to flush SSE subscriber: {}", e.getMessage());
+        }
+        emitter.complete();
+    }
+}
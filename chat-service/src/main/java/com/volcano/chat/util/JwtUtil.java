@@ -2,18 +2,27 @@ package com.volcano.chat.util;
 
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.security.Keys;
 import lombok.extern.slf4j.Slf4j;
 
 import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * JWT Token 工具类
  * 负责生成和验证 JWT Token
+ *
+ * 验证使用一个共享的 JwtParser（不可变、线程安全）。验证通过的 Token 按其 SHA-256 摘要缓存验证结果，
+ * 同一 Token 再次验证（每次对话、取消、历史查询、WebSocket 握手）只需一次摘要计算与查表，
+ * 不再重复 Base64 解码、JSON 解析与 HMAC 校验。条目随 Token 过期失效，验证失败的结果不缓存。
  */
 @Slf4j
 public class JwtUtil {
@@ -27,6 +36,19 @@ public class JwtUtil {
     // 密钥长度建议至少 256 位 (32 字节)
     private static final String SECRET = "volcano-chat-service-jwt-secret-key-2024";
     private static final SecretKey SECRET_KEY = Keys.hmacShaKeyFor(SECRET.getBytes(StandardCharsets.UTF_8));
+    private static final JwtParser PARSER = Jwts.parserBuilder().setSigningKey(SECRET_KEY).build();
+
+    // 已验证 Token 缓存上限，满时先清理已过期条目，仍满则不再缓存新 Token
+    private static final int MAX_VERIFIED_TOKENS = 10000;
+    private static final ConcurrentHashMap<ByteBuffer, JwtValidationResult> VERIFIED = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
 
     /**
      * 生成 JWT Token
@@ -35,8 +57,19 @@ public class JwtUtil {
      * @return JWT Token
      */
     public static String generateToken(String subject) {
+        return generateToken(subject, EXPIRE_TIME_MS);
+    }
+
+    /**
+     * 生成指定有效期的 JWT Token
+     *
+     * @param subject  主题（如用户手机号）
+     * @param expireMs 有效期（毫秒）
+     * @return JWT Token
+     */
+    public static String generateToken(String subject, long expireMs) {
         Date now = new Date();
-        Date expireTime = new Date(now.getTime() + EXPIRE_TIME_MS);
+        Date expireTime = new Date(now.getTime() + expireMs);
 
         return Jwts.builder()
                 .setSubject(subject)
@@ -53,16 +86,37 @@ public class JwtUtil {
      * @return 验证结果
      */
     public static JwtValidationResult validateToken(String token) {
+        return validateToken(token, System.currentTimeMillis());
+    }
+
+    static JwtValidationResult validateToken(String token, long nowMillis) {
         if (token == null || token.isEmpty()) {
             return JwtValidationResult.invalid("Token is empty");
         }
 
+        ByteBuffer digest = digest(token);
+        JwtValidationResult cached = VERIFIED.get(digest);
+        if (cached != null) {
+            if (cached.expiration() == null || cached.expiration().getTime() > nowMillis) {
+                return cached;
+            }
+            VERIFIED.remove(digest, cached);
+            return JwtValidationResult.invalid("Token expired");
+        }
+
+        JwtValidationResult result = verify(token);
+        if (result.valid()) {
+            remember(digest, result, nowMillis);
+        }
+        return result;
+    }
+
+    /**
+     * 完整验证（签名与过期时间），不经过缓存
+     */
+    static JwtValidationResult verify(String token) {
         try {
-            Claims claims = Jwts.parserBuilder()
-                    .setSigningKey(SECRET_KEY)
-                    .build()
-                    .parseClaimsJws(token)
-                    .getBody();
+            Claims claims = PARSER.parseClaimsJws(token).getBody();
 
             return JwtValidationResult.valid(claims.getSubject(), claims.getIssuedAt(), claims.getExpiration());
         } catch (ExpiredJwtException e) {
@@ -74,6 +128,24 @@ public class JwtUtil {
         }
     }
 
+    private static void remember(ByteBuffer digest, JwtValidationResult result, long nowMillis) {
+        if (VERIFIED.size() >= MAX_VERIFIED_TOKENS) {
+            VERIFIED.values().removeIf(entry -> entry.expiration() != null && entry.expiration().getTime() <= nowMillis);
+            if (VERIFIED.size() >= MAX_VERIFIED_TOKENS) {
+                return;
+            }
+        }
+        VERIFIED.put(digest, result);
+    }
+
+    private static ByteBuffer digest(String token) {
+        return ByteBuffer.wrap(SHA256.get().digest(token.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    static int verifiedTokens() {
+        return VERIFIED.size();
+    }
+
     /**
      * JWT 验证结果
      */
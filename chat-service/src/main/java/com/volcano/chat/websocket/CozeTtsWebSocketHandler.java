@@ -1,6 +1,11 @@
 package com.volcano.chat.websocket;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.volcano.chat.cache.TtsAudioCache;
 import com.volcano.chat.coze.CozeAccessTokenProvider;
+import com.volcano.chat.sse.DeltaJsonExtractor;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
@@ -9,17 +14,40 @@ import org.springframework.web.socket.client.standard.StandardWebSocketClient;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * TTS WebSocket 代理：前端 ↔ 本服务 ↔ Coze
+ *
+ * 启用 TTS 缓存时，speech.update 记下输出参数后立即转发给 Coze（上游会话配置须与缓存键一致），
+ * input_text_buffer.append 先暂存；收到 input_text_buffer.complete 后以 (输出参数, voice_id, 全文) 查缓存：
+ * 命中则直接回放 speech.audio.update + speech.audio.completed，不再请求 Coze；
+ * 未命中才把暂存的文本发给 Coze，并把返回的 PCM 分片边转发边落盘，speech.audio.completed 时提交到缓存。
+ * 同一连接上前一次合成尚未结束时又收到 complete（流水线请求），无法区分上游分片属于哪次请求：
+ * 丢弃正在落盘的写入器，新请求不查缓存（避免回放与上游分片交错）也不落盘，直接转发给 Coze。
+ */
 @Slf4j
 @Component
 @RequiredArgsConstructor
 public class CozeTtsWebSocketHandler extends TextWebSocketHandler {
 
+    /**
+     * 缓存回放时每条 speech.audio.update 携带的 PCM 字节数（偶数，保证 16bit 采样不被拆开）
+     */
+    private static final int REPLAY_CHUNK_BYTES = 32 * 1024;
+
     private final CozeAccessTokenProvider tokenProvider;
+    private final TtsAudioCache ttsCache;
+    private final ObjectMapper objectMapper;
     private final Map<String, WebSocketSession> cozeSessions = new ConcurrentHashMap<>();
+    private final Map<String, SpeechRequest> speechRequests = new ConcurrentHashMap<>();
 
     @Override
     public void afterConnectionEstablished(WebSocketSession userSession) throws Exception {
@@ -66,6 +94,10 @@ public class CozeTtsWebSocketHandler extends TextWebSocketHandler {
 
             @Override
             public void handleMessage(WebSocketSession cozeSession, WebSocketMessage<?> message) throws Exception {
+                SpeechRequest speech = speechRequests.get(userSession.getId());
+                if (speech != null && message instanceof TextMessage text) {
+                    onCozeEvent(speech, text.getPayload());
+                }
                 if (userSession.isOpen()) {
                     userSession.sendMessage(message);
                 }
@@ -83,6 +115,7 @@ public class CozeTtsWebSocketHandler extends TextWebSocketHandler {
             public void afterConnectionClosed(WebSocketSession cozeSession, CloseStatus closeStatus) throws Exception {
                 log.info("Coze TTS connection closed, session={}, code={}, reason={}",
                         cozeSession.getId(), closeStatus.getCode(), closeStatus.getReason());
+                discardRecording(userSession.getId());
                 if (userSession.isOpen()) {
                     userSession.close(closeStatus);
                 }
@@ -97,7 +130,133 @@ public class CozeTtsWebSocketHandler extends TextWebSocketHandler {
 
     @Override
     protected void handleTextMessage(WebSocketSession userSession, TextMessage message) throws Exception {
-        forwardToCoze(userSession, message);
+        if (!ttsCache.isEnabled()) {
+            forwardToCoze(userSession, message);
+            return;
+        }
+        SpeechRequest speech = speechRequests.computeIfAbsent(userSession.getId(), id -> new SpeechRequest());
+        String payload = message.getPayload();
+        String eventType = DeltaJsonExtractor.stringField(payload, "event_type");
+        if ("speech.update".equals(eventType)) {
+            JsonNode outputAudio = objectMapper.readTree(payload).path("data").path("output_audio");
+            speech.voiceId = outputAudio.path("voice_id").asText("");
+            speech.format = canonicalFormat(outputAudio);
+            forwardToCoze(userSession, message);
+        } else if ("input_text_buffer.append".equals(eventType)) {
+            speech.text.append(objectMapper.readTree(payload).path("data").path("delta").asText(""));
+            speech.pending.add(message);
+        } else if ("input_text_buffer.complete".equals(eventType)) {
+            String key = ttsCache.keyFor(speech.text, speech.voiceId, speech.format);
+            boolean overlapping;
+            synchronized (speech) {
+                overlapping = speech.inFlight > 0;
+                if (overlapping) {
+                    speech.discardRecording();
+                }
+            }
+            TtsAudioCache.Audio cached = key != null && !overlapping ? ttsCache.get(key) : null;
+            if (cached != null) {
+                speech.reset();
+                replay(userSession, cached);
+                return;
+            }
+            synchronized (speech) {
+                speech.inFlight++;
+                speech.recorder = key != null && !overlapping ? ttsCache.writer(key) : null;
+            }
+            if (overlapping) {
+                log.debug("TTS request overlaps an unfinished synthesis, not cached: session={}", userSession.getId());
+            }
+            flushPending(userSession, speech);
+            forwardToCoze(userSession, message);
+        } else {
+            flushPending(userSession, speech);
+            forwardToCoze(userSession, message);
+        }
+    }
+
+    /**
+     * 决定音频字节的输出参数（编码、采样率、语速等，不含 voice_id），按键排序后作为缓存键的格式部分
+     */
+    private String canonicalFormat(JsonNode outputAudio) throws IOException {
+        Map<?, ?> params = outputAudio.isObject() ? objectMapper.convertValue(outputAudio, Map.class) : Map.of();
+        params.remove("voice_id");
+        return "ws:" + objectMapper.writer().with(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS)
+                .writeValueAsString(params);
+    }
+
+    private void flushPending(WebSocketSession userSession, SpeechRequest speech) throws IOException {
+        for (TextMessage pending : speech.pending) {
+            forwardToCoze(userSession, pending);
+        }
+        speech.reset();
+    }
+
+    /**
+     * 按 Coze 的事件格式回放缓存的 PCM
+     */
+    private void replay(WebSocketSession userSession, TtsAudioCache.Audio audio) throws IOException {
+        ByteBuffer data = audio.data();
+        byte[] chunk = new byte[Math.min(REPLAY_CHUNK_BYTES, data.remaining())];
+        int seq = 0;
+        while (data.hasRemaining()) {
+            int n = Math.min(chunk.length, data.remaining());
+            data.get(chunk, 0, n);
+            String delta = Base64.getEncoder().encodeToString(n == chunk.length ? chunk : Arrays.copyOf(chunk, n));
+            userSession.sendMessage(new TextMessage("{\"id\":\"tts-cache-" + seq++
+                    + "\",\"event_type\":\"speech.audio.update\",\"data\":{\"delta\":\"" + delta + "\"}}"));
+        }
+        userSession.sendMessage(new TextMessage("{\"id\":\"tts-cache-" + seq
+                + "\",\"event_type\":\"speech.audio.completed\"}"));
+        log.debug("TTS served from cache: session={}, bytes={}", userSession.getId(), audio.size());
+    }
+
+    /**
+     * Coze 返回的事件：合成完成或出错时结束一次进行中的请求，有写入器时同时落盘
+     */
+    private void onCozeEvent(SpeechRequest speech, String payload) {
+        String eventType = DeltaJsonExtractor.stringField(payload, "event_type");
+        synchronized (speech) {
+            if (speech.recorder != null) {
+                record(speech, eventType, payload);
+            }
+            if ("speech.audio.completed".equals(eventType) || "error".equals(eventType)) {
+                speech.inFlight = Math.max(0, speech.inFlight - 1);
+            }
+        }
+    }
+
+    /**
+     * 把 Coze 返回的音频分片写入缓存；合成完成时提交，出错时丢弃
+     */
+    private void record(SpeechRequest speech, String eventType, String payload) {
+        TtsAudioCache.AudioWriter recorder = speech.recorder;
+        try {
+            if ("speech.audio.update".equals(eventType)) {
+                String delta = objectMapper.readTree(payload).path("data").path("delta").asText("");
+                byte[] pcm = Base64.getDecoder().decode(delta);
+                recorder.write(pcm, 0, pcm.length);
+            } else if ("speech.audio.completed".equals(eventType)) {
+                speech.recorder = null;
+                recorder.commit();
+            } else if ("error".equals(eventType)) {
+                speech.recorder = null;
+                recorder.close();
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("TTS cache: unreadable Coze audio event, recording dropped - {}", e.getMessage());
+            speech.recorder = null;
+            recorder.close();
+        }
+    }
+
+    private void discardRecording(String userSessionId) {
+        SpeechRequest speech = speechRequests.get(userSessionId);
+        if (speech != null) {
+            synchronized (speech) {
+                speech.discardRecording();
+            }
+        }
     }
 
     private void forwardToCoze(WebSocketSession userSession, WebSocketMessage<?> message) throws IOException {
@@ -111,9 +270,37 @@ public class CozeTtsWebSocketHandler extends TextWebSocketHandler {
     public void afterConnectionClosed(WebSocketSession userSession, CloseStatus status) throws Exception {
         log.info("TTS connection closed, session={}, code={}, reason={}",
                 userSession.getId(), status.getCode(), status.getReason());
+        discardRecording(userSession.getId());
+        speechRequests.remove(userSession.getId());
         WebSocketSession cozeSession = cozeSessions.remove(userSession.getId());
         if (cozeSession != null && cozeSession.isOpen()) {
             cozeSession.close();
         }
     }
+
+    /**
+     * 一个前端会话的合成请求：暂存的 append 消息与累积的文本、上游会话当前的输出参数；
+     * inFlight（已发给 Coze、尚未完成的请求数）与落盘写入器由对象锁保护，同一时刻至多一个写入器
+     */
+    private static final class SpeechRequest {
+
+        private final List<TextMessage> pending = new ArrayList<>();
+        private final StringBuilder text = new StringBuilder();
+        private String format = "";
+        private String voiceId = "";
+        private int inFlight;
+        private TtsAudioCache.AudioWriter recorder;
+
+        private void reset() {
+            pending.clear();
+            text.setLength(0);
+        }
+
+        private void discardRecording() {
+            if (recorder != null) {
+                recorder.close();
+                recorder = null;
+            }
+        }
+    }
 }
@@ -0,0 +1,89 @@
+package com.volcano.chat.admission;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("AdaptiveConcurrencyLimit 自适应上限测试")
+class AdaptiveConcurrencyLimitTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final FairShareAdmissionScheduler scheduler = new FairShareAdmissionScheduler(meterRegistry);
+
+    @Test
+    @DisplayName("错误率超过阈值时乘性收缩，且不低于下限")
+    void backsOffOnErrors() {
+        AdaptiveConcurrencyLimit limit = limiter(0, 100, 85);
+
+        samples(limit, 8, 50);
+        failures(limit, 2);
+        assertEquals(90, limit.limit());
+        assertEquals(90, scheduler.limit());
+
+        failures(limit, 10);
+        assertEquals(85, limit.limit());
+        assertEquals(2.0, meterRegistry.counter("chat.sse.adaptive.adjustments", "reason", "error_rate").count());
+    }
+
+    @Test
+    @DisplayName("TTFB 明显高于基线时收缩")
+    void backsOffOnLatency() {
+        AdaptiveConcurrencyLimit limit = limiter(0, 100, 1);
+
+        samples(limit, 10, 100);
+        assertEquals(100, limit.limit());
+
+        samples(limit, 10, 300);
+        assertEquals(90, limit.limit());
+        assertEquals(1.0, meterRegistry.counter("chat.sse.adaptive.adjustments", "reason", "latency").count());
+    }
+
+    @Test
+    @DisplayName("健康且名额接近用满时加性扩大，不超过上限")
+    void growsWhenSaturated() {
+        AdaptiveConcurrencyLimit limit = limiter(10, 12, 1);
+        for (int i = 0; i < 10; i++) {
+            scheduler.acquire("user" + i, () -> { });
+        }
+
+        samples(limit, 10, 100);
+        assertEquals(12, limit.limit());
+        assertEquals(12, scheduler.limit());
+    }
+
+    private AdaptiveConcurrencyLimit limiter(int initial, int ceiling, int floor) {
+        ReflectionTestUtils.setField(scheduler, "limit", ceiling);
+        scheduler.init();
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(scheduler, meterRegistry);
+        ReflectionTestUtils.setField(limit, "enabled", true);
+        ReflectionTestUtils.setField(limit, "minLimit", floor);
+        ReflectionTestUtils.setField(limit, "initialLimit", initial);
+        ReflectionTestUtils.setField(limit, "windowMs", 0L);
+        ReflectionTestUtils.setField(limit, "minSamples", 10);
+        ReflectionTestUtils.setField(limit, "ttfbTolerance", 2.0);
+        ReflectionTestUtils.setField(limit, "errorRateThreshold", 0.1);
+        ReflectionTestUtils.setField(limit, "backoffRatio", 0.9);
+        ReflectionTestUtils.setField(limit, "increaseStep", 5);
+        limit.init();
+        limit.start(ceiling);
+        return limit;
+    }
+
+    private static void samples(AdaptiveConcurrencyLimit limit, int count, long ttfbMs) {
+        for (int i = 0; i < count; i++) {
+            limit.onFirstByte(TimeUnit.MILLISECONDS.toNanos(ttfbMs));
+        }
+    }
+
+    private static void failures(AdaptiveConcurrencyLimit limit, int count) {
+        for (int i = 0; i < count; i++) {
+            limit.onFailure(i % 2 == 0);
+        }
+    }
+}
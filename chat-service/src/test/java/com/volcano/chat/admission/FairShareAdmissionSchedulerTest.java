@@ -0,0 +1,143 @@
+package com.volcano.chat.admission;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("FairShareAdmissionScheduler 公平准入测试")
+class FairShareAdmissionSchedulerTest {
+
+    private final List<String> granted = new ArrayList<>();
+
+    @Test
+    @DisplayName("单用户达到上限被拒绝，不影响其他用户")
+    void capsPerUser() {
+        FairShareAdmissionScheduler scheduler = scheduler(10, 2, 0);
+
+        assertEquals(AdmissionScheduler.State.GRANTED, scheduler.acquire("A", () -> { }).state());
+        assertEquals(AdmissionScheduler.State.GRANTED, scheduler.acquire("A", () -> { }).state());
+        AdmissionScheduler.Ticket third = scheduler.acquire("A", () -> { });
+        assertEquals(AdmissionScheduler.State.REJECTED, third.state());
+        assertEquals(AdmissionScheduler.RejectReason.USER_LIMIT, third.rejectReason());
+
+        assertEquals(AdmissionScheduler.State.GRANTED, scheduler.acquire("B", () -> { }).state());
+        assertEquals(3, scheduler.inFlight());
+    }
+
+    @Test
+    @DisplayName("释放的名额在排队用户之间轮转分配")
+    void dispatchesRoundRobinAcrossUsers() {
+        FairShareAdmissionScheduler scheduler = scheduler(1, 0, 10);
+
+        AdmissionScheduler.Ticket running = scheduler.acquire("A", () -> { });
+        List<AdmissionScheduler.Ticket> tickets = new ArrayList<>();
+        tickets.add(queue(scheduler, "A", "a2"));
+        tickets.add(queue(scheduler, "A", "a3"));
+        tickets.add(queue(scheduler, "A", "a4"));
+        tickets.add(queue(scheduler, "B", "b1"));
+        assertEquals(4, scheduler.queueDepth());
+
+        running.release();
+        for (int i = 0; i < 3; i++) {
+            tickets.stream().filter(t -> t.state() == AdmissionScheduler.State.GRANTED).findFirst()
+                    .orElseThrow().release();
+        }
+
+        assertEquals(List.of("a2", "b1", "a3", "a4"), granted);
+        assertEquals(0, scheduler.queueDepth());
+    }
+
+    @Test
+    @DisplayName("出队的请求不会被放行，调大上限时立即放行排队请求")
+    void releaseDequeuesAndLimitIncreaseDispatches() {
+        FairShareAdmissionScheduler scheduler = scheduler(1, 0, 10);
+        scheduler.acquire("A", () -> { });
+        AdmissionScheduler.Ticket cancelled = queue(scheduler, "B", "b1");
+        queue(scheduler, "C", "c1");
+
+        cancelled.release();
+        assertEquals(AdmissionScheduler.State.RELEASED, cancelled.state());
+        scheduler.setLimit(3);
+
+        assertEquals(List.of("c1"), granted);
+        assertEquals(2, scheduler.inFlight());
+    }
+
+    @Test
+    @DisplayName("排队顺位与轮转放行顺序一致，withdraw 不会归还已放行的名额")
+    void positionFollowsRotationAndWithdrawOnlyDequeues() {
+        FairShareAdmissionScheduler scheduler = scheduler(1, 0, 10);
+        AdmissionScheduler.Ticket running = scheduler.acquire("A", () -> { });
+        AdmissionScheduler.Ticket a2 = queue(scheduler, "A", "a2");
+        AdmissionScheduler.Ticket a3 = queue(scheduler, "A", "a3");
+        AdmissionScheduler.Ticket b1 = queue(scheduler, "B", "b1");
+
+        assertEquals(1, a2.position());
+        assertEquals(2, b1.position());
+        assertEquals(3, a3.position());
+        assertEquals(0, running.position());
+
+        assertTrue(b1.withdraw());
+        assertFalse(b1.withdraw());
+        assertEquals(2, a3.position());
+
+        running.release();
+        assertEquals(AdmissionScheduler.State.GRANTED, a2.state());
+        assertFalse(a2.withdraw());
+        assertEquals(1, scheduler.inFlight());
+    }
+
+    @Test
+    @DisplayName("队列已满时按全局容量拒绝")
+    void rejectsWhenQueueFull() {
+        FairShareAdmissionScheduler scheduler = scheduler(1, 0, 1);
+        scheduler.acquire("A", () -> { });
+        queue(scheduler, "B", "b1");
+
+        AdmissionScheduler.Ticket ticket = scheduler.acquire("C", () -> { });
+        assertEquals(AdmissionScheduler.State.REJECTED, ticket.state());
+        assertEquals(AdmissionScheduler.RejectReason.CAPACITY, ticket.rejectReason());
+    }
+
+    @Test
+    @DisplayName("单用户排队数达到上限后按单用户上限拒绝，其他用户仍可排队")
+    void capsQueuedTicketsPerUser() {
+        FairShareAdmissionScheduler scheduler = scheduler(1, 1, 10, 2);
+        scheduler.acquire("A", () -> { });
+        queue(scheduler, "A", "a2");
+        queue(scheduler, "A", "a3");
+
+        AdmissionScheduler.Ticket a4 = scheduler.acquire("A", () -> { });
+        assertEquals(AdmissionScheduler.State.REJECTED, a4.state());
+        assertEquals(AdmissionScheduler.RejectReason.USER_LIMIT, a4.rejectReason());
+        queue(scheduler, "B", "b1");
+        assertEquals(3, scheduler.queueDepth());
+    }
+
+    private AdmissionScheduler.Ticket queue(AdmissionScheduler scheduler, String user, String name) {
+        AdmissionScheduler.Ticket ticket = scheduler.acquire(user, () -> granted.add(name));
+        assertEquals(AdmissionScheduler.State.QUEUED, ticket.state());
+        return ticket;
+    }
+
+    private static FairShareAdmissionScheduler scheduler(int limit, int perUserMax, int queueMax) {
+        return scheduler(limit, perUserMax, queueMax, 0);
+    }
+
+    private static FairShareAdmissionScheduler scheduler(int limit, int perUserMax, int queueMax,
+                                                         int perUserQueueMax) {
+        FairShareAdmissionScheduler scheduler = new FairShareAdmissionScheduler(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(scheduler, "limit", limit);
+        ReflectionTestUtils.setField(scheduler, "perUserMax", perUserMax);
+        ReflectionTestUtils.setField(scheduler, "queueMax", queueMax);
+        ReflectionTestUtils.setField(scheduler, "perUserQueueMax", perUserQueueMax);
+        scheduler.init();
+        return scheduler;
+    }
+}
@@ -0,0 +1,104 @@
+package com.volcano.chat.cache;
+
+import com.volcano.chat.config.CozeConfig;
+import com.volcano.chat.dto.ChatRequest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("AnswerCache 回答缓存测试")
+class AnswerCacheTest {
+
+    @Test
+    @DisplayName("缓存键忽略空白与全角差异、用户参数和代理参数，带会话的请求不缓存")
+    void keyNormalizesMessageAndParams() {
+        AnswerCache cache = cache(10, "lru");
+
+        String key = cache.keyFor(request("怎么开发票", Map.of("scene", "faq")));
+        assertNotNull(key);
+        assertEquals(key, cache.keyFor(request("  怎么开发票\t", Map.of("scene", "faq", "sse_coalesce_ms", 50))));
+        assertEquals(cache.keyFor(request("ABC?", null)), cache.keyFor(request("ａｂｃ？", null)));
+        assertEquals(key, cache.keyFor(request("怎么开发票", Map.of("scene", "faq", "user_uuid", "138"))));
+        assertNotEquals(key, cache.keyFor(request("怎么开发票", Map.of("scene", "vip"))));
+
+        ChatRequest withConversation = request("怎么开发票", null);
+        withConversation.setConversationId("conv-1");
+        assertNull(cache.keyFor(withConversation));
+    }
+
+    @Test
+    @DisplayName("参数按规范 JSON 编码：含分隔符的值与拆开的参数、字符串与数字不会得到同一个键")
+    void paramEncodingDoesNotCollide() {
+        AnswerCache cache = cache(10, "lru");
+
+        assertNotEquals(cache.keyFor(request("q", Map.of("a", "x;b=y"))),
+                cache.keyFor(request("q", Map.of("a", "x", "b", "y"))));
+        assertNotEquals(cache.keyFor(request("q", Map.of("a", "1"))), cache.keyFor(request("q", Map.of("a", 1))));
+        assertNotEquals(cache.keyFor(request("q", Map.of("a", List.of("x,y")))),
+                cache.keyFor(request("q", Map.of("a", List.of("x", "y")))));
+        assertNotEquals(cache.keyFor(request("q", Map.of("a", Map.of("b", "c}")))),
+                cache.keyFor(request("q", Map.of("a", Map.of("b", "c"), "}", ""))));
+        assertEquals(cache.keyFor(request("q", new LinkedHashMap<>(Map.of("a", Map.of("x", 1, "y", 2), "b", true)))),
+                cache.keyFor(request("q", new TreeMap<>(Map.of("b", true, "a", new TreeMap<>(Map.of("y", 2, "x", 1)))))));
+    }
+
+    @Test
+    @DisplayName("LRU 淘汰最久未访问条目，LFU 淘汰命中最少条目")
+    void evictsByPolicy() {
+        AnswerCache lru = cache(2, "lru");
+        lru.put("a", List.of("A"));
+        lru.put("b", List.of("B"));
+        lru.get("a");
+        lru.put("c", List.of("C"));
+        assertNotNull(lru.get("a"));
+        assertNull(lru.get("b"));
+
+        AnswerCache lfu = cache(2, "lfu");
+        lfu.put("a", List.of("A"));
+        lfu.put("b", List.of("B"));
+        lfu.get("a");
+        lfu.get("a");
+        lfu.get("b");
+        lfu.put("c", List.of("C"));
+        assertNotNull(lfu.get("a"));
+        assertNull(lfu.get("b"));
+        assertEquals(2, lfu.size());
+    }
+
+    @Test
+    @DisplayName("分片编码可无损还原（含冒号与数字）")
+    void encodesChunks() {
+        List<String> chunks = List.of("12:", "你好\n", "", "a:b:c");
+        assertEquals(chunks, AnswerCache.decode(AnswerCache.encode(chunks)));
+        assertEquals("12:你好\na:b:c", new AnswerCache.CachedAnswer(chunks).answer());
+    }
+
+    private static ChatRequest request(String message, Map<String, Object> params) {
+        ChatRequest request = new ChatRequest();
+        request.setMessage(message);
+        request.setParams(params);
+        return request;
+    }
+
+    private static AnswerCache cache(int maxEntries, String eviction) {
+        CozeConfig config = new CozeConfig();
+        config.setWorkflowId("wf");
+        AnswerCache cache = new AnswerCache(config, null, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "ttlSeconds", 60L);
+        ReflectionTestUtils.setField(cache, "maxEntries", maxEntries);
+        ReflectionTestUtils.setField(cache, "maxQuestionChars", 200);
+        ReflectionTestUtils.setField(cache, "maxAnswerChars", 8000);
+        ReflectionTestUtils.setField(cache, "eviction", eviction);
+        cache.init();
+        return cache;
+    }
+}
@@ -0,0 +1,154 @@
+package com.volcano.chat.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@DisplayName("MessageHistoryCache 消息历史缓存测试")
+class MessageHistoryCacheTest {
+
+    private static final String HISTORY = "{\"code\":0,\"data\":[{\"role\":\"user\",\"content\":\"你好\"}]}";
+
+    @Test
+    @DisplayName("条目只返回给所属用户，Coze 错误响应不缓存")
+    void scopesEntriesToOwner() {
+        MessageHistoryCache cache = cache(10);
+        cache.put("c1", "u1", HISTORY, cache.epoch(), null);
+        cache.put("c2", "u1", "{\"code\":4000,\"msg\":\"invalid\"}", cache.epoch(), null);
+
+        assertEquals(HISTORY, cache.get("c1", "u1"));
+        assertNull(cache.get("c1", "u2"));
+        assertNull(cache.get("c2", "u1"));
+    }
+
+    @Test
+    @DisplayName("发送消息后失效，读取期间发生失效的结果不写回")
+    void invalidationWinsOverInFlightRead() {
+        MessageHistoryCache cache = cache(10);
+        cache.put("c1", "u1", HISTORY, cache.epoch(), null);
+        cache.invalidate("c1");
+        assertNull(cache.get("c1", "u1"));
+
+        long since = cache.epoch();
+        cache.invalidate("c1");
+        cache.put("c1", "u1", HISTORY, since, null);
+        assertNull(cache.get("c1", "u1"));
+
+        cache.invalidate("c2");
+        cache.put("c1", "u1", HISTORY, cache.epoch() - 1, null);
+        assertEquals(HISTORY, cache.get("c1", "u1"));
+    }
+
+    @Test
+    @DisplayName("条目数受上限约束，失效记录被淘汰后保守拒绝旧读取")
+    void boundsEntriesAndTombstones() {
+        MessageHistoryCache cache = cache(2);
+        cache.put("c1", "u1", HISTORY, cache.epoch(), null);
+        cache.put("c2", "u1", HISTORY, cache.epoch(), null);
+        cache.put("c3", "u1", HISTORY, cache.epoch(), null);
+        assertEquals(2, cache.size());
+        assertNull(cache.get("c1", "u1"));
+
+        long since = cache.epoch();
+        cache.invalidate("c4");
+        cache.invalidate("c5");
+        cache.invalidate("c6");
+        cache.put("c4", "u1", HISTORY, since, null);
+        assertNull(cache.get("c4", "u1"));
+    }
+
+    @Test
+    @DisplayName("读取期间其他节点发生失效时，即使尚未收到通知也不把旧历史写回 Redis")
+    void staleReadDoesNotOverwriteRemoteInvalidation() {
+        FakeRedis redis = new FakeRedis();
+        MessageHistoryCache nodeA = cache(10, redis);
+        MessageHistoryCache nodeB = cache(10, redis);
+
+        long since = nodeB.epoch();
+        String version = nodeB.version("c1");
+        nodeA.invalidate("c1");
+        nodeB.put("c1", "u1", HISTORY, since, version);
+        assertNull(nodeA.get("c1", "u1"));
+        assertFalse(redis.values.containsKey("history:cache:c1"));
+
+        nodeA.put("c1", "u1", HISTORY, nodeA.epoch(), nodeA.version("c1"));
+        assertEquals(HISTORY, cache(10, redis).get("c1", "u1"));
+    }
+
+    private static MessageHistoryCache cache(int maxEntries, FakeRedis redis) {
+        MessageHistoryCache cache = new MessageHistoryCache(redis, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "localTtlSeconds", 60L);
+        ReflectionTestUtils.setField(cache, "maxEntries", maxEntries);
+        ReflectionTestUtils.setField(cache, "maxBodyKb", 256);
+        ReflectionTestUtils.setField(cache, "redisTtlSeconds", 600L);
+        cache.init();
+        // 不启动订阅容器：模拟失效通知尚未到达
+        ReflectionTestUtils.setField(cache, "redisEnabled", true);
+        return cache;
+    }
+
+    /**
+     * 按两个脚本的语义在内存中执行，不连接 Redis
+     */
+    private static final class FakeRedis extends StringRedisTemplate {
+
+        private final Map<String, String> values = new ConcurrentHashMap<>();
+        private final ValueOperations<String, String> ops = mockValueOperations();
+
+        @SuppressWarnings("unchecked")
+        private ValueOperations<String, String> mockValueOperations() {
+            ValueOperations<String, String> ops = mock(ValueOperations.class);
+            when(ops.get(any())).thenAnswer(call -> values.get(call.<String>getArgument(0)));
+            return ops;
+        }
+
+        @Override
+        public ValueOperations<String, String> opsForValue() {
+            return ops;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T execute(RedisScript<T> script, List<String> keys, Object... args) {
+            if (script == MessageHistoryCache.INVALIDATE_SCRIPT) {
+                values.merge(keys.get(1), "1", (v, one) -> String.valueOf(Long.parseLong(v) + 1));
+                values.remove(keys.get(0));
+                return (T) Long.valueOf(1);
+            }
+            if (!values.getOrDefault(keys.get(1), "0").equals(args[0])) {
+                return (T) Long.valueOf(0);
+            }
+            values.put(keys.get(0), (String) args[1]);
+            return (T) Long.valueOf(1);
+        }
+
+        @Override
+        public Long convertAndSend(String channel, Object message) {
+            return 0L;
+        }
+    }
+
+    private static MessageHistoryCache cache(int maxEntries) {
+        MessageHistoryCache cache = new MessageHistoryCache(null, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "localTtlSeconds", 60L);
+        ReflectionTestUtils.setField(cache, "maxEntries", maxEntries);
+        ReflectionTestUtils.setField(cache, "maxBodyKb", 256);
+        cache.init();
+        return cache;
+    }
+}
@@ -0,0 +1,98 @@
+package com.volcano.chat.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("SimilarAnswerIndex 近似问题索引测试")
+class SimilarAnswerIndexTest {
+
+    private static final AnswerCache.CachedAnswer INVOICE = new AnswerCache.CachedAnswer(List.of("在订单页申请开票"));
+
+    @Test
+    @DisplayName("规范化去除标点、全角差异、礼貌前缀与句末语气词")
+    void normalizesVariations() {
+        assertEquals("怎么开发票", SimilarAnswerIndex.normalize("请问，怎么开发票？"));
+        assertEquals("怎么开发票", SimilarAnswerIndex.normalize("您好 怎么开发票呢"));
+        assertEquals("vip怎么开票", SimilarAnswerIndex.normalize("ＶＩＰ怎么开票"));
+    }
+
+    @Test
+    @DisplayName("英文问候只作为完整单词去除，history、hiking 等单词保持不变")
+    void stripsEnglishGreetingsOnlyAsWholeWords() {
+        assertEquals("怎么开发票", SimilarAnswerIndex.normalize("Hi, 怎么开发票？"));
+        assertEquals("你好", SimilarAnswerIndex.normalize("hi\u4f60\u597d"));
+        assertEquals("怎么开发票", SimilarAnswerIndex.normalize("hi\u4f60\u597d怎么开发票"));
+        assertEquals("怎么开发票", SimilarAnswerIndex.normalize("hello怎么开发票"));
+        assertEquals("howtogetaninvoice", SimilarAnswerIndex.normalize("hello hi how to get an invoice"));
+        assertEquals("historyofinvoices", SimilarAnswerIndex.normalize("history of invoices"));
+        assertEquals("hikingroutes", SimilarAnswerIndex.normalize("Hiking routes?"));
+        assertEquals("hillhillhi", SimilarAnswerIndex.normalize("hill hill hi"));
+        assertEquals("hello", SimilarAnswerIndex.normalize("hello"));
+    }
+
+    @Test
+    @DisplayName("同一 scope 内相似问题命中，不同 scope 或不相关问题不命中")
+    void findsSimilarQuestionWithinScope() {
+        SimilarAnswerIndex index = index(false, 100);
+        index.add("s1", "怎么开发票", INVOICE);
+
+        SimilarAnswerIndex.Match match = index.find("s1", "请问，怎么开发票？");
+        assertNotNull(match);
+        assertFalse(match.shadow());
+        assertEquals(INVOICE, match.answer());
+        assertNull(index.find("s2", "怎么开发票"));
+        assertNull(index.find("s1", "怎么修改收货地址"));
+    }
+
+    @Test
+    @DisplayName("条目数受上限约束，同一问题重复登记只保留最新一条")
+    void boundsEntries() {
+        SimilarAnswerIndex index = index(false, 2);
+        index.add("s1", "怎么开发票", INVOICE);
+        index.add("s1", "怎么开发票？", INVOICE);
+        assertEquals(1, index.size());
+        index.add("s1", "怎么修改收货地址", INVOICE);
+        index.add("s1", "退款多久到账", INVOICE);
+
+        assertEquals(2, index.size());
+        assertNull(index.find("s1", "怎么开发票"));
+    }
+
+    @Test
+    @DisplayName("shadow 模式只返回候选，并按上游回答统计误命中")
+    void shadowModeCountsFalsePositives() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        SimilarAnswerIndex index = index(true, 100, registry);
+        index.add("s1", "怎么开发票", INVOICE);
+
+        SimilarAnswerIndex.Match match = index.find("s1", "怎么开发票呀");
+        assertTrue(match.shadow());
+        index.verifyShadow(match, "在订单页申请开票");
+        index.verifyShadow(match, "请联系人工客服处理退款");
+
+        assertEquals(1.0, registry.get("chat.similar_cache.shadow").tag("outcome", "confirmed").counter().count());
+        assertEquals(1.0, registry.get("chat.similar_cache.shadow").tag("outcome", "false_positive").counter().count());
+    }
+
+    private static SimilarAnswerIndex index(boolean shadow, int maxEntries) {
+        return index(shadow, maxEntries, new SimpleMeterRegistry());
+    }
+
+    private static SimilarAnswerIndex index(boolean shadow, int maxEntries, SimpleMeterRegistry registry) {
+        SimilarAnswerIndex index = new SimilarAnswerIndex(registry);
+        ReflectionTestUtils.setField(index, "enabled", true);
+        ReflectionTestUtils.setField(index, "shadow", shadow);
+        ReflectionTestUtils.setField(index, "threshold", 0.8);
+        ReflectionTestUtils.setField(index, "maxEntries", maxEntries);
+        ReflectionTestUtils.setField(index, "ttlSeconds", 60L);
+        ReflectionTestUtils.setField(index, "shadowAnswerThreshold", 0.6);
+        index.init();
+        return index;
+    }
+}
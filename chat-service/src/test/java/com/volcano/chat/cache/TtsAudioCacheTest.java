@@ -0,0 +1,134 @@
+package com.volcano.chat.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("TtsAudioCache TTS 音频缓存测试")
+class TtsAudioCacheTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    @DisplayName("键由格式、音色与文本共同决定，过长文本不缓存")
+    void keyCoversFormatVoiceAndText() {
+        TtsAudioCache cache = cache(1024, 10);
+        String key = cache.keyFor("你好", "v1", "mp3");
+        assertEquals(key, cache.keyFor("你好", "v1", "mp3"));
+        assertNotEquals(key, cache.keyFor("你好", "v2", "mp3"));
+        assertNotEquals(key, cache.keyFor("你好", "v1", "pcm"));
+        assertNull(cache.keyFor("x".repeat(11), "v1", "mp3"));
+    }
+
+    @Test
+    @DisplayName("提交后磁盘命中并提升到内存，未提交的写入被丢弃")
+    void committedEntriesAreServed() throws IOException {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        TtsAudioCache cache = cache(1024, 1000, registry);
+        String key = cache.keyFor("你好", "v1", "mp3");
+        byte[] audio = bytes(3000, 1);
+
+        try (TtsAudioCache.AudioWriter writer = cache.writer(key)) {
+            writer.write(audio, 0, 1000);
+            writer.write(audio, 1000, 2000);
+        }
+        assertNull(cache.get(key));
+
+        try (TtsAudioCache.AudioWriter writer = cache.writer(key)) {
+            writer.write(audio, 0, audio.length);
+            writer.commit();
+        }
+        assertArrayEquals(audio, read(cache.get(key)));
+        assertArrayEquals(audio, read(cache.get(key)));
+
+        assertEquals(1.0, registry.get("chat.tts_cache.requests").tag("result", "hit_disk").counter().count());
+        assertEquals(1.0, registry.get("chat.tts_cache.requests").tag("result", "hit_memory").counter().count());
+        assertEquals(6000.0, registry.get("chat.tts_cache.bytes_saved").counter().count());
+        try (var files = Files.list(dir)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    @DisplayName("磁盘总字节超限时淘汰最久未访问的条目")
+    void evictsLeastRecentlyUsedByBytes() {
+        TtsAudioCache cache = cache(1, 1000);
+        String a = put(cache, "a", 400 * 1024);
+        String b = put(cache, "b", 400 * 1024);
+        assertNotNull(cache.get(a));
+        String c = put(cache, "c", 400 * 1024);
+
+        assertNotNull(cache.get(a));
+        assertNull(cache.get(b));
+        assertNotNull(cache.get(c));
+        assertEquals(800 * 1024, cache.diskBytes());
+    }
+
+    @Test
+    @DisplayName("重启后从目录重建索引并清理残留临时文件")
+    void rebuildsIndexFromDirectory() throws IOException {
+        TtsAudioCache first = cache(1024, 1000);
+        String old = put(first, "old", 100);
+        String recent = put(first, "recent", 200);
+        Files.setLastModifiedTime(dir.resolve(old + ".audio"), FileTime.fromMillis(1000));
+        Files.writeString(dir.resolve(recent + ".123.tmp"), "partial");
+
+        TtsAudioCache second = cache(1024, 1000);
+        assertEquals(2, second.size());
+        assertEquals(300, second.diskBytes());
+        assertEquals(200, second.get(recent).size());
+        assertFalse(Files.exists(dir.resolve(recent + ".123.tmp")));
+    }
+
+    private static String put(TtsAudioCache cache, String text, int size) {
+        String key = cache.keyFor(text, "v1", "mp3");
+        try (TtsAudioCache.AudioWriter writer = cache.writer(key)) {
+            byte[] audio = bytes(size, text.length());
+            writer.write(audio, 0, audio.length);
+            writer.commit();
+        }
+        return key;
+    }
+
+    private static byte[] bytes(int size, int seed) {
+        byte[] bytes = new byte[size];
+        Arrays.fill(bytes, (byte) seed);
+        bytes[0] = 7;
+        return bytes;
+    }
+
+    private static byte[] read(TtsAudioCache.Audio audio) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        audio.writeTo(out, new byte[1024]);
+        return out.toByteArray();
+    }
+
+    private TtsAudioCache cache(long diskMaxMb, int maxTextChars) {
+        return cache(diskMaxMb, maxTextChars, new SimpleMeterRegistry());
+    }
+
+    private TtsAudioCache cache(long diskMaxMb, int maxTextChars, SimpleMeterRegistry registry) {
+        TtsAudioCache cache = new TtsAudioCache(registry);
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "dir", dir.toString());
+        ReflectionTestUtils.setField(cache, "memoryMaxMb", 1L);
+        ReflectionTestUtils.setField(cache, "memoryEntryMaxKb", 64);
+        ReflectionTestUtils.setField(cache, "diskMaxMb", diskMaxMb);
+        ReflectionTestUtils.setField(cache, "entryMaxMb", 8);
+        ReflectionTestUtils.setField(cache, "maxTextChars", maxTextChars);
+        cache.init();
+        return cache;
+    }
+}
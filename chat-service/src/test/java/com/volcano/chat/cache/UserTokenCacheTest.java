@@ -0,0 +1,75 @@
+package com.volcano.chat.cache;
+
+import com.volcano.chat.dto.UserTokenInfo;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("UserTokenCache 会话信息 near-cache 测试")
+class UserTokenCacheTest {
+
+    private static final UserTokenInfo INFO = new UserTokenInfo("13800000001", "pat_xxx", "sess-0001-1700000000");
+
+    @Test
+    @DisplayName("条目过期时间不超过 Redis Key 剩余 TTL，Coze Token 为空的会话不缓存")
+    void ttlIsCappedByKeyTtl() throws InterruptedException {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        UserTokenCache cache = cache(10, registry);
+        cache.put("jwt1", INFO, 60_000, cache.epoch());
+        cache.put("jwt2", INFO, 20, cache.epoch());
+        cache.put("jwt3", new UserTokenInfo("13800000001", "", "sess"), 60_000, cache.epoch());
+
+        assertSame(INFO, cache.get("jwt1"));
+        Thread.sleep(50);
+        assertNull(cache.get("jwt2"));
+        assertNull(cache.get("jwt3"));
+
+        assertEquals(1.0, registry.get("chat.user_token_cache.requests").tag("result", "hit").counter().count());
+        assertEquals(2.0, registry.get("chat.user_token_cache.requests").tag("result", "miss").counter().count());
+        assertEquals(1, registry.get("chat.user_token_cache.age").timer().count());
+    }
+
+    @Test
+    @DisplayName("失效后条目被删除，读取期间发生失效的结果不写回")
+    void invalidationWinsOverInFlightRead() {
+        UserTokenCache cache = cache(10, new SimpleMeterRegistry());
+        cache.put("jwt1", INFO, 60_000, cache.epoch());
+        cache.invalidate("jwt1");
+        assertNull(cache.get("jwt1"));
+
+        long since = cache.epoch();
+        cache.invalidate("jwt1");
+        cache.put("jwt1", INFO, 60_000, since);
+        assertNull(cache.get("jwt1"));
+
+        cache.put("jwt1", INFO, 60_000, cache.epoch());
+        assertSame(INFO, cache.get("jwt1"));
+    }
+
+    @Test
+    @DisplayName("条目数受上限约束，按最近访问淘汰")
+    void evictsLeastRecentlyUsed() {
+        UserTokenCache cache = cache(2, new SimpleMeterRegistry());
+        cache.put("jwt1", INFO, 60_000, cache.epoch());
+        cache.put("jwt2", INFO, 60_000, cache.epoch());
+        assertNotNull(cache.get("jwt1"));
+        cache.put("jwt3", INFO, 60_000, cache.epoch());
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("jwt1"));
+        assertNull(cache.get("jwt2"));
+    }
+
+    private static UserTokenCache cache(int maxEntries, SimpleMeterRegistry registry) {
+        UserTokenCache cache = new UserTokenCache(null, registry);
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "localTtlSeconds", 30L);
+        ReflectionTestUtils.setField(cache, "maxEntries", maxEntries);
+        ReflectionTestUtils.setField(cache, "pubsubEnabled", false);
+        cache.init();
+        return cache;
+    }
+}
@@ -0,0 +1,97 @@
+package com.volcano.chat.coze;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("ConversationPool 预创建会话池测试")
+class ConversationPoolTest {
+
+    private ConversationPool pool;
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    @DisplayName("后台补齐到每个 scope 的容量，取出按创建顺序且不跨 scope")
+    void refillsPerScope() throws Exception {
+        pool = pool(2, 60);
+        AtomicInteger seq = new AtomicInteger();
+        pool.refill("bot:u1", () -> "c" + seq.incrementAndGet());
+        awaitSize(2);
+
+        assertNull(pool.take("bot:u2"));
+        assertEquals("c1", pool.take("bot:u1"));
+        assertEquals("c2", pool.take("bot:u1"));
+        assertNull(pool.take("bot:u1"));
+    }
+
+    @Test
+    @DisplayName("同一 scope 同时只有一个补齐任务，失败时结束本轮")
+    void singleRefillPerScope() throws Exception {
+        pool = pool(1, 60);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        pool.refill("s", () -> {
+            calls.incrementAndGet();
+            release.await(5, TimeUnit.SECONDS);
+            return "c";
+        });
+        pool.refill("s", () -> {
+            calls.incrementAndGet();
+            return "x";
+        });
+        release.countDown();
+        awaitSize(1);
+        assertEquals(1, calls.get());
+
+        pool.take("s");
+        pool.refill("s", () -> {
+            throw new IllegalStateException("coze down");
+        });
+        pool.refill("t", () -> null);
+        Thread.sleep(100);
+        assertEquals(0, pool.size());
+    }
+
+    @Test
+    @DisplayName("过期条目不再交出，每轮补齐的创建次数有上限")
+    void expiresEntries() throws Exception {
+        pool = pool(2, 0);
+        AtomicInteger calls = new AtomicInteger();
+        pool.refill("s", () -> "c" + calls.incrementAndGet());
+        Thread.sleep(100);
+        assertNull(pool.take("s"));
+        assertEquals(0, pool.size());
+        assertEquals(2, calls.get());
+    }
+
+    private void awaitSize(int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.size() < size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(size, pool.size());
+    }
+
+    private static ConversationPool pool(int sizePerScope, long ttlSeconds) {
+        ConversationPool pool = new ConversationPool(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(pool, "enabled", true);
+        ReflectionTestUtils.setField(pool, "sizePerScope", sizePerScope);
+        ReflectionTestUtils.setField(pool, "ttlSeconds", ttlSeconds);
+        ReflectionTestUtils.setField(pool, "maxScopes", 100);
+        ReflectionTestUtils.setField(pool, "refillThreads", 2);
+        pool.init();
+        return pool;
+    }
+}
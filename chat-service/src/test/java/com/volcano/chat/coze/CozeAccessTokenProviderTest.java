@@ -0,0 +1,99 @@
+package com.volcano.chat.coze;
+
+import com.coze.openapi.client.auth.OAuthToken;
+import com.volcano.chat.config.CozeConfig;
+import com.volcano.chat.exception.TokenServiceException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("CozeAccessTokenProvider Token 缓存测试")
+class CozeAccessTokenProviderTest {
+
+    @Test
+    @DisplayName("有效期内命中缓存，剩余有效期不足安全余量时重新获取")
+    void cachesUntilMargin() {
+        StubProvider provider = provider(1800);
+        assertEquals("t1", provider.getAccessToken("u1").getAccessToken());
+        assertEquals("t1", provider.getAccessToken("u1").getAccessToken());
+        assertEquals("t2", provider.getAccessToken("u2").getAccessToken());
+        assertEquals(2, provider.calls.get());
+
+        StubProvider shortLived = provider(60);
+        shortLived.getAccessToken("u1");
+        shortLived.getAccessToken("u1");
+        assertEquals(2, shortLived.calls.get());
+    }
+
+    @Test
+    @DisplayName("同一用户的并发请求共享一次 OAuth 调用")
+    void sharesInFlightFetch() throws Exception {
+        StubProvider provider = provider(1800);
+        provider.gate = new CountDownLatch(1);
+        List<CompletableFuture<String>> callers = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            callers.add(CompletableFuture.supplyAsync(() -> provider.getAccessToken("u1").getAccessToken()));
+        }
+        Thread.sleep(100);
+        provider.gate.countDown();
+        for (CompletableFuture<String> caller : callers) {
+            assertEquals("t1", caller.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, provider.calls.get());
+    }
+
+    @Test
+    @DisplayName("失败不缓存，下次请求重新获取")
+    void failuresAreNotCached() {
+        StubProvider provider = provider(1800);
+        provider.fail = true;
+        assertThrows(TokenServiceException.class, () -> provider.getAccessToken("u1"));
+        provider.fail = false;
+        assertEquals("t2", provider.getAccessToken("u1").getAccessToken());
+    }
+
+    private static StubProvider provider(int expiresIn) {
+        StubProvider provider = new StubProvider(expiresIn);
+        ReflectionTestUtils.setField(provider, "cacheEnabled", true);
+        ReflectionTestUtils.setField(provider, "refreshMarginSeconds", 120);
+        ReflectionTestUtils.setField(provider, "maxEntries", 100);
+        provider.init();
+        ReflectionTestUtils.setField(provider, "oauthConfigured", true);
+        return provider;
+    }
+
+    private static final class StubProvider extends CozeAccessTokenProvider {
+
+        private final int expiresIn;
+        private final AtomicInteger calls = new AtomicInteger();
+        private volatile CountDownLatch gate;
+        private volatile boolean fail;
+
+        private StubProvider(int expiresIn) {
+            super(new CozeConfig(), new SimpleMeterRegistry());
+            this.expiresIn = expiresIn;
+        }
+
+        @Override
+        OAuthToken requestToken(String userUuid) throws Exception {
+            int n = calls.incrementAndGet();
+            if (gate != null) {
+                gate.await(5, TimeUnit.SECONDS);
+            }
+            if (fail) {
+                throw new IllegalStateException("oauth down");
+            }
+            return new OAuthToken("t" + n, expiresIn, null, "Bearer");
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.volcano.chat.service.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("CozeTokenRefresher Coze Token 续期调度测试")
+class CozeTokenRefresherTest {
+
+    private static final long NOW = 1_700_000_000_000L;
+
+    @Test
+    @DisplayName("续期时间在过期前 lead 到 lead + jitter 之间，且不早于当前时间")
+    void schedulesBeforeExpiryWithJitter() {
+        CozeTokenRefresher refresher = refresher();
+        long expiresAt = NOW + TimeUnit.MINUTES.toMillis(30);
+        long earliest = expiresAt - TimeUnit.SECONDS.toMillis(300 + 60);
+        long latest = expiresAt - TimeUnit.SECONDS.toMillis(300);
+        boolean spread = false;
+        long first = refresher.nextRefreshAt(expiresAt, NOW);
+        for (int i = 0; i < 200; i++) {
+            long at = refresher.nextRefreshAt(expiresAt, NOW);
+            assertTrue(at > earliest && at <= latest, "refresh at " + at);
+            spread |= at != first;
+        }
+        assertTrue(spread);
+        assertEquals(NOW, refresher.nextRefreshAt(NOW + 1000, NOW));
+    }
+
+    @Test
+    @DisplayName("失败重试间隔在 retry 到 2 * retry 之间")
+    void retriesAfterJitteredDelay() {
+        CozeTokenRefresher refresher = refresher();
+        for (int i = 0; i < 200; i++) {
+            long at = refresher.retryAt(NOW);
+            assertTrue(at >= NOW + 15_000 && at < NOW + 30_000, "retry at " + at);
+        }
+    }
+
+    @Test
+    @DisplayName("Token 有效期覆盖会话剩余时间时不续期，续期要求的有效期超过调度窗口")
+    void skipsTokensOutlivingTheSession() {
+        CozeTokenRefresher refresher = refresher();
+        long sessionEnd = NOW + TimeUnit.MINUTES.toMillis(10);
+        assertFalse(refresher.needsRefresh(sessionEnd + 1000, sessionEnd));
+        assertTrue(refresher.needsRefresh(NOW + TimeUnit.MINUTES.toMillis(6), sessionEnd));
+        assertTrue(refresher.needsRefresh(0, sessionEnd));
+        assertTrue(refresher.minValiditySeconds() > 300 + 60);
+    }
+
+    private static CozeTokenRefresher refresher() {
+        CozeTokenRefresher refresher = new CozeTokenRefresher(null, null, null, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(refresher, "leadSeconds", 300L);
+        ReflectionTestUtils.setField(refresher, "jitterSeconds", 60L);
+        ReflectionTestUtils.setField(refresher, "retrySeconds", 15L);
+        refresher.init();
+        return refresher;
+    }
+}
@@ -0,0 +1,99 @@
+package com.volcano.chat.service.impl;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 会话读写基准（需要本地 Redis：localhost:6379），每次操作的往返次数：
+ *
+ * | 操作                 | 旧实现                      | 脚本实现            |
+ * |----------------------|-----------------------------|---------------------|
+ * | 创建会话             | 2（HSET putAll、EXPIRE）     | 1（CREATE_SCRIPT）  |
+ * | 读取会话             | 1（HGETALL）                 | -                   |
+ * | 读取并延长（滑动过期）| 2（HGETALL、EXPIRE）         | 1（TOUCH_SCRIPT）   |
+ *
+ * 运行：mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java
+ *      "-Dexec.args=-cp %classpath com.volcano.chat.service.impl.RedisSessionBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class RedisSessionBenchmark {
+
+    private static final String KEY = RedisUserTokenService.KEY_PREFIX + "benchmark";
+    private static final String TTL = String.valueOf(RedisUserTokenService.TOKEN_EXPIRE_SECONDS);
+
+    private LettuceConnectionFactory connectionFactory;
+    private StringRedisTemplate redisTemplate;
+
+    @Setup
+    public void setUp() {
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("localhost", 6379));
+        connectionFactory.afterPropertiesSet();
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+        scriptedCreate();
+    }
+
+    @TearDown
+    public void tearDown() {
+        redisTemplate.delete(KEY);
+        connectionFactory.destroy();
+    }
+
+    @Benchmark
+    public void legacyCreate() {
+        redisTemplate.opsForHash().putAll(KEY, Map.of(
+                RedisUserTokenService.FIELD_PHONE, "13800000000",
+                RedisUserTokenService.FIELD_COZE_TOKEN, "pat_benchmark",
+                RedisUserTokenService.FIELD_SESSION_ID, "sess-0000-1700000000",
+                RedisUserTokenService.FIELD_COZE_EXPIRES_AT, "1700001800000"));
+        redisTemplate.expire(KEY, RedisUserTokenService.TOKEN_EXPIRE_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public void scriptedCreate() {
+        redisTemplate.execute(RedisUserTokenService.CREATE_SCRIPT, Collections.singletonList(KEY), TTL,
+                RedisUserTokenService.FIELD_PHONE, "13800000000",
+                RedisUserTokenService.FIELD_COZE_TOKEN, "pat_benchmark",
+                RedisUserTokenService.FIELD_SESSION_ID, "sess-0000-1700000000",
+                RedisUserTokenService.FIELD_COZE_EXPIRES_AT, "1700001800000");
+    }
+
+    @Benchmark
+    public void read(Blackhole bh) {
+        bh.consume(redisTemplate.opsForHash().entries(KEY));
+    }
+
+    @Benchmark
+    public void legacySlidingRead(Blackhole bh) {
+        bh.consume(redisTemplate.opsForHash().entries(KEY));
+        redisTemplate.expire(KEY, RedisUserTokenService.TOKEN_EXPIRE_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public void scriptedSlidingRead(Blackhole bh) {
+        List<?> data = redisTemplate.execute(RedisUserTokenService.TOUCH_SCRIPT, Collections.singletonList(KEY), TTL);
+        bh.consume(data);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RedisSessionBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
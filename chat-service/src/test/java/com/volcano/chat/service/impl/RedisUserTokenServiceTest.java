@@ -0,0 +1,151 @@
+package com.volcano.chat.service.impl;
+
+import com.volcano.chat.cache.UserTokenCache;
+import com.volcano.chat.config.CozeConfig;
+import com.volcano.chat.coze.CozeAccessTokenProvider;
+import com.volcano.chat.dto.CozeTokenResponse;
+import com.volcano.chat.dto.SessionCreateResult;
+import com.volcano.chat.exception.TokenServiceException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("RedisUserTokenService 批量创建会话测试")
+class RedisUserTokenServiceTest {
+
+    private RedisUserTokenService service;
+
+    @AfterEach
+    void tearDown() {
+        if (service != null) {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("每个手机号返回一个结果，重复手机号只创建一次，会话按批流水线写入")
+    void createsSessionsInPipelinedBatches() throws Exception {
+        PipelineCountingTemplate redis = new PipelineCountingTemplate();
+        service = service(redis, new StubProvider("13800000004"), 2);
+        List<SessionCreateResult> results = Collections.synchronizedList(new ArrayList<>());
+
+        service.createUserTokens(List.of("13800000001", "13800000002", "13800000003", "13800000004",
+                "13800000005", "13800000001", ""), results::add).get(5, TimeUnit.SECONDS);
+
+        assertEquals(6, results.size());
+        assertEquals(4, results.stream().filter(r -> r.token() != null).count());
+        assertTrue(results.contains(SessionCreateResult.failed("", "Phone is required")));
+        SessionCreateResult failed = results.stream()
+                .filter(r -> "13800000004".equals(r.phone())).findFirst().orElseThrow();
+        assertNull(failed.token());
+        assertTrue(failed.error().startsWith("Coze token unavailable"));
+        assertEquals(2, redis.pipelines.get());
+    }
+
+    @Test
+    @DisplayName("回调失败时放弃剩余手机号并以异常结束")
+    void abortsWhenConsumerFails() {
+        service = service(new PipelineCountingTemplate(), new StubProvider(null), 1);
+        AtomicInteger delivered = new AtomicInteger();
+
+        ExecutionException error = assertThrows(ExecutionException.class, () -> service.createUserTokens(
+                List.of("13800000001", "13800000002", "13800000003"), result -> {
+                    delivered.incrementAndGet();
+                    throw new IllegalStateException("client gone");
+                }).get(5, TimeUnit.SECONDS));
+
+        assertEquals("client gone", error.getCause().getMessage());
+        assertEquals(1, delivered.get());
+    }
+
+    @Test
+    @DisplayName("下游写得慢的批次不占用准备线程，其他批次照常完成")
+    void slowConsumerDoesNotStallOtherBatches() throws Exception {
+        service = service(new PipelineCountingTemplate(), new StubProvider(null), 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger slowDelivered = new AtomicInteger();
+
+        CompletableFuture<Void> slow = service.createUserTokens(List.of("13800000001", "13800000002"), result -> {
+            slowDelivered.incrementAndGet();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        List<SessionCreateResult> results = Collections.synchronizedList(new ArrayList<>());
+        service.createUserTokens(List.of("13800000003", "13800000004"), results::add).get(2, TimeUnit.SECONDS);
+
+        assertEquals(2, results.size());
+        assertFalse(slow.isDone());
+        release.countDown();
+        slow.get(5, TimeUnit.SECONDS);
+        assertEquals(2, slowDelivered.get());
+    }
+
+    private static RedisUserTokenService service(StringRedisTemplate redis, CozeAccessTokenProvider provider,
+                                                 int redisBatchSize) {
+        return service(redis, provider, redisBatchSize, 4);
+    }
+
+    private static RedisUserTokenService service(StringRedisTemplate redis, CozeAccessTokenProvider provider,
+                                                 int redisBatchSize, int parallelism) {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        CozeTokenRefresher refresher = new CozeTokenRefresher(redis, provider, null, registry);
+        refresher.init();
+        UserTokenCache cache = new UserTokenCache(redis, registry);
+        cache.init();
+        RedisUserTokenService service = new RedisUserTokenService(redis, provider, refresher, cache);
+        ReflectionTestUtils.setField(service, "batchParallelism", parallelism);
+        ReflectionTestUtils.setField(service, "redisBatchSize", redisBatchSize);
+        service.init();
+        return service;
+    }
+
+    /**
+     * 只统计流水线次数，不连接 Redis
+     */
+    private static final class PipelineCountingTemplate extends StringRedisTemplate {
+
+        private final AtomicInteger pipelines = new AtomicInteger();
+
+        @Override
+        public List<Object> executePipelined(RedisCallback<?> action) {
+            pipelines.incrementAndGet();
+            return List.of();
+        }
+    }
+
+    private static final class StubProvider extends CozeAccessTokenProvider {
+
+        private final String failingPhone;
+
+        private StubProvider(String failingPhone) {
+            super(new CozeConfig(), new SimpleMeterRegistry());
+            this.failingPhone = failingPhone;
+        }
+
+        @Override
+        public CozeTokenResponse getAccessToken(String userUuid) {
+            if (userUuid.equals(failingPhone)) {
+                throw new TokenServiceException("OAuth token generation failed: oauth down");
+            }
+            return new CozeTokenResponse("pat_" + userUuid, 1800);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.volcano.chat.sse;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("DeltaCoalescer 合并写出测试")
+class DeltaCoalescerTest {
+
+    private final List<String> sent = new ArrayList<>();
+    private final SseEventSink recorder = new SseEventSink() {
+        @Override
+        public synchronized void send(StreamEvent event) {
+            String prefix = event.id() > 0 ? event.id() + "#" : "";
+            sent.add(prefix + event.event() + "|" + (event.frame() != null ? "raw" : event.data()));
+        }
+    };
+
+    @Test
+    @DisplayName("连续 answer delta 合并，非 delta 事件先写出缓冲")
+    void mergesUntilNonDeltaEvent() throws Exception {
+        DeltaCoalescer coalescer = new DeltaCoalescer(recorder, 60_000, 1024, null);
+
+        coalescer.send(StreamEvent.of("conversation.message.delta", delta("answer", "你")));
+        coalescer.send(StreamEvent.of("conversation.message.delta", delta("answer", "好\\n")));
+        coalescer.send(StreamEvent.of("conversation.message.delta", delta("answer", "\\u4e16")));
+        assertTrue(sent.isEmpty());
+
+        coalescer.send(StreamEvent.of("conversation.message.completed", "{}"));
+
+        assertEquals(List.of(
+                "conversation.message.delta|" + delta("answer", "你好\\n\\u4e16"),
+                "conversation.message.completed|{}"), sent);
+    }
+
+    @Test
+    @DisplayName("verbose delta 不参与合并且保持顺序")
+    void verboseDeltaFlushesFirst() throws Exception {
+        DeltaCoalescer coalescer = new DeltaCoalescer(recorder, 60_000, 1024, null);
+
+        coalescer.send(StreamEvent.of("conversation.message.delta", delta("answer", "a")));
+        coalescer.send(StreamEvent.of("conversation.message.delta", delta("verbose", "debug")));
+        coalescer.close();
+
+        assertEquals(List.of(
+                "conversation.message.delta|" + delta("answer", "a"),
+                "conversation.message.delta|" + delta("verbose", "debug")), sent);
+    }
+
+    @Test
+    @DisplayName("达到字符上限立即写出")
+    void flushesOnMaxChars() throws Exception {
+        DeltaCoalescer coalescer = new DeltaCoalescer(recorder, 60_000, 4, null);
+
+        coalescer.send(StreamEvent.of("conversation.message.delta", delta("answer", "ab")));
+        coalescer.send(StreamEvent.of("conversation.message.delta", delta("answer", "cd")));
+
+        assertEquals(List.of("conversation.message.delta|" + delta("answer", "abcd")), sent);
+    }
+
+    @Test
+    @DisplayName("窗口到期由定时器写出")
+    void flushesOnWindow() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            DeltaCoalescer coalescer = new DeltaCoalescer(recorder, 20, 1024, scheduler);
+            coalescer.send(StreamEvent.of("conversation.message.delta", delta("answer", "x")));
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+            while (sent.isEmpty() && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+
+            assertEquals(List.of("conversation.message.delta|" + delta("answer", "x")), sent);
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("合并事件沿用最后一个 delta 的序号")
+    void mergedEventKeepsLastId() throws Exception {
+        DeltaCoalescer coalescer = new DeltaCoalescer(recorder, 60_000, 1024, null);
+
+        coalescer.send(StreamEvent.of("conversation.message.delta", delta("answer", "a")).withId(3));
+        coalescer.send(StreamEvent.of("conversation.message.delta", delta("answer", "b")).withId(4));
+        coalescer.close();
+
+        assertEquals(List.of("4#conversation.message.delta|" + delta("answer", "ab")), sent);
+    }
+
+    private static String delta(String type, String content) {
+        return "{\"id\":\"m1\",\"type\":\"" + type + "\",\"content\":\"" + content + "\",\"chat_id\":\"c1\"}";
+    }
+}
@@ -0,0 +1,118 @@
+package com.volcano.chat.sse;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * delta 内容提取基准：旧版 indexOf + substring + replace 链 vs DeltaJsonExtractor
+ *
+ * 运行：mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java
+ *      "-Dexec.args=-cp %classpath com.volcano.chat.sse.DeltaJsonExtractorBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeltaJsonExtractorBenchmark {
+
+    private static final String DELTA = "{\"id\":\"7461234567890123456\",\"conversation_id\":\"7461234567890000001\","
+            + "\"bot_id\":\"7441234567890000002\",\"role\":\"assistant\",\"type\":\"answer\","
+            + "\"content\":\"您好，发票可以在\\\"我的订单\\\"页面申请开具。\\n如有问题请联系客服\","
+            + "\"content_type\":\"text\",\"chat_id\":\"7461234567890000003\",\"section_id\":\"7461234567890000004\"}";
+
+    private final byte[] deltaBytes = DELTA.getBytes(StandardCharsets.UTF_8);
+    private final DeltaJsonExtractor extractor = new DeltaJsonExtractor();
+    private final StringBuilder answer = new StringBuilder(4096);
+
+    @Benchmark
+    public void legacy(Blackhole bh) {
+        answer.setLength(0);
+        if ("answer".equals(legacyExtractJsonField(DELTA, "type"))) {
+            String content = legacyExtractJsonField(DELTA, "content");
+            if (content != null && !content.isEmpty()) {
+                answer.append(content);
+            }
+        }
+        bh.consume(answer);
+    }
+
+    @Benchmark
+    public void singlePassChars(Blackhole bh) {
+        answer.setLength(0);
+        bh.consume(extractor.appendAnswer(DELTA, answer));
+    }
+
+    @Benchmark
+    public void singlePassUtf8(Blackhole bh) {
+        answer.setLength(0);
+        bh.consume(extractor.appendAnswer(deltaBytes, 0, deltaBytes.length, answer));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(DeltaJsonExtractorBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+
+    // ==================== 旧实现（CozeProxyService.extractJsonField）====================
+
+    private static String legacyExtractJsonField(String json, String fieldName) {
+        String searchKey = "\"" + fieldName + "\":";
+        int fieldStart = json.indexOf(searchKey);
+        if (fieldStart == -1) {
+            return null;
+        }
+        int valueStart = fieldStart + searchKey.length();
+        while (valueStart < json.length() && json.charAt(valueStart) == ' ') {
+            valueStart++;
+        }
+        if (valueStart >= json.length()) {
+            return null;
+        }
+        char firstChar = json.charAt(valueStart);
+        if (firstChar == '"') {
+            int valueEnd = legacyFindClosingQuote(json, valueStart + 1);
+            if (valueEnd != -1) {
+                String value = json.substring(valueStart + 1, valueEnd);
+                return value.replace("\\n", "\n")
+                        .replace("\\r", "\r")
+                        .replace("\\t", "\t")
+                        .replace("\\\"", "\"")
+                        .replace("\\\\", "\\");
+            }
+        } else if (firstChar == '{' || firstChar == '[') {
+            return null;
+        } else {
+            int valueEnd = valueStart;
+            while (valueEnd < json.length()
+                    && json.charAt(valueEnd) != ','
+                    && json.charAt(valueEnd) != '}'
+                    && json.charAt(valueEnd) != ']') {
+                valueEnd++;
+            }
+            return json.substring(valueStart, valueEnd).trim();
+        }
+        return null;
+    }
+
+    private static int legacyFindClosingQuote(String s, int start) {
+        for (int i = start; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                i++;
+            } else if (c == '"') {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,87 @@
+package com.volcano.chat.sse;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("DeltaJsonExtractor 单次扫描提取测试")
+class DeltaJsonExtractorTest {
+
+    private final DeltaJsonExtractor extractor = new DeltaJsonExtractor();
+
+    @Test
+    @DisplayName("answer 类型的 content 被追加，字符与字节输入结果一致")
+    void appendsAnswerContent() {
+        String json = "{\"role\":\"assistant\",\"type\":\"answer\",\"content\":\"发票\\\"开具\\\"\\n\\t\\\\ok\",\"chat_id\":\"1\"}";
+
+        assertEquals("发票\"开具\"\n\t\\ok", extractChars(json));
+        assertEquals("发票\"开具\"\n\t\\ok", extractBytes(json));
+    }
+
+    @Test
+    @DisplayName("\\uXXXX 与代理对被完整解码")
+    void decodesUnicodeEscapes() {
+        String json = "{\"type\":\"answer\",\"content\":\"\\u4f60\\u597d \\ud83d\\ude00 \\/ \\b\\f\"}";
+
+        assertEquals("你好 😀 / \b\f", extractChars(json));
+        assertEquals("你好 😀 / \b\f", extractBytes(json));
+    }
+
+    @Test
+    @DisplayName("原始 UTF-8 四字节字符解码为代理对")
+    void decodesRawSupplementaryCharacters() {
+        assertEquals("好😀", extractBytes("{\"type\":\"answer\",\"content\":\"好😀\"}"));
+    }
+
+    @Test
+    @DisplayName("content 在 type 之前也能识别，verbose 被忽略")
+    void handlesFieldOrderAndVerbose() {
+        assertEquals("a", extractChars("{\"content\":\"a\",\"type\":\"answer\"}"));
+        assertEquals("", extractChars("{\"type\":\"verbose\",\"content\":\"debug\"}"));
+    }
+
+    @Test
+    @DisplayName("嵌套对象中的同名字段不参与匹配")
+    void ignoresNestedFields() {
+        String json = "{\"meta\":{\"type\":\"answer\",\"content\":\"x\"},\"list\":[{\"content\":\"y\"}],"
+                + "\"type\":\"answer\",\"n\":12,\"ok\":true,\"content\":\"z\"}";
+
+        assertEquals("z", extractChars(json));
+        assertEquals("z", extractBytes(json));
+    }
+
+    @Test
+    @DisplayName("不完整 JSON 返回 -1 且不追加")
+    void rejectsTruncatedJson() {
+        StringBuilder out = new StringBuilder();
+        assertEquals(-1, extractor.appendAnswer("{\"type\":\"answer\",\"content\":\"abc", out));
+        assertEquals(0, out.length());
+    }
+
+    @Test
+    @DisplayName("读取顶层字符串字段")
+    void readsTopLevelStringField() {
+        String json = "{\"meta\":{\"id\":\"nested\"},\"id\":\"c\\u0031\",\"n\":1,\"conversation_id\":\"v1\"}";
+
+        assertEquals("c1", DeltaJsonExtractor.stringField(json, "id"));
+        assertEquals("v1", DeltaJsonExtractor.stringField(json, "conversation_id"));
+        assertNull(DeltaJsonExtractor.stringField(json, "n"));
+        assertNull(DeltaJsonExtractor.stringField(json, "missing"));
+    }
+
+    private String extractChars(String json) {
+        StringBuilder out = new StringBuilder();
+        extractor.appendAnswer(json, out);
+        return out.toString();
+    }
+
+    private String extractBytes(String json) {
+        byte[] bytes = ("xx" + json).getBytes(StandardCharsets.UTF_8);
+        StringBuilder out = new StringBuilder();
+        extractor.appendAnswer(bytes, 2, bytes.length - 2, out);
+        return out.toString();
+    }
+}
@@ -0,0 +1,202 @@
+package com.volcano.chat.sse;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("LiveStream 续传缓冲测试")
+class LiveStreamTest {
+
+    private final AtomicInteger idle = new AtomicInteger();
+    private final AtomicInteger cancelled = new AtomicInteger();
+    private final LiveStream.Listener listener = new LiveStream.Listener() {
+        @Override
+        public void onIdle(LiveStream stream) {
+            idle.incrementAndGet();
+        }
+
+        @Override
+        public void onActive(LiveStream stream) {
+        }
+
+        @Override
+        public void onCompleted(LiveStream stream) {
+        }
+    };
+
+    @Test
+    @DisplayName("按 Last-Event-ID 补发后续事件并继续接收实时事件")
+    void replaysAfterLastEventId() {
+        LiveStream stream = new LiveStream("s1", "session", true, 100, 1 << 20, cancelled::incrementAndGet, listener);
+        List<String> first = new ArrayList<>();
+        StreamSubscriber subscriber = subscriber(first);
+        stream.attach(subscriber, 0);
+
+        stream.publish(StreamEvent.of("conversation.message.delta", "a"));
+        stream.publish(StreamEvent.of("conversation.message.delta", "b"));
+        stream.detach(subscriber);
+        stream.publish(StreamEvent.of("conversation.message.delta", "c"));
+
+        List<String> resumed = new ArrayList<>();
+        assertEquals(LiveStream.AttachResult.ATTACHED, stream.attach(subscriber(resumed), 1));
+        stream.publish(StreamEvent.of("done", "[DONE]"));
+
+        assertEquals(List.of("1:a", "2:b"), first);
+        assertEquals(List.of("2:b", "3:c", "4:[DONE]"), resumed);
+        assertEquals(1, idle.get());
+        assertEquals(0, cancelled.get());
+    }
+
+    @Test
+    @DisplayName("缓冲按事件数淘汰，超出范围的续传返回 GAP")
+    void evictsOldestAndReportsGap() {
+        LiveStream stream = new LiveStream("s1", "session", true, 2, 1 << 20, () -> { }, listener);
+        for (int i = 0; i < 5; i++) {
+            stream.publish(StreamEvent.of("conversation.message.delta", "x" + i));
+        }
+
+        assertEquals(LiveStream.AttachResult.GAP, stream.attach(subscriber(new ArrayList<>()), 1));
+
+        List<String> resumed = new ArrayList<>();
+        assertEquals(LiveStream.AttachResult.ATTACHED, stream.attach(subscriber(resumed), 3));
+        assertEquals(List.of("4:x3", "5:x4"), resumed);
+    }
+
+    @Test
+    @DisplayName("已结束的流补发全部缓冲后结束连接")
+    void completedStreamReplaysThenCloses() {
+        LiveStream stream = new LiveStream("s1", "session", true, 100, 1 << 20, () -> { }, listener);
+        stream.publish(StreamEvent.of("conversation.chat.completed", "{}"));
+        stream.complete();
+
+        List<String> resumed = new ArrayList<>();
+        assertEquals(LiveStream.AttachResult.ATTACHED, stream.attach(subscriber(resumed), 0));
+        assertEquals(List.of("1:{}"), resumed);
+        assertEquals(0, stream.subscriberCount());
+
+        stream.cancel();
+        assertEquals(LiveStream.AttachResult.EXPIRED, stream.attach(subscriber(new ArrayList<>()), 0));
+        assertEquals(0, stream.bufferedBytes());
+    }
+
+    @Test
+    @DisplayName("写出在锁外进行，卡住的订阅者不阻塞挂载、移除与其他订阅者")
+    void stalledSubscriberDoesNotHoldTheLock() throws Exception {
+        LiveStream stream = new LiveStream("s1", "session", true, 100, 1 << 20, () -> { }, listener);
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        StreamSubscriber stalled = new StreamSubscriber(new SseEmitter(), event -> {
+            entered.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        stream.attach(stalled, 0);
+        CompletableFuture<Void> relay = CompletableFuture.runAsync(
+                () -> stream.publish(StreamEvent.of("conversation.message.delta", "a")));
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        List<String> other = Collections.synchronizedList(new ArrayList<>());
+        StreamSubscriber late = subscriber(other);
+        CompletableFuture.runAsync(() -> stream.attach(late, 0)).get(1, TimeUnit.SECONDS);
+        assertEquals(2, stream.subscriberCount());
+        assertEquals(List.of("1:a"), other);
+        CompletableFuture.runAsync(() -> stream.detach(late)).get(1, TimeUnit.SECONDS);
+
+        release.countDown();
+        relay.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    @DisplayName("每个订阅者由自己的发送队列写出：卡住的订阅者不阻塞上游与其他订阅者，队列溢出后被断开")
+    void blockedSubscriberDoesNotStallOthers() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            LiveStream stream = new LiveStream("s1", "session", true, 100, 1 << 20, executor, 3, 0, () -> { }, listener);
+            CountDownLatch release = new CountDownLatch(1);
+            StreamSubscriber blocked = new StreamSubscriber(new SseEmitter(), event -> await(release));
+            List<String> fast = Collections.synchronizedList(new ArrayList<>());
+            stream.attach(blocked, 0);
+            stream.attach(subscriber(fast), 0);
+
+            // 每次等正常订阅者收到后再发布下一个：卡住的订阅者不拖慢这一过程，其队列在第 5 个事件时溢出
+            CompletableFuture.runAsync(() -> {
+                for (int i = 0; i < 6; i++) {
+                    stream.publish(StreamEvent.of("conversation.message.delta", "x" + i));
+                    int expected = i + 1;
+                    waitFor(() -> fast.size() == expected);
+                }
+            }).get(2, TimeUnit.SECONDS);
+            assertEquals(1, stream.subscriberCount());
+            stream.complete();
+
+            assertEquals(List.of("1:x0", "2:x1", "3:x2", "4:x3", "5:x4", "6:x5"), fast);
+            release.countDown();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("当前写出持续超过时间上限的订阅者在下一次发布时被断开")
+    void dropsSubscriberStuckInWrite() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            LiveStream stream = new LiveStream("s1", "session", true, 100, 1 << 20, executor, 100, 20, () -> { }, listener);
+            CountDownLatch entered = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            stream.attach(new StreamSubscriber(new SseEmitter(), event -> {
+                entered.countDown();
+                await(release);
+            }), 0);
+            List<String> fast = Collections.synchronizedList(new ArrayList<>());
+            stream.attach(subscriber(fast), 0);
+
+            stream.publish(StreamEvent.of("conversation.message.delta", "a"));
+            assertTrue(entered.await(1, TimeUnit.SECONDS));
+            Thread.sleep(50);
+            stream.publish(StreamEvent.of("conversation.message.delta", "b"));
+
+            assertEquals(1, stream.subscriberCount());
+            waitFor(() -> fast.size() == 2);
+            assertEquals(List.of("1:a", "2:b"), fast);
+            release.countDown();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+    }
+
+    private static StreamSubscriber subscriber(List<String> received) {
+        return new StreamSubscriber(new SseEmitter(), event -> received.add(event.id() + ":" + event.data()));
+    }
+}
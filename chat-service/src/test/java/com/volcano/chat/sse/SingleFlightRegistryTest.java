@@ -0,0 +1,98 @@
+package com.volcano.chat.sse;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("SingleFlightRegistry 单飞合并测试")
+class SingleFlightRegistryTest {
+
+    private final LiveStream.Listener listener = new LiveStream.Listener() {
+        @Override
+        public void onIdle(LiveStream stream) {
+        }
+
+        @Override
+        public void onActive(LiveStream stream) {
+        }
+
+        @Override
+        public void onCompleted(LiveStream stream) {
+        }
+    };
+
+    @Test
+    @DisplayName("follower 补发前缀后接收实时事件，leader 结束时取回 follower 记录")
+    void followerReplaysPrefixAndCollectsRecords() {
+        SingleFlightRegistry registry = registry(10);
+        LiveStream stream = stream();
+        assertTrue(registry.lead("k", stream));
+        assertFalse(registry.lead("k", stream()));
+        stream.publish(StreamEvent.of("conversation.message.delta", "a"));
+
+        SingleFlightRegistry.Flight flight = registry.find("k");
+        List<String> received = new ArrayList<>();
+        assertTrue(registry.join(flight, subscriber(received)));
+        assertTrue(flight.addRecord(7L));
+        stream.publish(StreamEvent.of("conversation.message.delta", "b"));
+
+        assertEquals(List.of(7L), registry.complete(stream, "ab"));
+        assertNull(registry.find("k"));
+        assertFalse(flight.addRecord(8L));
+        assertEquals("ab", flight.answer());
+        assertEquals(List.of("1:a", "2:b"), received);
+    }
+
+    @Test
+    @DisplayName("流失败或取消时自动注销，晚到的 follower 不回填答案")
+    void closedStreamUnregisters() {
+        SingleFlightRegistry registry = registry(10);
+        LiveStream stream = stream();
+        registry.lead("k", stream);
+        SingleFlightRegistry.Flight flight = registry.find("k");
+
+        stream.publish(StreamEvent.of("error", "{}"));
+        stream.complete();
+
+        assertNull(registry.find("k"));
+        assertFalse(flight.addRecord(1L));
+        assertNull(flight.answer());
+        assertTrue(registry.complete(stream, "x").isEmpty());
+    }
+
+    @Test
+    @DisplayName("follower 名额用尽或流未缓冲时不合并")
+    void respectsLimits() {
+        SingleFlightRegistry registry = registry(1);
+        LiveStream stream = stream();
+        registry.lead("k", stream);
+        SingleFlightRegistry.Flight flight = registry.find("k");
+
+        assertTrue(registry.join(flight, subscriber(new ArrayList<>())));
+        assertFalse(registry.join(flight, subscriber(new ArrayList<>())));
+        assertFalse(registry.lead("u", new LiveStream(null, "session", false, 0, 0, () -> { }, listener)));
+    }
+
+    private LiveStream stream() {
+        return new LiveStream("s1", "session", true, 100, 1 << 20, () -> { }, listener);
+    }
+
+    private static SingleFlightRegistry registry(int maxFollowers) {
+        SingleFlightRegistry registry = new SingleFlightRegistry(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(registry, "enabled", true);
+        ReflectionTestUtils.setField(registry, "maxFollowers", maxFollowers);
+        registry.init();
+        return registry;
+    }
+
+    private static StreamSubscriber subscriber(List<String> received) {
+        return new StreamSubscriber(new SseEmitter(), event -> received.add(event.id() + ":" + event.data()));
+    }
+}
@@ -0,0 +1,90 @@
+package com.volcano.chat.sse;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("SseFrameScanner 字节级帧扫描测试")
+class SseFrameScannerTest {
+
+    private final List<SseFrame> frames = new ArrayList<>();
+    private final SseFrameScanner scanner = new SseFrameScanner(frames::add);
+
+    @Test
+    @DisplayName("LF 分隔的帧原样保留字节")
+    void splitsLfFrames() {
+        String input = "event:conversation.message.delta\ndata:{\"content\":\"你好\"}\n\nevent:done\ndata:\"[DONE]\"\n\n";
+        feedAll(input);
+
+        assertEquals(2, frames.size());
+        assertEquals("conversation.message.delta", frames.get(0).event());
+        assertEquals("{\"content\":\"你好\"}", frames.get(0).data());
+        assertEquals("event:conversation.message.delta\ndata:{\"content\":\"你好\"}\n\n",
+                new String(frames.get(0).raw(), StandardCharsets.UTF_8));
+        assertEquals("done", frames.get(1).event());
+    }
+
+    @Test
+    @DisplayName("逐字节喂入与 CRLF 行结束")
+    void handlesByteByByteCrlf() {
+        byte[] input = "event: ping\r\ndata: a\r\ndata: b\r\n\r\nevent:x\r\ndata:y\r\n\r\n".getBytes(StandardCharsets.UTF_8);
+        for (byte b : input) {
+            scanner.feed(new byte[] { b }, 0, 1);
+        }
+
+        assertEquals(2, frames.size());
+        assertEquals("ping", frames.get(0).event());
+        assertEquals("a\nb", frames.get(0).data());
+        assertEquals("event:x\r\ndata:y\r\n\r\n", new String(frames.get(1).raw(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @DisplayName("多字节字符跨越读缓冲边界")
+    void splitsUtf8AcrossChunks() {
+        byte[] input = "event:e\ndata:世界\n\n".getBytes(StandardCharsets.UTF_8);
+        int cut = "event:e\ndata:".length() + 1;
+        scanner.feed(ByteBuffer.wrap(input, 0, cut));
+        scanner.feed(ByteBuffer.allocateDirect(input.length - cut).put(input, cut, input.length - cut).flip());
+
+        assertEquals(1, frames.size());
+        assertEquals("世界", frames.get(0).data());
+    }
+
+    @Test
+    @DisplayName("上游结束时刷新未以空行结尾的帧")
+    void finishFlushesTrailingFrame() {
+        feedAll("event:done\ndata:end");
+        assertTrue(frames.isEmpty());
+
+        scanner.finish();
+
+        assertEquals(1, frames.size());
+        assertEquals("end", frames.get(0).data());
+        assertEquals("event:done\ndata:end\n\n", new String(frames.get(0).raw(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @DisplayName("上游结束时为缺少空行或以裸 CR 结尾的帧补齐结束空行")
+    void finishTerminatesRawFrame() {
+        feedAll("data:a\n");
+        scanner.finish();
+        feedAll("data:b\r");
+        scanner.finish();
+
+        assertEquals(2, frames.size());
+        assertEquals("data:a\n\n", new String(frames.get(0).raw(), StandardCharsets.UTF_8));
+        assertEquals("data:b\r\n\n", new String(frames.get(1).raw(), StandardCharsets.UTF_8));
+        assertEquals("b", frames.get(1).data());
+    }
+
+    private void feedAll(String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        scanner.feed(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,80 @@
+package com.volcano.chat.util;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JWT 验证基准（8 线程并发，模拟多个请求线程同时鉴权）：
+ * 每次新建 JwtParser（旧实现）vs 共享 JwtParser vs 共享 JwtParser + 已验证 Token 缓存
+ *
+ * 运行：mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java
+ *      "-Dexec.args=-cp %classpath com.volcano.chat.util.JwtUtilBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class JwtUtilBenchmark {
+
+    private static final SecretKey LEGACY_KEY = Keys.hmacShaKeyFor(
+            "volcano-chat-service-jwt-secret-key-2024".getBytes(StandardCharsets.UTF_8));
+
+    // 活跃会话数：每次调用随机取一个，模拟不同用户的请求交错到达
+    @Param({"1000"})
+    private int sessions;
+
+    private String[] tokens;
+
+    @Setup
+    public void setUp() {
+        tokens = new String[sessions];
+        for (int i = 0; i < sessions; i++) {
+            tokens[i] = JwtUtil.generateToken(String.valueOf(13800000000L + i));
+        }
+    }
+
+    private String next() {
+        return tokens[ThreadLocalRandom.current().nextInt(tokens.length)];
+    }
+
+    @Benchmark
+    public void legacyParserPerCall(Blackhole bh) {
+        Claims claims = Jwts.parserBuilder()
+                .setSigningKey(LEGACY_KEY)
+                .build()
+                .parseClaimsJws(next())
+                .getBody();
+        bh.consume(claims.getSubject());
+    }
+
+    @Benchmark
+    public void sharedParser(Blackhole bh) {
+        bh.consume(JwtUtil.verify(next()));
+    }
+
+    @Benchmark
+    public void cachedValidate(Blackhole bh) {
+        bh.consume(JwtUtil.validateToken(next()));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(JwtUtilBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
@@ -0,0 +1,45 @@
+package com.volcano.chat.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("JwtUtil 验证与缓存测试")
+class JwtUtilTest {
+
+    @Test
+    @DisplayName("验证通过的 Token 被缓存，再次验证返回同一结果")
+    void cachesVerifiedTokens() {
+        String token = JwtUtil.generateToken("13800000001");
+        JwtUtil.JwtValidationResult first = JwtUtil.validateToken(token);
+        assertTrue(first.valid());
+        assertEquals("13800000001", first.subject());
+        assertSame(first, JwtUtil.validateToken(token));
+    }
+
+    @Test
+    @DisplayName("篡改或格式错误的 Token 不通过验证且不被缓存")
+    void rejectsTamperedTokens() {
+        String token = JwtUtil.generateToken("13800000002");
+        String tampered = token.substring(0, token.length() - 2) + (token.endsWith("AA") ? "BB" : "AA");
+        int before = JwtUtil.verifiedTokens();
+
+        assertFalse(JwtUtil.validateToken(tampered).valid());
+        assertFalse(JwtUtil.validateToken("not-a-jwt").valid());
+        assertFalse(JwtUtil.validateToken("").valid());
+        assertEquals(before, JwtUtil.verifiedTokens());
+    }
+
+    @Test
+    @DisplayName("缓存条目随 Token 过期失效")
+    void cachedEntriesExpireWithToken() {
+        String token = JwtUtil.generateToken("13800000003");
+        JwtUtil.JwtValidationResult result = JwtUtil.validateToken(token);
+        assertTrue(result.valid());
+
+        JwtUtil.JwtValidationResult expired = JwtUtil.validateToken(token, result.expiration().getTime());
+        assertFalse(expired.valid());
+        assertEquals("Token expired", expired.errorMessage());
+    }
+}
@@ -0,0 +1,143 @@
+package com.volcano.chat.websocket;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.volcano.chat.cache.TtsAudioCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@DisplayName("CozeTtsWebSocketHandler TTS 缓存代理测试")
+class CozeTtsWebSocketHandlerTest {
+
+    private static final String UPDATE =
+            "{\"event_type\":\"speech.update\",\"data\":{\"output_audio\":{\"codec\":\"pcm\",\"voice_id\":\"v1\"}}}";
+    private static final String COMPLETE = "{\"event_type\":\"input_text_buffer.complete\"}";
+    private static final String COMPLETED = "{\"event_type\":\"speech.audio.completed\"}";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    @DisplayName("speech.update 立即转发给 Coze，同一会话先命中缓存、后未命中时上游仍使用该配置")
+    void speechUpdateReachesCozeBeforeCacheHit() throws Exception {
+        TtsAudioCache cache = cache();
+        CozeTtsWebSocketHandler handler = new CozeTtsWebSocketHandler(null, cache, new ObjectMapper());
+        WebSocketSession user = session("user-1");
+        WebSocketSession coze = session("coze-1");
+        @SuppressWarnings("unchecked")
+        Map<String, WebSocketSession> cozeSessions =
+                (Map<String, WebSocketSession>) ReflectionTestUtils.getField(handler, "cozeSessions");
+        cozeSessions.put(user.getId(), coze);
+
+        String key = cache.keyFor("你好", "v1", "ws:{\"codec\":\"pcm\"}");
+        try (TtsAudioCache.AudioWriter writer = cache.writer(key)) {
+            writer.write(new byte[]{1, 2, 3, 4}, 0, 4);
+            writer.commit();
+        }
+
+        handler.handleMessage(user, new TextMessage(UPDATE));
+        assertEquals(List.of(UPDATE), payloads(coze));
+
+        handler.handleMessage(user, new TextMessage(append("你好")));
+        handler.handleMessage(user, new TextMessage(COMPLETE));
+        assertEquals(List.of(UPDATE), payloads(coze));
+        assertTrue(payloads(user).get(payloads(user).size() - 1).contains("speech.audio.completed"));
+
+        handler.handleMessage(user, new TextMessage(append("再见")));
+        handler.handleMessage(user, new TextMessage(COMPLETE));
+        assertEquals(List.of(UPDATE, append("再见"), COMPLETE), payloads(coze));
+    }
+
+    @Test
+    @DisplayName("上一次合成未结束时的流水线请求不查缓存也不落盘，前一次的写入器被丢弃")
+    void pipelinedRequestsAreNotCached() throws Exception {
+        TtsAudioCache cache = cache();
+        CozeTtsWebSocketHandler handler = new CozeTtsWebSocketHandler(null, cache, new ObjectMapper());
+        WebSocketSession user = session("user-1");
+        WebSocketSession coze = session("coze-1");
+        @SuppressWarnings("unchecked")
+        Map<String, WebSocketSession> cozeSessions =
+                (Map<String, WebSocketSession>) ReflectionTestUtils.getField(handler, "cozeSessions");
+        cozeSessions.put(user.getId(), coze);
+        String format = "ws:{\"codec\":\"pcm\"}";
+
+        handler.handleMessage(user, new TextMessage(UPDATE));
+        handler.handleMessage(user, new TextMessage(append("第一句")));
+        handler.handleMessage(user, new TextMessage(COMPLETE));
+        handler.handleMessage(user, new TextMessage(append("第二句")));
+        handler.handleMessage(user, new TextMessage(COMPLETE));
+        assertEquals(List.of(UPDATE, append("第一句"), COMPLETE, append("第二句"), COMPLETE), payloads(coze));
+
+        fromCoze(handler, user, audio(new byte[]{1, 1}));
+        fromCoze(handler, user, COMPLETED);
+        fromCoze(handler, user, audio(new byte[]{2, 2}));
+        fromCoze(handler, user, COMPLETED);
+        assertNull(cache.get(cache.keyFor("第一句", "v1", format)));
+        assertNull(cache.get(cache.keyFor("第二句", "v1", format)));
+        try (var files = Files.list(dir)) {
+            assertEquals(0, files.count());
+        }
+
+        handler.handleMessage(user, new TextMessage(append("第二句")));
+        handler.handleMessage(user, new TextMessage(COMPLETE));
+        fromCoze(handler, user, audio(new byte[]{2, 2}));
+        fromCoze(handler, user, COMPLETED);
+        assertEquals(2, cache.get(cache.keyFor("第二句", "v1", format)).size());
+    }
+
+    private static void fromCoze(CozeTtsWebSocketHandler handler, WebSocketSession user, String payload) {
+        Map<?, ?> speechRequests = (Map<?, ?>) ReflectionTestUtils.getField(handler, "speechRequests");
+        ReflectionTestUtils.invokeMethod(handler, "onCozeEvent", speechRequests.get(user.getId()), payload);
+    }
+
+    private static String audio(byte[] pcm) {
+        return "{\"event_type\":\"speech.audio.update\",\"data\":{\"delta\":\""
+                + Base64.getEncoder().encodeToString(pcm) + "\"}}";
+    }
+
+    private static String append(String delta) {
+        return "{\"event_type\":\"input_text_buffer.append\",\"data\":{\"delta\":\"" + delta + "\"}}";
+    }
+
+    private static WebSocketSession session(String id) {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn(id);
+        when(session.isOpen()).thenReturn(true);
+        return session;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> payloads(WebSocketSession session) throws Exception {
+        ArgumentCaptor<WebSocketMessage<?>> sent = ArgumentCaptor.forClass((Class) WebSocketMessage.class);
+        verify(session, atLeast(0)).sendMessage(sent.capture());
+        return sent.getAllValues().stream().map(m -> ((TextMessage) m).getPayload()).toList();
+    }
+
+    private TtsAudioCache cache() {
+        TtsAudioCache cache = new TtsAudioCache(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "dir", dir.toString());
+        ReflectionTestUtils.setField(cache, "memoryMaxMb", 1L);
+        ReflectionTestUtils.setField(cache, "memoryEntryMaxKb", 64);
+        ReflectionTestUtils.setField(cache, "diskMaxMb", 1L);
+        ReflectionTestUtils.setField(cache, "entryMaxMb", 8);
+        ReflectionTestUtils.setField(cache, "maxTextChars", 1000);
+        cache.init();
+        return cache;
+    }
+}
@@ -5,6 +5,7 @@ CREATE TABLE IF NOT EXISTS chat_logs (
     user_id VARCHAR(64) NOT NULL,
     user_question TEXT,
     ai_answer TEXT,
+    answer_source VARCHAR(32),
     request_time TIMESTAMP NOT NULL,
     response_time TIMESTAMP,
     deleted INTEGER DEFAULT 0
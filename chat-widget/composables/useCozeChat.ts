@@ -26,6 +26,12 @@ type SSEEventType =
   | 'conversation.chat.failed'
   | 'done'
   | 'error'
+  | 'queued'
+
+interface SSEQueuedData {
+  position: number
+  queue_depth: number
+}
 
 interface SSEChatCreatedData {
   conversation_id: string
@@ -90,6 +96,8 @@ export function useCozeChat(sessionName: string) {
   const error = ref<string | null>(null)
   const debugUrl = ref<string | null>(null)
   const currentChatId = ref<string | null>(null)
+  // 服务端排队时的顺位（queued 事件），开始生成后清空
+  const queuePosition = ref<number | null>(null)
 
   // 用于中止请求
   let abortController: AbortController | null = null
@@ -396,7 +404,14 @@ export function useCozeChat(sessionName: string) {
   const processSSEEvent = (event: SSEEventType, data: unknown) => {
     console.log('[SSE Debug]', event, data) // Debug logging
     switch (event) {
+      case 'queued':
+        if (!currentChatId.value) {
+          queuePosition.value = (data as SSEQueuedData).position
+        }
+        break
+
       case 'conversation.chat.created':
+        queuePosition.value = null
         if (isChatCreatedData(data)) {
           conversationId.value = data.conversation_id
           saveConversationId(data.conversation_id)
@@ -449,6 +464,7 @@ export function useCozeChat(sessionName: string) {
         } else {
           error.value = errData.msg || '发生错误'
         }
+        queuePosition.value = null
         currentChatId.value = null
         break
       }
@@ -530,7 +546,8 @@ export function useCozeChat(sessionName: string) {
               eventName === 'conversation.chat.completed' ||
               eventName === 'conversation.chat.failed' ||
               eventName === 'done' ||
-              eventName === 'error') {
+              eventName === 'error' ||
+              eventName === 'queued') {
               currentEvent = eventName as SSEEventType
             } else {
               currentEvent = ''
@@ -560,6 +577,7 @@ export function useCozeChat(sessionName: string) {
       if (assistantMsg) assistantMsg.isStreaming = false
       abortController = null
       currentChatId.value = null
+      queuePosition.value = null
     }
   }
 
@@ -839,6 +857,7 @@ export function useCozeChat(sessionName: string) {
     conversationId,
     error,
     debugUrl,
+    queuePosition,
     isSpeaking,
     speakingMessageId,
     getToken,
@@ -3,6 +3,7 @@ CREATE TABLE IF NOT EXISTS chat_logs (
   user_uuid VARCHAR(64) NOT NULL,
   question TEXT NOT NULL,
   answer LONGTEXT NOT NULL,
+  answer_source VARCHAR(32) NULL,
   created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
   INDEX idx_user_created_at (user_uuid, created_at)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
@@ -0,0 +1,4 @@
+-- 为已有的 chat_logs 表增加 answer_source 列（MySQL / PostgreSQL 通用）
+-- 为空表示由 Coze 生成；cache / similar / coalesced 表示回答缓存精确命中 / 近似命中 / 合并到进行中的相同请求
+-- ChatLog 实体包含该字段，升级到此版本前必须先执行，否则按实体列查询（selectById 等）会失败
+ALTER TABLE chat_logs ADD COLUMN answer_source VARCHAR(32) NULL;